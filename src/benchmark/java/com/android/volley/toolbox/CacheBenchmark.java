@@ -0,0 +1,23 @@
+package com.android.volley.toolbox;
+
+import org.junit.After;
+import org.junit.Before;
+
+import java.io.File;
+import java.io.IOException;
+
+/** 磁盘缓存基准测试的基类:每个测试使用一个新的临时目录,结束后删除. */
+public abstract class CacheBenchmark {
+    protected File mDirectory;
+
+    @Before
+    public void setUp() throws IOException {
+        mDirectory = File.createTempFile("volley-bench", "");
+        mDirectory.delete();
+    }
+
+    @After
+    public void tearDown() {
+        DiskBasedCache.deleteRecursively(mDirectory);
+    }
+}
@@ -0,0 +1,75 @@
+package com.android.volley.toolbox;
+
+import com.android.volley.Cache;
+
+import org.junit.Test;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.Locale;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * 按响应体大小测量DiskBasedCache.get命中的延迟,并与不经过缓存索引和锁直接读取缓存文件对比,
+ * 两者之差是get本身(加锁,淘汰策略,日志,复制头部)的开销.
+ * 运行: ./gradlew test -Pbenchmark --tests '*DiskBasedCacheReadBenchmark',结果输出到标准输出.
+ */
+public class DiskBasedCacheReadBenchmark extends CacheBenchmark {
+    private static final int[] SIZES = {1024, 16 * 1024, 64 * 1024, 256 * 1024, 1024 * 1024};
+
+    @Test
+    public void hitLatencyBySize() throws IOException {
+        DiskBasedCache cache = new DiskBasedCache(mDirectory, 64 * 1024 * 1024);
+        cache.initialize();
+        for (int size : SIZES) {
+            Cache.Entry entry = new Cache.Entry();
+            entry.data = new byte[size];
+            entry.ttl = Long.MAX_VALUE;
+            for (int i = 0; i < 8; i ++) {
+                entry.responseHeaders.add("X-Header-" + i, "value-" + i);
+            }
+            cache.put(key(size), entry);
+        }
+
+        System.out.println("size        file(us)  get(us)");
+        for (int size : SIZES) {
+            File file = DiskBasedCache.getCacheFile(mDirectory,
+                    DiskBasedCache.getFilenameForKey(key(size)));
+            int rounds = Math.max(200, (int) (64L * 1024 * 1024 / size));
+            for (int i = 0; i < rounds / 4; i ++) {
+                assertEquals(size, readFile(file).length);
+                assertEquals(size, cache.get(key(size)).data.length);
+            }
+            long start = System.nanoTime();
+            for (int i = 0; i < rounds; i ++) {
+                readFile(file);
+            }
+            double direct = (System.nanoTime() - start) / 1000.0 / rounds;
+            start = System.nanoTime();
+            for (int i = 0; i < rounds; i ++) {
+                cache.get(key(size));
+            }
+            double current = (System.nanoTime() - start) / 1000.0 / rounds;
+            System.out.println(String.format(Locale.US, "%-9d %10.1f %8.1f", size, direct, current));
+        }
+    }
+
+    private static String key(int size) {
+        return "http://example.com/entry/" + size;
+    }
+
+    /** 与DiskBasedCache.get相同的读取方式:缓冲流解析头部,再把剩余部分读入数组. */
+    private static byte[] readFile(File file) throws IOException {
+        DiskBasedCache.CountingInputStream cis = new DiskBasedCache.CountingInputStream(
+                new BufferedInputStream(new FileInputStream(file)));
+        try {
+            DiskBasedCache.CacheHeader.readHeader(cis);
+            return DiskBasedCache.streamToBytes(cis, (int) (file.length() - cis.bytesRead));
+        } finally {
+            cis.close();
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package com.android.volley.toolbox;
+
+import com.android.volley.Cache;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * 回放同一条访问轨迹,比较LRU与W-TinyLFU淘汰策略的命中率和字节命中率.
+ * 轨迹由Zipf分布的热点key和成段出现的一次性扫描url组成(例如无限滚动的feed).
+ * 运行: ./gradlew test -Pbenchmark --tests '*EvictionPolicyBenchmark',结果输出到标准输出.
+ */
+public class EvictionPolicyBenchmark extends CacheBenchmark {
+    private static final int CACHE_BYTES = 4 * 1024 * 1024;
+    private static final int REQUESTS = 60000;
+    private static final int HOT_KEYS = 2000;
+    private static final double ZIPF_EXPONENT = 0.9;
+
+    /** 每SCAN_PHASE个请求切换一次,扫描阶段70%的请求是一次性的url. */
+    private static final int SCAN_PHASE = 3000;
+
+    @Test
+    public void replayTrace() {
+        String[] keys = new String[REQUESTS];
+        int[] sizes = new int[REQUESTS];
+        buildTrace(keys, sizes);
+
+        double[] lru = replay(new DiskBasedCache(new File(mDirectory, "lru"), CACHE_BYTES),
+                keys, sizes);
+        double[] tinyLfu = replay(new DiskBasedCache(new File(mDirectory, "wtinylfu"),
+                CACHE_BYTES, new WTinyLfuEvictionPolicy(CACHE_BYTES)), keys, sizes);
+        System.out.println(String.format(Locale.US,
+                "LRU       hit=%.3f byteHit=%.3f%nW-TinyLFU hit=%.3f byteHit=%.3f",
+                lru[0], lru[1], tinyLfu[0], tinyLfu[1]));
+    }
+
+    private static void buildTrace(String[] keys, int[] sizes) {
+        Random random = new Random(42);
+        double[] cdf = new double[HOT_KEYS];
+        double sum = 0;
+        for (int i = 0; i < HOT_KEYS; i ++) {
+            sum += 1.0 / Math.pow(i + 1, ZIPF_EXPONENT);
+            cdf[i] = sum;
+        }
+        int scan = 0;
+        for (int i = 0; i < keys.length; i ++) {
+            if ((i / SCAN_PHASE) % 2 == 1 && random.nextInt(10) < 7) {
+                keys[i] = "http://example.com/feed/" + (scan ++);
+                sizes[i] = 1024 + random.nextInt(30 * 1024);
+            } else {
+                int k = Arrays.binarySearch(cdf, random.nextDouble() * sum);
+                if (k < 0) {
+                    k = -k - 1;
+                }
+                keys[i] = "http://example.com/api/" + k;
+                sizes[i] = 1024 + (k * 7919 % 15) * 1024;
+            }
+        }
+    }
+
+    /** 与CacheDispatcher一样先peek再get,未命中时写入缓存,返回{命中率, 字节命中率}. */
+    private static double[] replay(Cache cache, String[] keys, int[] sizes) {
+        cache.initialize();
+        long hits = 0;
+        long hitBytes = 0;
+        long totalBytes = 0;
+        for (int i = 0; i < keys.length; i ++) {
+            totalBytes += sizes[i];
+            if (cache.peek(keys[i]) != null && cache.get(keys[i]) != null) {
+                hits ++;
+                hitBytes += sizes[i];
+            } else {
+                Cache.Entry entry = new Cache.Entry();
+                entry.data = new byte[sizes[i]];
+                entry.ttl = Long.MAX_VALUE;
+                cache.put(keys[i], entry);
+            }
+        }
+        return new double[] {(double) hits / keys.length, (double) hitBytes / totalBytes};
+    }
+}
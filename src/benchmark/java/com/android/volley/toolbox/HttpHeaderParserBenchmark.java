@@ -0,0 +1,173 @@
+package com.android.volley.toolbox;
+
+import com.android.volley.Cache;
+import com.android.volley.Headers;
+import com.android.volley.NetworkResponse;
+
+import org.apache.http.impl.cookie.DateParseException;
+import org.apache.http.impl.cookie.DateUtils;
+import org.junit.Test;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.TimeZone;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * 对比HttpHeaderParser.parseCacheHeaders与原来split/trim加DateUtils的解析方式.
+ * 运行: ./gradlew test -Pbenchmark --tests '*HttpHeaderParserBenchmark',结果输出到标准输出.
+ */
+public class HttpHeaderParserBenchmark {
+    private static final int WARMUP_ROUNDS = 20000;
+    private static final int MEASURE_ROUNDS = 100000;
+
+    /** 模拟若干个服务器返回的响应头部,Date等日期在响应之间大量重复. */
+    private static NetworkResponse[] responses() {
+        SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("GMT"));
+        String[] cacheControls = {
+                "public, max-age=60",
+                "max-age=300, stale-while-revalidate=60",
+                " private , max-age=0,  must-revalidate",
+                "public, max-age=86400, immutable",
+        };
+        Random random = new Random(1);
+        long base = 1476900000000L;
+        NetworkResponse[] responses = new NetworkResponse[64];
+        for (int i = 0; i < responses.length; i ++) {
+            Headers headers = new Headers();
+            long date = base + random.nextInt(8) * 1000L;
+            headers.add("Date", format.format(new Date(date)));
+            headers.add("Cache-Control", cacheControls[i % cacheControls.length]);
+            headers.add("Expires", format.format(new Date(date + 60000)));
+            headers.add("Last-Modified", format.format(new Date(base - 86400000L * (i % 4))));
+            headers.add("ETag", "\"v" + i + "\"");
+            responses[i] = new NetworkResponse(new byte[0], headers);
+        }
+        return responses;
+    }
+
+    @Test
+    public void compareWithLegacyParser() {
+        NetworkResponse[] responses = responses();
+        for (NetworkResponse response : responses) {
+            Cache.Entry expected = LegacyParser.parseCacheHeaders(response);
+            Cache.Entry actual = HttpHeaderParser.parseCacheHeaders(response);
+            assertEquals(expected.serverDate, actual.serverDate);
+            assertEquals(expected.lastModified, actual.lastModified);
+            assertEquals(expected.ttl - expected.softTtl, actual.ttl - actual.softTtl);
+        }
+
+        long legacy = measure(true, responses);
+        long current = measure(false, responses);
+        System.out.println("parseCacheHeaders legacy=" + legacy + "ns current=" + current
+                + "ns speedup=" + String.format(Locale.US, "%.1f", (double) legacy / current) + "x");
+    }
+
+    /** 返回每次解析的平均纳秒数. */
+    private static long measure(boolean legacy, NetworkResponse[] responses) {
+        long sink = 0;
+        for (int i = 0; i < WARMUP_ROUNDS; i ++) {
+            sink += parse(legacy, responses[i % responses.length]);
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < MEASURE_ROUNDS; i ++) {
+            sink += parse(legacy, responses[i % responses.length]);
+        }
+        long elapsed = System.nanoTime() - start;
+        if (sink == 42) {
+            System.out.println();
+        }
+        return elapsed / MEASURE_ROUNDS;
+    }
+
+    private static long parse(boolean legacy, NetworkResponse response) {
+        Cache.Entry entry = legacy
+                ? LegacyParser.parseCacheHeaders(response)
+                : HttpHeaderParser.parseCacheHeaders(response);
+        return entry.ttl + entry.lastModified;
+    }
+
+    /** 改动之前的解析方式,只保留与过期时间有关的部分. */
+    private static class LegacyParser {
+        static Cache.Entry parseCacheHeaders(NetworkResponse response) {
+            long now = System.currentTimeMillis();
+            Map<String, String> headers = response.headers;
+            long serverDate = 0;
+            long lastModified = 0;
+            long serverExpires = 0;
+            long softExpire = 0;
+            long finalExpire = 0;
+            long maxAge = 0;
+            long staleWhileRevalidate = 0;
+            boolean hasCacheControl = false;
+            boolean mustRevalidate = false;
+
+            String headerValue = headers.get("Date");
+            if (headerValue != null) {
+                serverDate = parseDateAsEpoch(headerValue);
+            }
+            headerValue = headers.get("Cache-Control");
+            if (headerValue != null) {
+                hasCacheControl = true;
+                for (String token : headerValue.split(",")) {
+                    token = token.trim();
+                    if (token.equals("no-cache") || token.equals("no-store")) {
+                        return null;
+                    } else if (token.startsWith("max-age=")) {
+                        try {
+                            maxAge = Long.parseLong(token.substring(8));
+                        } catch (Exception e) {
+                            maxAge = 0;
+                        }
+                    } else if (token.startsWith("stale-while-revalidate=")) {
+                        try {
+                            staleWhileRevalidate = Long.parseLong(token.substring(23));
+                        } catch (Exception e) {
+                            staleWhileRevalidate = 0;
+                        }
+                    } else if (token.equals("must-revalidate")
+                            || token.equals("proxy-revalidate")) {
+                        mustRevalidate = true;
+                    }
+                }
+            }
+            headerValue = headers.get("Expires");
+            if (headerValue != null) {
+                serverExpires = parseDateAsEpoch(headerValue);
+            }
+            headerValue = headers.get("Last-Modified");
+            if (headerValue != null) {
+                lastModified = parseDateAsEpoch(headerValue);
+            }
+            if (hasCacheControl) {
+                softExpire = now + maxAge * 1000;
+                finalExpire = mustRevalidate
+                        ? softExpire : softExpire + staleWhileRevalidate * 1000;
+            } else if (serverDate > 0 && serverExpires >= serverDate) {
+                softExpire = now + (serverExpires - serverDate);
+                finalExpire = softExpire;
+            }
+            Cache.Entry entry = new Cache.Entry();
+            entry.data = response.data;
+            entry.etag = headers.get("ETag");
+            entry.softTtl = softExpire;
+            entry.ttl = finalExpire;
+            entry.serverDate = serverDate;
+            entry.lastModified = lastModified;
+            return entry;
+        }
+
+        static long parseDateAsEpoch(String dateStr) {
+            try {
+                return DateUtils.parseDate(dateStr).getTime();
+            } catch (DateParseException e) {
+                return 0;
+            }
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package com.android.volley.toolbox;
+
+import com.android.volley.Cache;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * 多线程吞吐量:DiskBasedCache与8段的SegmentedDiskCache在相同的get/put混合负载下每秒完成的操作数.
+ * 两个缓存先各预热一轮(JIT编译,页缓存),每个线程数交替先后顺序各跑ROUNDS轮,报告中位数.
+ * 运行: ./gradlew test -Pbenchmark --tests '*SegmentedDiskCacheBenchmark',结果输出到标准输出.
+ */
+public class SegmentedDiskCacheBenchmark extends CacheBenchmark {
+    private static final int KEY_COUNT = 400;
+    private static final int ENTRY_BYTES = 16 * 1024;
+    private static final int OPS_PER_THREAD = 3000;
+    private static final int SEGMENTS = 8;
+    private static final int[] THREADS = {1, 4, 8};
+    private static final int ROUNDS = 5;
+
+    @Test
+    public void throughputAgainstDiskBasedCache() throws Exception {
+        Cache single = prepare(new DiskBasedCache(
+                new File(mDirectory, "single"), 100 * 1024 * 1024));
+        Cache segmented = prepare(new SegmentedDiskCache(
+                new File(mDirectory, "segmented"), 100 * 1024 * 1024, SEGMENTS));
+        run(single, THREADS[THREADS.length - 1]);
+        run(segmented, THREADS[THREADS.length - 1]);
+
+        System.out.println("threads  DiskBasedCache(ops/s)  SegmentedDiskCache(ops/s)");
+        for (int threads : THREADS) {
+            double[] singleOps = new double[ROUNDS];
+            double[] segmentedOps = new double[ROUNDS];
+            for (int round = 0; round < ROUNDS; round ++) {
+                if (round % 2 == 0) {
+                    singleOps[round] = run(single, threads);
+                    segmentedOps[round] = run(segmented, threads);
+                } else {
+                    segmentedOps[round] = run(segmented, threads);
+                    singleOps[round] = run(single, threads);
+                }
+            }
+            System.out.println(String.format(Locale.US, "%-8d %21.0f %26.0f",
+                    threads, median(singleOps), median(segmentedOps)));
+        }
+    }
+
+    /** 初始化缓存并预先写入全部key. */
+    private static Cache prepare(Cache cache) {
+        cache.initialize();
+        byte[] data = new byte[ENTRY_BYTES];
+        for (int i = 0; i < KEY_COUNT; i ++) {
+            cache.put(key(i), entry(data));
+        }
+        return cache;
+    }
+
+    private static double median(double[] values) {
+        double[] sorted = values.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+
+    /** 每个线程按3:1的比例随机get/put,返回每秒完成的操作数. */
+    private static double run(final Cache cache, int threads) throws Exception {
+        final byte[] data = new byte[ENTRY_BYTES];
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Void>> futures = new ArrayList<Future<Void>>();
+            long start = System.nanoTime();
+            for (int t = 0; t < threads; t ++) {
+                final Random random = new Random(t);
+                futures.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() {
+                        for (int i = 0; i < OPS_PER_THREAD; i ++) {
+                            String key = key(random.nextInt(KEY_COUNT));
+                            if (random.nextInt(4) == 0) {
+                                cache.put(key, entry(data));
+                            } else {
+                                cache.get(key);
+                            }
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+            return threads * OPS_PER_THREAD / ((System.nanoTime() - start) / 1e9);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private static String key(int i) {
+        return "http://example.com/item/" + i;
+    }
+
+    private static Cache.Entry entry(byte[] data) {
+        Cache.Entry entry = new Cache.Entry();
+        entry.data = data;
+        entry.ttl = Long.MAX_VALUE;
+        return entry;
+    }
+}
@@ -1,7 +1,10 @@
 package com.android.volley;
 
-import java.util.Collections;
-import java.util.Map;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
 
 /** 缓存内存的抽象接口 */
 @SuppressWarnings("unused")
@@ -9,9 +12,41 @@ public interface Cache {
     /** 通过key获取请求的缓存实体. */
     Entry get(String key);
 
+    /**
+     * 只获取缓存的元数据,不读取响应体,返回的Entry中data为null.
+     * 用于判断缓存是否过期,只有确实需要返回缓存内容时才调用{@link #get(String)}.
+     */
+    Entry peek(String key);
+
+    /**
+     * 与{@link #get(String)}相同,但是响应体不读入Java堆,返回的StreamEntry中data为null,
+     * 响应体通过{@link StreamEntry#openBody()}或者{@link StreamEntry#mapBody()}读取.
+     * 适合调用方本来就要流式处理的大响应体.调用方用完之后必须close.
+     */
+    StreamEntry getStream(String key);
+
     /** 存入一个请求的缓存实体. */
     void put(String key, Entry entry);
 
+    /**
+     * 与{@link #put(String, Entry)}相同,但是响应体从body中读取,entry.data被忽略.
+     * 用于写入临时文件的大响应体,磁盘缓存把body直接拷贝到缓存文件,不读入Java堆.
+     * 调用方负责关闭body.
+     *
+     * @param bodyLength 响应体的字节数,body中的数据不足时放弃写入.
+     */
+    void putStream(String key, Entry entry, InputStream body, long bodyLength);
+
+    /**
+     * 只更新已有缓存的元数据(头部,etag和过期时间),不重写响应体.
+     * 用于304 Not Modified之后的缓存刷新,entry.data会被忽略.key不存在时什么也不做.
+     */
+    void updateMetadata(String key, Entry entry);
+
+    /**
+     * 初始化缓存.CacheDispatcher在单独的线程中调用该方法,不会等待它完成;
+     * 实现需要保证初始化完成之前的get/peek/put等调用也能得到正确的结果.
+     */
     void initialize();
 
     void invalidate(String key, boolean fullExpire);
@@ -43,7 +78,7 @@ public interface Cache {
         public long softTtl;
 
         /** HTTP响应Headers. */
-        public Map<String, String> responseHeaders = Collections.emptyMap();
+        public Headers responseHeaders = new Headers();
 
         /** 判断缓存内容是否过期. */
         public boolean isExpired() {
@@ -55,4 +90,62 @@ public interface Cache {
             return this.softTtl < System.currentTimeMillis();
         }
     }
+
+    /**
+     * 响应体以流的方式提供的缓存实体,{@link #data}为null.
+     * 响应体可以多次打开,每次都从头读取;close之后不能再打开.
+     */
+    abstract class StreamEntry extends Entry implements Closeable {
+        /** 响应体(解压之后)的字节数. */
+        public long bodyLength;
+
+        /** 打开一个从头读取响应体的输入流. */
+        public abstract InputStream openBody() throws IOException;
+
+        /**
+         * 以只读ByteBuffer的方式访问响应体.没有压缩的磁盘缓存通过内存映射访问,不会拷贝到Java堆中;
+         * 压缩保存的响应体需要解压到堆中.
+         */
+        public abstract ByteBuffer mapBody() throws IOException;
+
+        /** 拷贝entry中除响应体之外的元数据. */
+        protected void copyMetadata(Entry entry) {
+            etag = entry.etag;
+            serverDate = entry.serverDate;
+            lastModified = entry.lastModified;
+            ttl = entry.ttl;
+            softTtl = entry.softTtl;
+            responseHeaders = entry.responseHeaders;
+        }
+
+        /** 把已经在内存中的缓存实体包装成StreamEntry,用于不能流式读取的实现或者内存中的缓存. */
+        public static StreamEntry of(Entry entry) {
+            return new ByteArrayStreamEntry(entry);
+        }
+    }
+
+    /** 响应体已经在内存中的StreamEntry. */
+    class ByteArrayStreamEntry extends StreamEntry {
+        private final byte[] mBody;
+
+        private ByteArrayStreamEntry(Entry entry) {
+            copyMetadata(entry);
+            mBody = entry.data == null ? new byte[0] : entry.data;
+            bodyLength = mBody.length;
+        }
+
+        @Override
+        public InputStream openBody() {
+            return new ByteArrayInputStream(mBody);
+        }
+
+        @Override
+        public ByteBuffer mapBody() {
+            return ByteBuffer.wrap(mBody).asReadOnlyBuffer();
+        }
+
+        @Override
+        public void close() {
+        }
+    }
 }
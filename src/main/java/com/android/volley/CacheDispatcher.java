@@ -2,6 +2,9 @@ package com.android.volley;
 
 import android.os.Process;
 
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.IOException;
 import java.util.concurrent.BlockingQueue;
 
 /** 线程,用来调度可以走缓存的Request请求. */
@@ -18,16 +21,26 @@ public class CacheDispatcher extends Thread{
     /** 网络请求结果传递类. */
     private final ResponseDelivery mDelivery;
 
+    /** 缓存命中,读取字节数和耗时的统计. */
+    private final CacheStats mStats;
+
     /** 用来停止线程的标志位. */
     private volatile boolean mQuit = false;
 
     public CacheDispatcher(
             BlockingQueue<Request<?>> cacheQueue, BlockingQueue<Request<?>> networkQueue,
             Cache cache, ResponseDelivery delivery) {
+        this(cacheQueue, networkQueue, cache, delivery, new CacheStats());
+    }
+
+    public CacheDispatcher(
+            BlockingQueue<Request<?>> cacheQueue, BlockingQueue<Request<?>> networkQueue,
+            Cache cache, ResponseDelivery delivery, CacheStats stats) {
         mCacheQueue = cacheQueue;
         mNetworkQueue = networkQueue;
         mCache = cache;
         mDelivery = delivery;
+        mStats = stats;
     }
 
     /** 通过标记位机制强行停止CacheDispatcher线程. */
@@ -40,8 +53,18 @@ public class CacheDispatcher extends Thread{
     public void run() {
         android.os.Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
 
-        // 初始化DiskBasedCache缓存类.
-        mCache.initialize();
+        // 在单独的线程中初始化DiskBasedCache缓存类,初始化期间照常处理请求,
+        // 第一个请求的延迟不再取决于缓存的大小.
+        Thread initializer = new Thread("VolleyCacheInit") {
+            @Override
+            public void run() {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                long start = System.nanoTime();
+                mCache.initialize();
+                mStats.recordInitializeNanos(System.nanoTime() - start);
+            }
+        };
+        initializer.start();
 
         while (true) {
             try {
@@ -54,9 +77,12 @@ public class CacheDispatcher extends Thread{
                     continue;
                 }
 
-                // 从缓存系统中获取request请求结果Cache.Entry.
-                Cache.Entry entry = mCache.get(request.getCacheKey());
+                // 先只读取缓存的元数据,过期的缓存不需要读取响应体.
+                long lookupStart = System.nanoTime();
+                Cache.Entry entry = mCache.peek(request.getCacheKey());
                 if (entry == null) {
+                    mStats.recordGetNanos(System.nanoTime() - lookupStart);
+                    mStats.recordMiss();
                     // 如果缓存系统中没有该缓存请求,则将request加入到网络请求队列中.
                     // 由于NetworkQueue跟NetworkDispatcher线程关联,并且也是生产者-消费者队列,
                     // 所以这里添加request请求就相当于将request执行网络请求.
@@ -66,22 +92,57 @@ public class CacheDispatcher extends Thread{
 
                 // 判断缓存结果是否过期.
                 if (entry.isExpired()) {
+                    mStats.recordGetNanos(System.nanoTime() - lookupStart);
+                    mStats.recordHardExpiredHit();
+                    // 只带元数据发起条件请求,服务器返回304时NetworkDispatcher再读取响应体.
                     request.setCacheEntry(entry);
                     // 过期的缓存需要重新执行request请求.
                     mNetworkQueue.put(request);
                     continue;
                 }
 
+                // 缓存需要返回给用户,此时才读取响应体.
+                // 能处理溢出响应体的请求以流的方式读取,超过溢出阈值的响应体不读入内存.
+                Cache.StreamEntry stream = null;
+                NetworkResponse networkResponse = null;
+                if (request.getSpillThresholdBytes() >= 0) {
+                    stream = mCache.getStream(request.getCacheKey());
+                    entry = stream;
+                    if (stream != null) {
+                        networkResponse =
+                                toNetworkResponse(stream, request.getSpillThresholdBytes());
+                    }
+                } else {
+                    entry = mCache.get(request.getCacheKey());
+                    if (entry != null) {
+                        networkResponse = new NetworkResponse(entry.data, entry.responseHeaders);
+                    }
+                }
+                mStats.recordGetNanos(System.nanoTime() - lookupStart);
+                if (networkResponse == null) {
+                    mStats.recordMiss();
+                    closeQuietly(stream);
+                    mNetworkQueue.put(request);
+                    continue;
+                }
+
                 // We have a cache hit; parse its data for delivery back to the request.
-                Response<?> response = request.parseNetworkResponse(new NetworkResponse(entry.data,
-                        entry.responseHeaders));
+                mStats.recordRead(stream != null ? stream.bodyLength : entry.data.length);
+                Response<?> response;
+                try {
+                    response = request.parseNetworkResponse(networkResponse);
+                } finally {
+                    closeQuietly(stream);
+                }
 
                 // 判断Request请求结果是否新鲜?
                 if (!entry.refreshNeeded()) {
                     // 请求结果新鲜,则直接将请求结果分发,进行异步回调用户接口.
+                    mStats.recordHit();
                     mDelivery.postResponse(request, response);
                 } else {
                     // 请求结果不新鲜,但是同样还是将缓存结果返回给用户,并且同时执行网络请求,刷新Request网络结果缓存.
+                    mStats.recordSoftExpiredHit();
                     request.setCacheEntry(entry);
 
                     response.intermediate = true;
@@ -105,4 +166,37 @@ public class CacheDispatcher extends Thread{
             }
         }
     }
+
+    /**
+     * 不超过溢出阈值的响应体读入内存;更大的响应体由parseNetworkResponse直接从缓存中读取.
+     * 读取失败时返回null,当作缓存没有命中.
+     */
+    private static NetworkResponse toNetworkResponse(Cache.StreamEntry stream,
+                                                     long spillThresholdBytes) {
+        if (stream.bodyLength > spillThresholdBytes) {
+            return new NetworkResponse(stream, stream.responseHeaders);
+        }
+        try {
+            DataInputStream in = new DataInputStream(stream.openBody());
+            try {
+                byte[] data = new byte[(int) stream.bodyLength];
+                in.readFully(data);
+                return new NetworkResponse(data, stream.responseHeaders);
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
 }
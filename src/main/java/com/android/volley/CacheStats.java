@@ -0,0 +1,237 @@
+package com.android.volley;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 缓存的统计数据:命中,过期,淘汰,读写字节数和get/put/initialize的耗时分布.
+ * CacheDispatcher和NetworkDispatcher记录命中,读写和耗时,缓存实现自己记录淘汰,
+ * 例如DiskBasedCache.setStats(CacheStats).
+ * 所有计数都是无锁的原子变量,{@link #snapshot()}只复制计数,可以每秒调用一次.
+ */
+@SuppressWarnings("unused")
+public class CacheStats {
+    /** 耗时分布的桶数.第i个桶统计[2^(i-1), 2^i)微秒的耗时,最后一个桶不设上限. */
+    public static final int LATENCY_BUCKETS = 32;
+
+    private final AtomicLong mHits = new AtomicLong();
+    private final AtomicLong mMisses = new AtomicLong();
+    private final AtomicLong mSoftExpiredHits = new AtomicLong();
+    private final AtomicLong mHardExpiredHits = new AtomicLong();
+    private final AtomicLong mPrunes = new AtomicLong();
+    private final AtomicLong mEvictions = new AtomicLong();
+    private final AtomicLong mEvictedBytes = new AtomicLong();
+    private final AtomicLong mReadBytes = new AtomicLong();
+    private final AtomicLong mWriteBytes = new AtomicLong();
+
+    private final Recorder mGetLatency = new Recorder();
+    private final Recorder mPutLatency = new Recorder();
+    private final Recorder mInitializeLatency = new Recorder();
+
+    /** 新鲜的缓存直接返回. */
+    public void recordHit() {
+        mHits.incrementAndGet();
+    }
+
+    /** 缓存中没有这个key,或者读取响应体失败. */
+    public void recordMiss() {
+        mMisses.incrementAndGet();
+    }
+
+    /** 缓存需要刷新,但是仍然先返回给调用方.同时计入命中次数. */
+    public void recordSoftExpiredHit() {
+        mHits.incrementAndGet();
+        mSoftExpiredHits.incrementAndGet();
+    }
+
+    /** 缓存已经过期,只能用于条件请求. */
+    public void recordHardExpiredHit() {
+        mHardExpiredHits.incrementAndGet();
+    }
+
+    /** 一次超出容量之后的淘汰. */
+    public void recordPrune() {
+        mPrunes.incrementAndGet();
+    }
+
+    /** 淘汰了一个占用bytes字节的条目. */
+    public void recordEviction(long bytes) {
+        mEvictions.incrementAndGet();
+        mEvictedBytes.addAndGet(bytes);
+    }
+
+    public void recordRead(long bytes) {
+        mReadBytes.addAndGet(bytes);
+    }
+
+    public void recordWrite(long bytes) {
+        mWriteBytes.addAndGet(bytes);
+    }
+
+    /** 记录一次查询的耗时,从peek开始到读出响应体为止. */
+    public void recordGetNanos(long nanos) {
+        mGetLatency.record(nanos);
+    }
+
+    public void recordPutNanos(long nanos) {
+        mPutLatency.record(nanos);
+    }
+
+    public void recordInitializeNanos(long nanos) {
+        mInitializeLatency.record(nanos);
+    }
+
+    /** 复制当前的计数.各个计数分别读取,并发更新时彼此之间可能相差一两次操作. */
+    public Snapshot snapshot() {
+        return new Snapshot(mHits.get(), mMisses.get(), mSoftExpiredHits.get(),
+                mHardExpiredHits.get(), mPrunes.get(), mEvictions.get(), mEvictedBytes.get(),
+                mReadBytes.get(), mWriteBytes.get(), mGetLatency.snapshot(),
+                mPutLatency.snapshot(), mInitializeLatency.snapshot());
+    }
+
+    /** 按微秒的2的幂分桶统计耗时. */
+    private static class Recorder {
+        private final AtomicLongArray mBuckets = new AtomicLongArray(LATENCY_BUCKETS);
+        private final AtomicLong mTotalMicros = new AtomicLong();
+
+        void record(long nanos) {
+            long micros = Math.max(0, nanos / 1000);
+            int bucket = Math.min(LATENCY_BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+            mBuckets.incrementAndGet(bucket);
+            mTotalMicros.addAndGet(micros);
+        }
+
+        Histogram snapshot() {
+            long[] counts = new long[LATENCY_BUCKETS];
+            for (int i = 0; i < LATENCY_BUCKETS; i ++) {
+                counts[i] = mBuckets.get(i);
+            }
+            return new Histogram(counts, mTotalMicros.get());
+        }
+    }
+
+    /** 耗时分布的快照. */
+    public static class Histogram {
+        /** 每个桶的次数,桶的划分见{@link CacheStats#LATENCY_BUCKETS}. */
+        private final long[] mCounts;
+
+        public final long count;
+
+        public final long totalMicros;
+
+        Histogram(long[] counts, long totalMicros) {
+            mCounts = counts;
+            long count = 0;
+            for (long c : counts) {
+                count += c;
+            }
+            this.count = count;
+            this.totalMicros = totalMicros;
+        }
+
+        public long getBucketCount(int bucket) {
+            return mCounts[bucket];
+        }
+
+        /** 第bucket个桶的上限(不含),单位微秒.最后一个桶返回Long.MAX_VALUE. */
+        public static long getBucketUpperBoundMicros(int bucket) {
+            return bucket == LATENCY_BUCKETS - 1 ? Long.MAX_VALUE : 1L << bucket;
+        }
+
+        public long getAverageMicros() {
+            return count == 0 ? 0 : totalMicros / count;
+        }
+
+        /**
+         * 估算百分位耗时,返回所在桶的上限,误差在2倍以内.
+         * @param percentile 0到100之间.
+         */
+        public long getPercentileMicros(double percentile) {
+            long rank = (long) Math.ceil(count * percentile / 100);
+            long seen = 0;
+            for (int i = 0; i < LATENCY_BUCKETS; i ++) {
+                seen += mCounts[i];
+                if (seen > 0 && seen >= rank) {
+                    return getBucketUpperBoundMicros(i);
+                }
+            }
+            return 0;
+        }
+
+        /** 返回两次快照之间的耗时分布. */
+        public Histogram minus(Histogram previous) {
+            long[] counts = new long[LATENCY_BUCKETS];
+            for (int i = 0; i < LATENCY_BUCKETS; i ++) {
+                counts[i] = mCounts[i] - previous.mCounts[i];
+            }
+            return new Histogram(counts, totalMicros - previous.totalMicros);
+        }
+    }
+
+    /** {@link CacheStats}在某一时刻的计数. */
+    public static class Snapshot {
+        /** 直接返回缓存的次数,包括softExpiredHits. */
+        public final long hits;
+        public final long misses;
+        public final long softExpiredHits;
+        public final long hardExpiredHits;
+        /** 超出容量之后执行淘汰的次数. */
+        public final long prunes;
+        public final long evictions;
+        public final long evictedBytes;
+        /** 从缓存中读出的响应体字节数. */
+        public final long readBytes;
+        /** 写入缓存的响应体字节数. */
+        public final long writeBytes;
+        public final Histogram getLatency;
+        public final Histogram putLatency;
+        public final Histogram initializeLatency;
+
+        Snapshot(long hits, long misses, long softExpiredHits, long hardExpiredHits,
+                 long prunes, long evictions, long evictedBytes, long readBytes,
+                 long writeBytes, Histogram getLatency, Histogram putLatency,
+                 Histogram initializeLatency) {
+            this.hits = hits;
+            this.misses = misses;
+            this.softExpiredHits = softExpiredHits;
+            this.hardExpiredHits = hardExpiredHits;
+            this.prunes = prunes;
+            this.evictions = evictions;
+            this.evictedBytes = evictedBytes;
+            this.readBytes = readBytes;
+            this.writeBytes = writeBytes;
+            this.getLatency = getLatency;
+            this.putLatency = putLatency;
+            this.initializeLatency = initializeLatency;
+        }
+
+        /** 命中率:hits/(hits+misses+hardExpiredHits). */
+        public float getHitRatio() {
+            long total = hits + misses + hardExpiredHits;
+            return total == 0 ? 0f : (float) hits / total;
+        }
+
+        /** 返回两次快照之间的增量,例如每秒轮询时计算速率. */
+        public Snapshot minus(Snapshot previous) {
+            return new Snapshot(hits - previous.hits, misses - previous.misses,
+                    softExpiredHits - previous.softExpiredHits,
+                    hardExpiredHits - previous.hardExpiredHits, prunes - previous.prunes,
+                    evictions - previous.evictions, evictedBytes - previous.evictedBytes,
+                    readBytes - previous.readBytes, writeBytes - previous.writeBytes,
+                    getLatency.minus(previous.getLatency), putLatency.minus(previous.putLatency),
+                    initializeLatency.minus(previous.initializeLatency));
+        }
+
+        @Override
+        public String toString() {
+            return "CacheStats{hits=" + hits + ", misses=" + misses
+                    + ", softExpiredHits=" + softExpiredHits
+                    + ", hardExpiredHits=" + hardExpiredHits + ", prunes=" + prunes
+                    + ", evictions=" + evictions + ", evictedBytes=" + evictedBytes
+                    + ", readBytes=" + readBytes + ", writeBytes=" + writeBytes
+                    + ", getAvgUs=" + getLatency.getAverageMicros()
+                    + ", putAvgUs=" + putLatency.getAverageMicros()
+                    + ", initializeAvgUs=" + initializeLatency.getAverageMicros() + "}";
+        }
+    }
+}
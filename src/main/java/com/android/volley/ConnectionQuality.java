@@ -0,0 +1,15 @@
+package com.android.volley;
+
+/** 网络连接质量等级,按由差到好的顺序排列. */
+public enum ConnectionQuality {
+    /** 还没有足够的样本. */
+    UNKNOWN,
+    /** 吞吐量低于150kbps或者延迟很高. */
+    POOR,
+    /** 吞吐量在150~550kbps之间. */
+    MODERATE,
+    /** 吞吐量在550~2000kbps之间. */
+    GOOD,
+    /** 吞吐量高于2000kbps并且延迟很低. */
+    EXCELLENT
+}
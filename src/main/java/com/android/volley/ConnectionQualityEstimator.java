@@ -0,0 +1,199 @@
+package com.android.volley;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * 网络连接质量估算器.
+ * BasicNetwork每完成一次请求就提交一个样本(响应体大小,首字节延迟,响应体传输耗时),
+ * 估算器用指数加权移动平均(EWMA)平滑吞吐量和延迟,并据此划分连接质量等级.
+ * 为了避免等级来回抖动,新的等级需要连续出现若干次才会生效.
+ */
+@SuppressWarnings("unused")
+public class ConnectionQualityEstimator {
+    /** 连接质量变化的回调接口.回调发生在提交样本的网络线程中. */
+    public interface Listener {
+        void onConnectionQualityChanged(ConnectionQuality quality);
+    }
+
+    /** EWMA的平滑因子,越大对新样本越敏感. */
+    private static final double DEFAULT_DECAY = 0.2;
+
+    /** 小于该大小的响应体主要受延迟影响,不参与吞吐量估算. */
+    private static final long MIN_THROUGHPUT_SAMPLE_BYTES = 2 * 1024;
+
+    /** 新等级需要连续出现的次数. */
+    private static final int CHANGE_CONFIRM_SAMPLES = 3;
+
+    /** 吞吐量等级阈值(kbps). */
+    private static final double POOR_KBPS = 150;
+    private static final double MODERATE_KBPS = 550;
+    private static final double GOOD_KBPS = 2000;
+
+    /** 延迟等级阈值(毫秒). */
+    private static final double EXCELLENT_RTT_MS = 150;
+    private static final double GOOD_RTT_MS = 400;
+    private static final double MODERATE_RTT_MS = 1000;
+
+    private static final ConnectionQualityEstimator sInstance = new ConnectionQualityEstimator();
+
+    private final double mDecay;
+
+    private final CopyOnWriteArrayList<Listener> mListeners =
+            new CopyOnWriteArrayList<Listener>();
+
+    /** 吞吐量的EWMA(kbps),小于0表示还没有样本. */
+    private double mThroughputKbps = -1;
+
+    /** 延迟的EWMA(毫秒),小于0表示还没有样本. */
+    private double mRttMs = -1;
+
+    /** 当前生效的连接质量. */
+    private ConnectionQuality mQuality = ConnectionQuality.UNKNOWN;
+
+    /** 等待确认的候选等级. */
+    private ConnectionQuality mCandidate = ConnectionQuality.UNKNOWN;
+
+    private int mCandidateCount = 0;
+
+    /** 返回进程内共享的估算器,BasicNetwork默认向它提交样本. */
+    public static ConnectionQualityEstimator getInstance() {
+        return sInstance;
+    }
+
+    public ConnectionQualityEstimator() {
+        this(DEFAULT_DECAY);
+    }
+
+    /** @param decay EWMA的平滑因子,取值范围(0, 1]. */
+    public ConnectionQualityEstimator(double decay) {
+        if (decay <= 0 || decay > 1) {
+            throw new IllegalArgumentException("decay must be in (0, 1]");
+        }
+        mDecay = decay;
+    }
+
+    /**
+     * 提交一次请求的样本.
+     * @param bytes 响应体大小.
+     * @param rttMs 发出请求到收到响应头的耗时.
+     * @param transferMs 读取响应体的耗时.
+     */
+    public void addSample(long bytes, long rttMs, long transferMs) {
+        ConnectionQuality changed = null;
+        synchronized (this) {
+            if (rttMs >= 0) {
+                mRttMs = mRttMs < 0 ? rttMs : mRttMs + mDecay * (rttMs - mRttMs);
+            }
+            if (bytes >= MIN_THROUGHPUT_SAMPLE_BYTES && transferMs > 0) {
+                double kbps = bytes * 8.0 / transferMs;
+                mThroughputKbps = mThroughputKbps < 0
+                        ? kbps : mThroughputKbps + mDecay * (kbps - mThroughputKbps);
+            }
+
+            ConnectionQuality estimated = classify();
+            if (estimated == mQuality) {
+                mCandidateCount = 0;
+            } else if (mQuality == ConnectionQuality.UNKNOWN) {
+                // 第一次得到估算结果时立即生效.
+                mQuality = estimated;
+                changed = estimated;
+            } else {
+                if (estimated == mCandidate) {
+                    mCandidateCount ++;
+                } else {
+                    mCandidate = estimated;
+                    mCandidateCount = 1;
+                }
+                if (mCandidateCount >= CHANGE_CONFIRM_SAMPLES) {
+                    mQuality = estimated;
+                    mCandidateCount = 0;
+                    changed = estimated;
+                }
+            }
+        }
+
+        if (changed != null) {
+            for (Listener listener : mListeners) {
+                listener.onConnectionQualityChanged(changed);
+            }
+        }
+    }
+
+    /** 分别按吞吐量和延迟划分等级,取两者中较差的一个. */
+    private ConnectionQuality classify() {
+        ConnectionQuality byThroughput = ConnectionQuality.UNKNOWN;
+        if (mThroughputKbps >= 0) {
+            if (mThroughputKbps < POOR_KBPS) {
+                byThroughput = ConnectionQuality.POOR;
+            } else if (mThroughputKbps < MODERATE_KBPS) {
+                byThroughput = ConnectionQuality.MODERATE;
+            } else if (mThroughputKbps < GOOD_KBPS) {
+                byThroughput = ConnectionQuality.GOOD;
+            } else {
+                byThroughput = ConnectionQuality.EXCELLENT;
+            }
+        }
+
+        ConnectionQuality byRtt = ConnectionQuality.UNKNOWN;
+        if (mRttMs >= 0) {
+            if (mRttMs < EXCELLENT_RTT_MS) {
+                byRtt = ConnectionQuality.EXCELLENT;
+            } else if (mRttMs < GOOD_RTT_MS) {
+                byRtt = ConnectionQuality.GOOD;
+            } else if (mRttMs < MODERATE_RTT_MS) {
+                byRtt = ConnectionQuality.MODERATE;
+            } else {
+                byRtt = ConnectionQuality.POOR;
+            }
+        }
+
+        if (byThroughput == ConnectionQuality.UNKNOWN) {
+            return byRtt;
+        }
+        if (byRtt == ConnectionQuality.UNKNOWN) {
+            return byThroughput;
+        }
+        return byThroughput.ordinal() < byRtt.ordinal() ? byThroughput : byRtt;
+    }
+
+    /** 返回当前的连接质量. */
+    public synchronized ConnectionQuality getQuality() {
+        return mQuality;
+    }
+
+    /** 返回平滑后的吞吐量(kbps),没有样本时返回-1. */
+    public synchronized double getThroughputKbps() {
+        return mThroughputKbps;
+    }
+
+    /** 返回平滑后的延迟(毫秒),没有样本时返回-1. */
+    public synchronized double getRttMs() {
+        return mRttMs;
+    }
+
+    /** 清空所有样本,例如网络类型切换时调用. */
+    public void reset() {
+        boolean changed;
+        synchronized (this) {
+            changed = mQuality != ConnectionQuality.UNKNOWN;
+            mThroughputKbps = -1;
+            mRttMs = -1;
+            mQuality = ConnectionQuality.UNKNOWN;
+            mCandidate = ConnectionQuality.UNKNOWN;
+            mCandidateCount = 0;
+        }
+        if (changed) {
+            for (Listener listener : mListeners) {
+                listener.onConnectionQualityChanged(ConnectionQuality.UNKNOWN);
+            }
+        }
+    }
+
+    public void addListener(Listener listener) {
+        mListeners.addIfAbsent(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        mListeners.remove(listener);
+    }
+}
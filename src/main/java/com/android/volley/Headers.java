@@ -0,0 +1,300 @@
+package com.android.volley;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * 紧凑的HTTP头部多值映射表.
+ * 1. 所有name/value交替保存在同一个String数组中,不为每个头部单独创建对象.
+ * 2. 按名称查找时忽略大小写,并且保留同名头部的全部取值(例如多个Set-Cookie).
+ * 3. 作为Map使用时,每个名称只出现一次,取值为该名称的第一个值.
+ * 该类不是线程安全的.
+ */
+@SuppressWarnings("unused")
+public class Headers extends AbstractMap<String, String> {
+    private static final String[] EMPTY = new String[0];
+
+    /** name/value交替存储的数组,下标2i为name,2i+1为value. */
+    private String[] mNamesAndValues;
+
+    /** 当前保存的name/value对数量. */
+    private int mCount;
+
+    public Headers() {
+        mNamesAndValues = EMPTY;
+    }
+
+    /** @param capacity 预计保存的name/value对数量. */
+    public Headers(int capacity) {
+        mNamesAndValues = capacity <= 0 ? EMPTY : new String[capacity * 2];
+    }
+
+    /** 拷贝构造. */
+    public Headers(Headers other) {
+        mCount = other.mCount;
+        mNamesAndValues = mCount == 0 ? EMPTY : new String[mCount * 2];
+        System.arraycopy(other.mNamesAndValues, 0, mNamesAndValues, 0, mCount * 2);
+    }
+
+    /**
+     * 将任意Map转换成Headers.如果本身就是Headers则直接返回,不做拷贝.
+     * 缓存在写入和读出时各自拷贝头部(DiskBasedCache.CacheHeader),这里共享不会影响缓存的索引.
+     */
+    public static Headers of(Map<String, String> map) {
+        if (map instanceof Headers) {
+            return (Headers) map;
+        }
+        if (map == null) {
+            return new Headers();
+        }
+        Headers headers = new Headers(map.size());
+        for (Map.Entry<String, String> entry : map.entrySet()) {
+            headers.add(entry.getKey(), entry.getValue());
+        }
+        return headers;
+    }
+
+    /** 返回name/value对的数量(同名头部分别计数). */
+    public int count() {
+        return mCount;
+    }
+
+    /** 返回第index个头部的名称. */
+    public String name(int index) {
+        checkIndex(index);
+        return mNamesAndValues[index * 2];
+    }
+
+    /** 返回第index个头部的取值. */
+    public String value(int index) {
+        checkIndex(index);
+        return mNamesAndValues[index * 2 + 1];
+    }
+
+    /** 追加一个头部,不会覆盖已有的同名头部. */
+    public void add(String name, String value) {
+        if (name == null || value == null) {
+            throw new NullPointerException("header name and value must not be null");
+        }
+        int needed = (mCount + 1) * 2;
+        if (needed > mNamesAndValues.length) {
+            String[] grown = new String[Math.max(needed, mNamesAndValues.length * 2)];
+            System.arraycopy(mNamesAndValues, 0, grown, 0, mCount * 2);
+            mNamesAndValues = grown;
+        }
+        mNamesAndValues[mCount * 2] = name;
+        mNamesAndValues[mCount * 2 + 1] = value;
+        mCount ++;
+    }
+
+    /** 返回指定名称(忽略大小写)的全部取值,没有时返回空列表. */
+    public List<String> getAll(String name) {
+        List<String> result = null;
+        for (int i = indexOf(name, 0); i != -1; i = indexOf(name, i + 1)) {
+            if (result == null) {
+                result = new ArrayList<String>(2);
+            }
+            result.add(mNamesAndValues[i * 2 + 1]);
+        }
+        return result == null ? Collections.<String>emptyList() : result;
+    }
+
+    /** 返回指定名称(忽略大小写)的第一个取值. */
+    @Override
+    public String get(Object name) {
+        if (!(name instanceof String)) {
+            return null;
+        }
+        int index = indexOf((String) name, 0);
+        return index == -1 ? null : mNamesAndValues[index * 2 + 1];
+    }
+
+    @Override
+    public boolean containsKey(Object name) {
+        return name instanceof String && indexOf((String) name, 0) != -1;
+    }
+
+    /** 设置指定名称的取值,会替换掉该名称已有的全部取值. */
+    @Override
+    public String put(String name, String value) {
+        int index = indexOf(name, 0);
+        if (index == -1) {
+            add(name, value);
+            return null;
+        }
+        if (value == null) {
+            throw new NullPointerException("header value must not be null");
+        }
+        String old = mNamesAndValues[index * 2 + 1];
+        mNamesAndValues[index * 2] = name;
+        mNamesAndValues[index * 2 + 1] = value;
+        removeFrom(name, index + 1);
+        return old;
+    }
+
+    /**
+     * 合并头部.对于map中出现的每个名称,先删除本对象中该名称的全部取值,再追加map中的取值.
+     * 304响应合并缓存头部时使用.
+     */
+    @Override
+    public void putAll(Map<? extends String, ? extends String> map) {
+        if (map instanceof Headers) {
+            Headers other = (Headers) map;
+            for (int i = 0; i < other.mCount; i ++) {
+                removeFrom(other.mNamesAndValues[i * 2], 0);
+            }
+            for (int i = 0; i < other.mCount; i ++) {
+                add(other.mNamesAndValues[i * 2], other.mNamesAndValues[i * 2 + 1]);
+            }
+        } else {
+            for (Map.Entry<? extends String, ? extends String> entry : map.entrySet()) {
+                put(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    /** 删除指定名称的全部取值,并返回第一个被删除的值. */
+    @Override
+    public String remove(Object name) {
+        if (!(name instanceof String)) {
+            return null;
+        }
+        int index = indexOf((String) name, 0);
+        if (index == -1) {
+            return null;
+        }
+        String old = mNamesAndValues[index * 2 + 1];
+        removeFrom((String) name, index);
+        return old;
+    }
+
+    @Override
+    public void clear() {
+        for (int i = 0; i < mCount * 2; i ++) {
+            mNamesAndValues[i] = null;
+        }
+        mCount = 0;
+    }
+
+    /** 返回不同名称的数量. */
+    @Override
+    public int size() {
+        int size = 0;
+        for (int i = 0; i < mCount; i ++) {
+            if (isFirstOccurrence(i)) {
+                size ++;
+            }
+        }
+        return size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return mCount == 0;
+    }
+
+    @Override
+    public Set<Map.Entry<String, String>> entrySet() {
+        return new AbstractSet<Map.Entry<String, String>>() {
+            @Override
+            public Iterator<Map.Entry<String, String>> iterator() {
+                return new EntryIterator();
+            }
+
+            @Override
+            public int size() {
+                return Headers.this.size();
+            }
+        };
+    }
+
+    /** 从from开始查找名称(忽略大小写)相同的头部下标,找不到返回-1. */
+    private int indexOf(String name, int from) {
+        if (name == null) {
+            return -1;
+        }
+        for (int i = from; i < mCount; i ++) {
+            if (name.equalsIgnoreCase(mNamesAndValues[i * 2])) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /** 删除下标from之后(含from)所有名称相同的头部,保持其余头部的相对顺序. */
+    private void removeFrom(String name, int from) {
+        int write = from;
+        for (int read = from; read < mCount; read ++) {
+            if (name.equalsIgnoreCase(mNamesAndValues[read * 2])) {
+                continue;
+            }
+            if (write != read) {
+                mNamesAndValues[write * 2] = mNamesAndValues[read * 2];
+                mNamesAndValues[write * 2 + 1] = mNamesAndValues[read * 2 + 1];
+            }
+            write ++;
+        }
+        for (int i = write * 2; i < mCount * 2; i ++) {
+            mNamesAndValues[i] = null;
+        }
+        mCount = write;
+    }
+
+    private boolean isFirstOccurrence(int index) {
+        String name = mNamesAndValues[index * 2];
+        for (int i = 0; i < index; i ++) {
+            if (name.equalsIgnoreCase(mNamesAndValues[i * 2])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= mCount) {
+            throw new IndexOutOfBoundsException("index=" + index + ", count=" + mCount);
+        }
+    }
+
+    /** 按出现顺序遍历每个名称的第一个取值. */
+    private class EntryIterator implements Iterator<Map.Entry<String, String>> {
+        private int mNext = advance(0);
+
+        private int advance(int from) {
+            for (int i = from; i < mCount; i ++) {
+                if (isFirstOccurrence(i)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return mNext != -1;
+        }
+
+        @Override
+        public Map.Entry<String, String> next() {
+            if (mNext == -1) {
+                throw new NoSuchElementException();
+            }
+            Map.Entry<String, String> entry = new SimpleImmutableEntry<String, String>(
+                    mNamesAndValues[mNext * 2], mNamesAndValues[mNext * 2 + 1]);
+            mNext = advance(mNext + 1);
+            return entry;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
@@ -5,6 +5,8 @@ import android.os.Build;
 import android.os.Process;
 import android.os.SystemClock;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.concurrent.BlockingQueue;
 
 /** 调度网络请求线程. */
@@ -21,16 +23,30 @@ public class NetworkDispatcher extends Thread{
     /** 请求结果传递类. */
     private final ResponseDelivery mDelivery;
 
+    /** 网络质量差时推迟LOW优先级请求,为null时不推迟. */
+    private final PoorConnectionDeferrer mDeferrer;
+
+    /** 缓存写入字节数和耗时的统计. */
+    private final CacheStats mStats;
+
     /** 暂停线程的标志位，替换Thread自身的stop方法. */
     private volatile boolean mQuit = false;
 
     /** 构造网络请求调度线程类. */
     public NetworkDispatcher(BlockingQueue<Request<?>> queue,
                              Network network, Cache cache, ResponseDelivery delivery) {
+        this(queue, network, cache, delivery, null, new CacheStats());
+    }
+
+    /* package */ NetworkDispatcher(BlockingQueue<Request<?>> queue, Network network,
+                                    Cache cache, ResponseDelivery delivery,
+                                    PoorConnectionDeferrer deferrer, CacheStats stats) {
         mQueue = queue;
         mNetwork = network;
         mCache = cache;
         mDelivery = delivery;
+        mDeferrer = deferrer;
+        mStats = stats;
     }
 
     /** 强制停止当前调度线程. */
@@ -58,30 +74,56 @@ public class NetworkDispatcher extends Thread{
                 continue;
             }
 
+            NetworkResponse networkResponse = null;
             try {
                 if (request.isCanceled()) {
                     continue;
                 }
 
+                // 网络质量差时,LOW优先级的请求先让路给其它请求.
+                if (mDeferrer != null && mDeferrer.deferIfNeeded(request)) {
+                    continue;
+                }
+
                 addTrafficStatsTag(request);
 
                 // 真正执行网络请求的地方.
-                NetworkResponse networkResponse = mNetwork.performRequest(request);
+                networkResponse = mNetwork.performRequest(request);
 
                 // If the server returned 304 AND we delivered a response already,
                 // we're done -- don't deliver a second identical response.
+                // 响应体没有变化,只需要把Network刷新过的头部和过期时间写回缓存,不用重新解析.
                 if (networkResponse.notModified && request.hasHadResponseDelivered()) {
+                    Cache.Entry entry = request.getCacheEntry();
+                    if (request.shouldCache() && entry != null) {
+                        mCache.updateMetadata(request.getCacheKey(), entry);
+                    }
                     request.finish("not-modified");
                     continue;
                 }
 
+                // CacheDispatcher对过期的缓存只取了元数据,确认304之后才读取响应体.
+                if (networkResponse.notModified && networkResponse.data == null
+                        && request.getCacheEntry() != null) {
+                    networkResponse = loadCachedBody(request, networkResponse);
+                }
+
                 // 在当前线程中解析网络结果.
                 // 不同的Request实现的parseNetworkResponse是不同的(例如StringRequest和JsonRequest).
                 Response<?> response = request.parseNetworkResponse(networkResponse);
 
-                //
                 if (request.shouldCache() && response.cacheEntry != null) {
-                    mCache.put(request.getCacheKey(), response.cacheEntry);
+                    if (networkResponse.notModified) {
+                        // 304时缓存中的响应体仍然有效,不需要重写.
+                        mCache.updateMetadata(request.getCacheKey(), response.cacheEntry);
+                    } else if (response.cacheEntry.data != null) {
+                        long putStart = System.nanoTime();
+                        mCache.put(request.getCacheKey(), response.cacheEntry);
+                        mStats.recordPutNanos(System.nanoTime() - putStart);
+                        mStats.recordWrite(response.cacheEntry.data.length);
+                    } else if (networkResponse.isSpilled()) {
+                        putSpilledBody(request, response.cacheEntry, networkResponse);
+                    }
                 }
 
                 // 将网络请求结果进行传递.
@@ -98,10 +140,50 @@ public class NetworkDispatcher extends Thread{
                 VolleyError volleyError = new VolleyError(e);
                 volleyError.setNetworkTimeMs(SystemClock.elapsedRealtime() - startTimeMs);
                 mDelivery.postError(request, volleyError);
+            } finally {
+                // parseNetworkResponse已经返回,临时文件不再需要.
+                if (networkResponse != null) {
+                    networkResponse.discardBodyFile();
+                }
             }
         }
     }
 
+    /** 写入临时文件的大响应体从文件流式写入缓存,缓存命中时CacheDispatcher同样以流的方式读取. */
+    private void putSpilledBody(Request<?> request, Cache.Entry entry,
+                                NetworkResponse networkResponse) {
+        long putStart = System.nanoTime();
+        try {
+            InputStream body = networkResponse.openBodyStream();
+            try {
+                mCache.putStream(request.getCacheKey(), entry, body, networkResponse.bodyLength);
+            } finally {
+                body.close();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        }
+        mStats.recordPutNanos(System.nanoTime() - putStart);
+        mStats.recordWrite(networkResponse.bodyLength);
+    }
+
+    /** 从缓存中读取304对应的响应体.缓存已经被删除时,去掉条件请求头重新请求一次. */
+    private NetworkResponse loadCachedBody(Request<?> request, NetworkResponse notModified)
+            throws VolleyError {
+        long getStart = System.nanoTime();
+        Cache.Entry cached = mCache.get(request.getCacheKey());
+        mStats.recordGetNanos(System.nanoTime() - getStart);
+        if (cached != null) {
+            mStats.recordRead(cached.data.length);
+            return new NetworkResponse(notModified.statusCode, cached.data, notModified.headers,
+                    true, notModified.networkTimeMs);
+        }
+        request.addMarker("not-modified-cache-evicted");
+        request.setCacheEntry(null);
+        return mNetwork.performRequest(request);
+    }
+
     private void parseAndDeliverNetworkError(Request<?> request, VolleyError error) {
         error = request.parseNetworkError(error);
         mDelivery.postError(request, error);
@@ -1,7 +1,15 @@
 package com.android.volley;
 
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
 import java.net.HttpURLConnection;
-import java.util.Collections;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.Map;
 
 /** HTTP网络请求结果抽象类. */
@@ -9,23 +17,35 @@ public class NetworkResponse {
     /** HTTP响应状态码. */
     public final int statusCode;
 
-    /** HTTP Body 响应信息. */
+    /** HTTP Body 响应信息.响应体被写入临时文件或者从缓存中流式读取时为null. */
     public final byte[] data;
 
+    /** 超过Request溢出阈值时保存响应体的临时文件,响应体在内存中时为null. */
+    public final File bodyFile;
+
+    /** 缓存命中并且响应体超过Request溢出阈值时,从缓存中流式读取响应体的条目,否则为null. */
+    public final Cache.StreamEntry cachedBody;
+
+    /** 响应体的字节数. */
+    public final long bodyLength;
+
     /** 服务器状态码304代表未修改 */
     public final boolean notModified;
 
     /** HTTP请求的往返延迟. */
     public final long networkTimeMs;
 
-    /** HTTP响应头信息. */
-    public final Map<String, String> headers;
+    /** HTTP响应头信息.保留同名头部的全部取值,按名称查找时忽略大小写. */
+    public final Headers headers;
 
     public NetworkResponse(int statusCode, byte[] data, Map<String, String> headers,
                            boolean notModified, long networkTimeMs) {
         this.statusCode = statusCode;
         this.data = data;
-        this.headers = headers;
+        this.bodyFile = null;
+        this.cachedBody = null;
+        this.bodyLength = data == null ? 0 : data.length;
+        this.headers = Headers.of(headers);
         this.notModified = notModified;
         this.networkTimeMs = networkTimeMs;
     }
@@ -36,10 +56,75 @@ public class NetworkResponse {
     }
 
     public NetworkResponse(byte[] data) {
-        this(HttpURLConnection.HTTP_OK, data, Collections.<String, String>emptyMap(), false, 0);
+        this(HttpURLConnection.HTTP_OK, data, new Headers(), false, 0);
     }
 
     public NetworkResponse(byte[] data, Map<String, String> headers) {
         this(HttpURLConnection.HTTP_OK, data, headers, false, 0);
     }
+
+    /** 构造一个响应体保存在临时文件中的响应. */
+    public NetworkResponse(int statusCode, File bodyFile, long bodyLength,
+                           Map<String, String> headers, long networkTimeMs) {
+        this.statusCode = statusCode;
+        this.data = null;
+        this.bodyFile = bodyFile;
+        this.cachedBody = null;
+        this.bodyLength = bodyLength;
+        this.headers = Headers.of(headers);
+        this.notModified = false;
+        this.networkTimeMs = networkTimeMs;
+    }
+
+    /** 构造一个响应体从缓存中流式读取的响应,由CacheDispatcher在parseNetworkResponse返回后关闭cachedBody. */
+    public NetworkResponse(Cache.StreamEntry cachedBody, Map<String, String> headers) {
+        this.statusCode = HttpURLConnection.HTTP_OK;
+        this.data = null;
+        this.bodyFile = null;
+        this.cachedBody = cachedBody;
+        this.bodyLength = cachedBody.bodyLength;
+        this.headers = Headers.of(headers);
+        this.notModified = false;
+        this.networkTimeMs = 0;
+    }
+
+    /** 响应体是否保存在临时文件中. */
+    public boolean isSpilled() {
+        return bodyFile != null;
+    }
+
+    /** 以流的方式读取响应体,无论响应体在内存中,临时文件中还是缓存中. */
+    public InputStream openBodyStream() throws IOException {
+        if (cachedBody != null) {
+            return cachedBody.openBody();
+        }
+        if (bodyFile != null) {
+            return new BufferedInputStream(new FileInputStream(bodyFile));
+        }
+        return new ByteArrayInputStream(data == null ? new byte[0] : data);
+    }
+
+    /** 以只读ByteBuffer的方式访问响应体,临时文件通过内存映射访问,不会拷贝到Java堆中. */
+    public ByteBuffer mapBody() throws IOException {
+        if (cachedBody != null) {
+            return cachedBody.mapBody();
+        }
+        if (bodyFile == null) {
+            return ByteBuffer.wrap(data == null ? new byte[0] : data).asReadOnlyBuffer();
+        }
+        RandomAccessFile file = new RandomAccessFile(bodyFile, "r");
+        try {
+            return file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, bodyLength);
+        } finally {
+            // 映射建立后关闭文件不影响已经映射的内存.
+            file.close();
+        }
+    }
+
+    /** 删除保存响应体的临时文件. */
+    /* package */ void discardBodyFile() {
+        if (bodyFile != null && !bodyFile.delete() && bodyFile.exists()) {
+            bodyFile.deleteOnExit();
+        }
+    }
 }
@@ -0,0 +1,106 @@
+package com.android.volley;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 连接质量差时推迟LOW优先级的请求.
+ * 被推迟的请求在连接质量好转,或者等待超过最长推迟时间后重新放回网络请求队列.
+ * 每个请求最多被推迟一次,保证LOW优先级的请求最终一定会被执行.
+ */
+class PoorConnectionDeferrer implements ConnectionQualityEstimator.Listener {
+    /** 默认最长推迟时间. */
+    static final long DEFAULT_MAX_DEFER_MS = 10000;
+
+    private final ConnectionQualityEstimator mEstimator;
+
+    private final BlockingQueue<Request<?>> mNetworkQueue;
+
+    private final long mMaxDeferMs;
+
+    /** 被推迟的请求以及对应的超时任务. */
+    private final List<Request<?>> mDeferred = new ArrayList<Request<?>>();
+    private final List<ScheduledFuture<?>> mTimeouts = new ArrayList<ScheduledFuture<?>>();
+
+    private final ScheduledThreadPoolExecutor mScheduler =
+            new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "Volley-Deferrer");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
+    PoorConnectionDeferrer(ConnectionQualityEstimator estimator,
+                           BlockingQueue<Request<?>> networkQueue, long maxDeferMs) {
+        mEstimator = estimator;
+        mNetworkQueue = networkQueue;
+        mMaxDeferMs = maxDeferMs;
+        mScheduler.setRemoveOnCancelPolicy(true);
+        mEstimator.addListener(this);
+    }
+
+    /** 如果需要推迟该请求则返回true,调用方不应再执行该请求. */
+    boolean deferIfNeeded(final Request<?> request) {
+        if (request.getPriority() != Request.Priority.LOW || request.hasBeenDeferred()
+                || mEstimator.getQuality() != ConnectionQuality.POOR) {
+            return false;
+        }
+        request.markDeferred();
+        request.addMarker("network-deferred-poor-connection");
+        synchronized (this) {
+            mDeferred.add(request);
+            mTimeouts.add(mScheduler.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    release(request);
+                }
+            }, mMaxDeferMs, TimeUnit.MILLISECONDS));
+        }
+        return true;
+    }
+
+    /** 超时后放回单个请求. */
+    private void release(Request<?> request) {
+        synchronized (this) {
+            int index = mDeferred.indexOf(request);
+            if (index == -1) {
+                return;
+            }
+            mDeferred.remove(index);
+            mTimeouts.remove(index);
+        }
+        mNetworkQueue.add(request);
+    }
+
+    /** 连接质量不再是POOR时,放回所有被推迟的请求. */
+    @Override
+    public void onConnectionQualityChanged(ConnectionQuality quality) {
+        if (quality == ConnectionQuality.POOR) {
+            return;
+        }
+        List<Request<?>> released;
+        synchronized (this) {
+            released = new ArrayList<Request<?>>(mDeferred);
+            for (ScheduledFuture<?> timeout : mTimeouts) {
+                timeout.cancel(false);
+            }
+            mDeferred.clear();
+            mTimeouts.clear();
+        }
+        mNetworkQueue.addAll(released);
+    }
+
+    /** 停止推迟,并放回所有被推迟的请求. */
+    void shutdown() {
+        mEstimator.removeListener(this);
+        onConnectionQualityChanged(ConnectionQuality.UNKNOWN);
+        mScheduler.shutdownNow();
+    }
+}
@@ -57,6 +57,15 @@ public abstract class Request<T> implements Comparable<Request<T>> {
     /** 该request是否已经获取请求结果. */
     private boolean mResponseDelivered = false;
 
+    /** 响应体的最大字节数,超过时中止读取,小于0表示不限制. */
+    private long mMaxResponseBytes = -1;
+
+    /** 响应体超过该字节数时写入临时文件,小于0表示始终保存在内存中. */
+    private long mSpillThresholdBytes = -1;
+
+    /** 该request是否已经因为网络质量差被推迟过. */
+    private boolean mDeferred = false;
+
     /** 遇到服务器错误(5xx)时，该request请求是否需要重试. */
     private boolean mShouldRetryServerErrors = false;
 
@@ -140,6 +149,11 @@ public abstract class Request<T> implements Comparable<Request<T>> {
         return this;
     }
 
+    /** 返回当前request所在的请求队列,还没有加入队列时返回null. */
+    public RequestQueue getRequestQueue() {
+        return mRequestQueue;
+    }
+
     /** 设置当前request在当前request队列的系列号. */
     public final Request<?> setSequence(int sequence) {
         mSequence = sequence;
@@ -256,6 +270,38 @@ public abstract class Request<T> implements Comparable<Request<T>> {
         return mShouldRetryServerErrors;
     }
 
+    /**
+     * 设置响应体的最大字节数.
+     * 有Content-Length时在读取之前就中止,否则边读边计数,超过时中止并返回{@link ResponseTooLargeError}.
+     */
+    public Request<?> setMaxResponseBytes(long maxResponseBytes) {
+        mMaxResponseBytes = maxResponseBytes;
+        return this;
+    }
+
+    /** 返回响应体的最大字节数,小于0表示不限制. */
+    public long getMaxResponseBytes() {
+        return mMaxResponseBytes;
+    }
+
+    /**
+     * 设置响应体写入临时文件的阈值.
+     * 超过阈值的响应体不再保存在内存中,{@link NetworkResponse#data}为null,
+     * parseNetworkResponse需要通过{@link NetworkResponse#openBodyStream()}或者
+     * {@link NetworkResponse#mapBody()}读取.临时文件在parseNetworkResponse返回后被删除.
+     * 超过阈值的响应体通过{@link Cache#putStream}从临时文件写入缓存;
+     * 缓存命中时同样处理:超过阈值的响应体不读入内存,直接从缓存中流式读取.
+     */
+    public Request<?> setSpillThresholdBytes(long spillThresholdBytes) {
+        mSpillThresholdBytes = spillThresholdBytes;
+        return this;
+    }
+
+    /** 返回响应体写入临时文件的阈值,小于0表示始终保存在内存中. */
+    public long getSpillThresholdBytes() {
+        return mSpillThresholdBytes;
+    }
+
     /** request优先级枚举类. */
     public enum  Priority {
         LOW,
@@ -279,6 +325,16 @@ public abstract class Request<T> implements Comparable<Request<T>> {
         return mRetryPolicy;
     }
 
+    /** 标记该request已经被推迟过一次. */
+    void markDeferred() {
+        mDeferred = true;
+    }
+
+    /** 返回该request是否已经被推迟过. */
+    boolean hasBeenDeferred() {
+        return mDeferred;
+    }
+
     /** 用于标识已经将response传给该request. */
     public void markDelivered() {
         mResponseDelivered = true;
@@ -48,6 +48,9 @@ public class RequestQueue {
     /** Disk缓存实现类. */
     private final Cache mCache;
 
+    /** 缓存的命中,淘汰,读写和耗时统计,由缓存线程和网络线程共同记录. */
+    private final CacheStats mCacheStats = new CacheStats();
+
     /** 封装request网络请求的Network类. */
     private final Network mNetwork;
 
@@ -60,6 +63,9 @@ public class RequestQueue {
     /** 缓存线程 */
     private CacheDispatcher mCacheDispatcher;
 
+    /** 网络质量差时推迟LOW优先级请求,为null时不推迟. */
+    private PoorConnectionDeferrer mDeferrer;
+
     private List<RequestFinishedListener> mFinishedListeners =
             new ArrayList<RequestFinishedListener>();
 
@@ -87,12 +93,33 @@ public class RequestQueue {
         mDelivery = delivery;
     }
 
+    /**
+     * 开启按网络质量推迟LOW优先级请求的功能.需要在{@link #start()}之前调用.
+     * 连接质量为POOR时,LOW优先级的请求最多被推迟maxDeferMs毫秒,连接质量好转后立即恢复执行.
+     */
+    public void setDeferLowPriorityOnPoorConnection(ConnectionQualityEstimator estimator,
+                                                    long maxDeferMs) {
+        if (mDeferrer != null) {
+            mDeferrer.shutdown();
+        }
+        mDeferrer = estimator == null
+                ? null : new PoorConnectionDeferrer(estimator, mNetworkQueue, maxDeferMs);
+    }
+
+    /** 使用默认的估算器和最长推迟时间开启推迟功能. */
+    public void setDeferLowPriorityOnPoorConnection(boolean enabled) {
+        setDeferLowPriorityOnPoorConnection(
+                enabled ? ConnectionQualityEstimator.getInstance() : null,
+                PoorConnectionDeferrer.DEFAULT_MAX_DEFER_MS);
+    }
+
     /** 开启request的缓存线程和多个网络请求线程 */
     public void start() {
         // 关闭所有正在运行的缓存线程和网络请求线程.
         stop();
         // 开启缓存线程.
-        mCacheDispatcher = new CacheDispatcher(mCacheQueue, mNetworkQueue, mCache, mDelivery);
+        mCacheDispatcher = new CacheDispatcher(mCacheQueue, mNetworkQueue, mCache, mDelivery,
+                mCacheStats);
         mCacheDispatcher.start();
 
         // 默认开启DEFAULT_NETWORK_THREAD_POOL_SIZE(4)个线程来执行request网络请求.
@@ -100,7 +127,7 @@ public class RequestQueue {
             // 将NetworkDispatcher线程与mNetworkQueue这个队列进行绑定.
             // NetworkDispatcher会使用生产者-消费者模型从mNetworkQueue获取request请求,并执行.
             NetworkDispatcher networkDispatcher = new NetworkDispatcher(mNetworkQueue, mNetwork,
-                    mCache, mDelivery);
+                    mCache, mDelivery, mDeferrer, mCacheStats);
             mDispatchers[i] = networkDispatcher;
             networkDispatcher.start();
         }
@@ -119,6 +146,14 @@ public class RequestQueue {
         }
     }
 
+    /**
+     * 返回缓存的统计数据,例如每秒调用一次getCacheStats().snapshot().
+     * 淘汰次数需要缓存实现自己记录,例如DiskBasedCache.setStats(queue.getCacheStats()).
+     */
+    public CacheStats getCacheStats() {
+        return mCacheStats;
+    }
+
     /** 将Request请求加入到调度队列中. */
     public <T> Request<?> add(Request<T> request) {
         // Tag the request as belonging to this queue and add it to the set of current requests.
@@ -0,0 +1,10 @@
+package com.android.volley;
+
+/**
+ * Indicates that the response body exceeded the request's maximum allowed size.
+ */
+public class ResponseTooLargeError extends VolleyError {
+    public ResponseTooLargeError(String exceptionMessage) {
+        super(exceptionMessage);
+    }
+}
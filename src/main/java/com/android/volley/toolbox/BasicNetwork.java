@@ -6,11 +6,14 @@ import android.util.Log;
 import com.android.volley.AuthFailureError;
 import com.android.volley.Cache;
 import com.android.volley.ClientError;
+import com.android.volley.ConnectionQualityEstimator;
+import com.android.volley.Headers;
 import com.android.volley.Network;
 import com.android.volley.NetworkError;
 import com.android.volley.NetworkResponse;
 import com.android.volley.NoConnctionError;
 import com.android.volley.Request;
+import com.android.volley.ResponseTooLargeError;
 import com.android.volley.RetryPolicy;
 import com.android.volley.ServerError;
 import com.android.volley.TimeoutError;
@@ -24,24 +27,51 @@ import org.apache.http.StatusLine;
 import org.apache.http.conn.ConnectTimeoutException;
 import org.apache.http.impl.cookie.DateUtils;
 
-import java.io.ByteArrayOutputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.MalformedURLException;
 import java.net.SocketTimeoutException;
 import java.util.Collections;
 import java.util.Date;
-import java.util.HashMap;
 import java.util.Map;
-import java.util.TreeMap;
 
 /** Volley默认的网络接口实现类. */
 public class BasicNetwork implements Network {
+    /** 读取响应体时复用的缓冲区池的大小. */
+    private static final int DEFAULT_POOL_SIZE = 4096;
+
+    /** 按Content-Length预先分配的内存缓冲区的上限,更大的响应体读取时再扩容. */
+    private static final int MAX_INITIAL_BUFFER_BYTES = 64 * 1024;
+
     /** 网络请求真正实现类. */
     private final HttpStack mHttpStack;
 
+    /** 网络连接质量估算器,每个成功的响应都会提交一个样本. */
+    private final ConnectionQualityEstimator mQualityEstimator;
+
+    /** 读取响应体的缓冲区池. */
+    private final ByteArrayPool mPool = new ByteArrayPool(DEFAULT_POOL_SIZE);
+
+    /** 响应体溢出到磁盘时临时文件所在的目录,为null时使用系统临时目录. */
+    private File mSpillDirectory;
+
     public BasicNetwork(HttpStack httpStack) {
+        this(httpStack, ConnectionQualityEstimator.getInstance());
+    }
+
+    /** @param qualityEstimator 连接质量估算器,为null时不统计连接质量. */
+    public BasicNetwork(HttpStack httpStack, ConnectionQualityEstimator qualityEstimator) {
         mHttpStack = httpStack;
+        mQualityEstimator = qualityEstimator;
+    }
+
+    /** 设置响应体溢出到磁盘时临时文件所在的目录,一般传入Context.getCacheDir(). */
+    public void setSpillDirectory(File spillDirectory) {
+        mSpillDirectory = spillDirectory;
     }
 
     @Override
@@ -51,21 +81,23 @@ public class BasicNetwork implements Network {
         while (true) {
             HttpResponse httpResponse = null;
             byte[] responseContents = null;
-            Map<String, String> responseHeaders = Collections.emptyMap();
+            File spillFile = null;
+            Headers responseHeaders = null;
             try {
                 // 构造Cache的HTTP headers,主要是添加If-None-Match和If-Modified-Since两个字段
                 // 当客户端发送的是一个条件验证请求时,服务器可能返回304状态码.
                 // If-Modified-Since：代表服务器上次修改是的日期值.
                 // If-None-Match：服务器上次返回的ETag响应头的值.
-                Map<String, String> headers = new HashMap<String, String>();
-                addCacheHeaders(headers, request.getCacheEntry());
+                Map<String, String> headers = getCacheHeaders(request.getCacheEntry());
 
                 // 调用HurlStack的performRequest方法执行网络请求, 并将请求结果存入httpResponse变量中
+                long attemptStart = SystemClock.elapsedRealtime();
                 httpResponse = mHttpStack.performRequest(request, headers);
+                long headersReceived = SystemClock.elapsedRealtime();
 
                 StatusLine statusLine = httpResponse.getStatusLine();
                 int statusCode = statusLine.getStatusCode();
-                responseHeaders = convertHeaders(httpResponse.getAllHeaders());
+                responseHeaders = getResponseHeaders(httpResponse);
 
                 // 当服务端返回304状态码时,直接将Volley缓存中结果返回
                 if (statusCode == HttpStatus.SC_NOT_MODIFIED) {
@@ -80,6 +112,7 @@ public class BasicNetwork implements Network {
                     // have to use the header fields from the cache entry plus
                     // the new ones from the response.
                     entry.responseHeaders.putAll(responseHeaders);
+                    refreshCacheMetadata(entry);
                     return new NetworkResponse(HttpStatus.SC_NOT_MODIFIED, entry.data,
                             entry.responseHeaders, true,
                             SystemClock.elapsedRealtime() - requestStart);
@@ -87,7 +120,19 @@ public class BasicNetwork implements Network {
 
                 // Some responses such as 204s do not have content. We mush check
                 if (httpResponse.getEntity() != null) {
-                    responseContents = entityToBytes(httpResponse.getEntity());
+                    if (request instanceof DownloadRequest
+                            && statusCode >= 200 && statusCode <= 299) {
+                        // 下载请求将响应体直接写入目标文件,不在内存中缓存.
+                        responseContents = ((DownloadRequest) request).writeResponse(
+                                statusCode, responseHeaders, httpResponse.getEntity());
+                    } else {
+                        // 只有成功的响应才允许溢出到磁盘,错误响应体需要留在内存中交给VolleyError.
+                        boolean allowSpill = statusCode >= 200 && statusCode <= 299;
+                        ResponseBody body =
+                                readEntity(request, httpResponse.getEntity(), allowSpill);
+                        responseContents = body.data;
+                        spillFile = body.file;
+                    }
                 } else {
                     responseContents = new byte[0];
                 }
@@ -96,6 +141,19 @@ public class BasicNetwork implements Network {
                     throw new IOException();
                 }
 
+                long bodyLength = spillFile != null ? spillFile.length() : responseContents.length;
+
+                // 首字节延迟作为RTT样本,读取响应体的耗时用于估算吞吐量.
+                if (mQualityEstimator != null) {
+                    mQualityEstimator.addSample(bodyLength,
+                            headersReceived - attemptStart,
+                            SystemClock.elapsedRealtime() - headersReceived);
+                }
+
+                if (spillFile != null) {
+                    return new NetworkResponse(statusCode, spillFile, bodyLength, responseHeaders,
+                            SystemClock.elapsedRealtime() - requestStart);
+                }
                 return new NetworkResponse(statusCode, responseContents, responseHeaders, false,
                         SystemClock.elapsedRealtime() - requestStart);
             } catch (SocketTimeoutException e) {
@@ -140,11 +198,13 @@ public class BasicNetwork implements Network {
         }
     }
 
-    private void addCacheHeaders(Map<String, String> headers, Cache.Entry entry) {
+    /** 没有缓存实体时不需要额外的请求头,直接返回共享的空Map. */
+    private Map<String, String> getCacheHeaders(Cache.Entry entry) {
         if (entry == null) {
-            return;
+            return Collections.emptyMap();
         }
 
+        Headers headers = new Headers(2);
         if (entry.etag != null) {
             headers.put("If-None-Match", entry.etag);
         }
@@ -153,45 +213,144 @@ public class BasicNetwork implements Network {
             Date refTime = new Date(entry.lastModified);
             headers.put("If-modified-Since", DateUtils.formatDate(refTime));
         }
+        return headers;
+    }
+
+    /**
+     * 根据304合并之后的头部重新计算缓存的etag和过期时间.
+     * NetworkDispatcher据此只更新缓存的元数据,不再为了刷新过期时间重新解析和写入响应体.
+     */
+    private static void refreshCacheMetadata(Cache.Entry entry) {
+        Cache.Entry refreshed = HttpHeaderParser.parseCacheHeaders(new NetworkResponse(
+                HttpStatus.SC_NOT_MODIFIED, entry.data, entry.responseHeaders, true, 0));
+        if (refreshed == null) {
+            return;
+        }
+        entry.etag = refreshed.etag;
+        entry.serverDate = refreshed.serverDate;
+        entry.lastModified = refreshed.lastModified;
+        entry.ttl = refreshed.ttl;
+        entry.softTtl = refreshed.softTtl;
     }
 
-    private static Map<String, String> convertHeaders(Header[] headers) {
-        Map<String, String> result = new TreeMap<String, String>(String.CASE_INSENSITIVE_ORDER);
+    /** 优先复用HttpStack已经构造好的Headers,否则将Apache的Header数组转换为Headers. */
+    private static Headers getResponseHeaders(HttpResponse httpResponse) {
+        if (httpResponse instanceof HeadersHttpResponse) {
+            return ((HeadersHttpResponse) httpResponse).getHeaders();
+        }
+        Header[] headers = httpResponse.getAllHeaders();
+        Headers result = new Headers(headers.length);
         for (Header header : headers) {
-            result.put(header.getName(), header.getValue());
+            result.add(header.getName(), header.getValue());
         }
         return result;
     }
 
+    /** 读取到的响应体,data和file有且只有一个不为null. */
+    private static class ResponseBody {
+        byte[] data;
+        File file;
+    }
+
     /**
      * 将服务器返回的InputStream输入流转换成byte数组.
-     * 这个函数让我实现的话，我会使用StringBuffer来替换ByteArrayOutputStream来实现字符串拼接.
+     * 读取过程中检查Request设置的最大字节数,超过时立即中止;
+     * 允许溢出时,超过阈值的响应体连同已经读取的部分一起写入临时文件.
      */
-    private byte[] entityToBytes(HttpEntity entity) throws IOException, ServerError {
-        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
-
-        byte[] buffer = new byte[1024];
+    private ResponseBody readEntity(Request<?> request, HttpEntity entity, boolean allowSpill)
+            throws IOException, VolleyError {
+        long maxBytes = request.getMaxResponseBytes();
+        long spillThreshold = allowSpill ? request.getSpillThresholdBytes() : -1;
+        long contentLength = entity.getContentLength();
+        ResponseBody body = new ResponseBody();
+        PoolingByteArrayOutputStream bytes = null;
+        OutputStream fileOut = null;
+        byte[] buffer = null;
+        boolean success = false;
 
         try {
+            // 有Content-Length时,不需要读取响应体就能判断是否超过限制.
+            if (maxBytes >= 0 && contentLength > maxBytes) {
+                throw new ResponseTooLargeError("Content-Length " + contentLength
+                        + " exceeds limit " + maxBytes);
+            }
             InputStream in = entity.getContent();
             if (in == null) {
                 throw new ServerError();
             }
+            if (spillThreshold >= 0 && contentLength > spillThreshold) {
+                body.file = createSpillFile();
+                fileOut = new BufferedOutputStream(new FileOutputStream(body.file));
+            } else {
+                // Content-Length只是服务器的声明,不能按它分配内存,超出上限的部分读取时再扩容.
+                long initialSize = Math.min(contentLength, MAX_INITIAL_BUFFER_BYTES);
+                if (maxBytes >= 0) {
+                    initialSize = Math.min(initialSize, maxBytes);
+                }
+                if (spillThreshold >= 0) {
+                    initialSize = Math.min(initialSize, spillThreshold);
+                }
+                bytes = new PoolingByteArrayOutputStream(mPool, (int) Math.max(0, initialSize));
+            }
+
+            buffer = mPool.getBuf(1024);
+            long total = 0;
             int count;
             while ((count = in.read(buffer)) != -1) {
-                bytes.write(buffer, 0, count);
+                total += count;
+                if (maxBytes >= 0 && total > maxBytes) {
+                    throw new ResponseTooLargeError("Response body exceeds limit " + maxBytes);
+                }
+                if (fileOut == null && spillThreshold >= 0 && total > spillThreshold) {
+                    body.file = createSpillFile();
+                    fileOut = new BufferedOutputStream(new FileOutputStream(body.file));
+                    bytes.writeTo(fileOut);
+                    bytes.close();
+                    bytes = null;
+                }
+                if (fileOut != null) {
+                    fileOut.write(buffer, 0, count);
+                } else {
+                    bytes.write(buffer, 0, count);
+                }
             }
-            return bytes.toByteArray();
+            if (fileOut != null) {
+                fileOut.close();
+                fileOut = null;
+            } else {
+                body.data = bytes.toByteArray();
+            }
+            success = true;
+            return body;
         } finally {
             try {
                 entity.consumeContent();
             } catch (IOException e){
                 e.printStackTrace();
             }
-            bytes.close();
+            if (fileOut != null) {
+                try {
+                    fileOut.close();
+                } catch (IOException ignored) {
+                }
+            }
+            if (bytes != null) {
+                try {
+                    bytes.close();
+                } catch (IOException ignored) {
+                }
+            }
+            mPool.returnBuf(buffer);
+            if (!success && body.file != null) {
+                body.file.delete();
+            }
         }
     }
 
+    private File createSpillFile() throws IOException {
+        return File.createTempFile("volley-", ".body", mSpillDirectory);
+    }
+
     private void attemptRetryOnException(String logPrefix, Request<?> request,
                                          VolleyError exception) throws VolleyError{
         RetryPolicy retryPolicy = request.getRetryPolicy();
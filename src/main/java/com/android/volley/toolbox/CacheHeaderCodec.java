@@ -0,0 +1,309 @@
+package com.android.volley.toolbox;
+
+import com.android.volley.Headers;
+import com.android.volley.toolbox.DiskBasedCache.CacheHeader;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.HashMap;
+import java.util.zip.CRC32;
+
+/**
+ * CacheHeader的v2二进制格式:MAGIC_V2(int) 负载长度(varint) 负载 负载的CRC32(int).
+ * 负载依次是flags,压缩前大小(仅压缩时),blob摘要(仅去重存储时),key,etag,serverDate,lastModified,ttl,softTtl,头部数量和各个头部.
+ * 整数使用varint编码,有符号的long先做zigzag变换;字符串是varint长度加UTF-8字节.
+ * 头部名称和值可以引用{@link #DICTIONARY}中的常见字符串,只占一到两个字节.
+ * 整个头部先编码到字节数组中再一次写出,读取时也一次读入负载再解码,不逐字节访问流.
+ */
+final class CacheHeaderCodec {
+    static final int MAGIC_V2 = 0x20161020;
+
+    private static final int FLAG_COMPRESSED = 1;
+    private static final int FLAG_BLOB = 2;
+
+    /** 单个头部负载的长度上限,超过时认为文件已损坏. */
+    private static final int MAX_PAYLOAD_BYTES = 1024 * 1024;
+
+    /** 常见的头部名称和取值.只能在末尾追加,已有的项不能修改或删除,否则旧文件无法正确解码. */
+    private static final String[] DICTIONARY = {
+            "Content-Type", "Content-Length", "Date", "Server", "Cache-Control",
+            "Expires", "Last-Modified", "ETag", "Connection", "Vary",
+            "Content-Encoding", "Transfer-Encoding", "Accept-Ranges", "Age", "Pragma",
+            "Set-Cookie", "Location", "Access-Control-Allow-Origin", "Strict-Transport-Security",
+            "X-Content-Type-Options", "X-Frame-Options", "X-XSS-Protection", "Keep-Alive", "Via",
+            "X-Cache", "X-Powered-By", "Content-Language", "Content-Disposition", "Link", "P3P",
+            "X-Android-Received-Millis", "X-Android-Sent-Millis", "X-Android-Response-Source",
+            "X-Android-Selected-Protocol",
+            "content-type", "content-length", "date", "server", "cache-control",
+            "expires", "last-modified", "etag", "vary", "content-encoding",
+            "accept-ranges", "age", "access-control-allow-origin",
+            "application/json", "application/json; charset=utf-8", "application/json;charset=UTF-8",
+            "application/json; charset=UTF-8", "text/html", "text/html; charset=utf-8",
+            "text/html; charset=UTF-8", "text/plain", "text/plain; charset=utf-8",
+            "text/javascript", "text/css", "application/javascript", "application/xml",
+            "image/jpeg", "image/png", "image/webp", "image/gif",
+            "gzip", "chunked", "keep-alive", "close", "bytes", "none",
+            "no-cache", "no-store", "private", "public", "max-age=0", "must-revalidate",
+            "Accept-Encoding", "Origin", "*", "0", "nginx", "Apache", "cloudflare",
+            "nosniff", "SAMEORIGIN", "DENY", "1; mode=block",
+            "NETWORK 200", "CACHE 200", "CONDITIONAL_CACHE 200", "CONDITIONAL_CACHE 304",
+            "http/1.1", "h2", "spdy/3.1", "HIT", "MISS",
+    };
+
+    private static final HashMap<String, Integer> DICTIONARY_INDEX =
+            new HashMap<String, Integer>(DICTIONARY.length * 2);
+
+    static {
+        for (int i = 0; i < DICTIONARY.length; i ++) {
+            DICTIONARY_INDEX.put(DICTIONARY[i], i);
+        }
+    }
+
+    private CacheHeaderCodec() {
+    }
+
+    /** 以v2格式写出header,只调用一次os.write. */
+    static void write(CacheHeader header, OutputStream os) throws IOException {
+        Encoder payload = new Encoder(256);
+        payload.writeVarLong((header.compressed ? FLAG_COMPRESSED : 0)
+                | (header.blob != null ? FLAG_BLOB : 0));
+        if (header.compressed) {
+            payload.writeVarLong(header.uncompressedSize);
+        }
+        if (header.blob != null) {
+            payload.writeString(header.blob);
+        }
+        payload.writeString(header.key);
+        payload.writeString(header.etag == null ? "" : header.etag);
+        payload.writeVarLong(zigzag(header.serverDate));
+        payload.writeVarLong(zigzag(header.lastModified));
+        payload.writeVarLong(zigzag(header.ttl));
+        payload.writeVarLong(zigzag(header.softTtl));
+        Headers headers = header.responseHeaders;
+        int count = headers == null ? 0 : headers.count();
+        payload.writeVarLong(count);
+        for (int i = 0; i < count; i ++) {
+            payload.writeToken(headers.name(i));
+            payload.writeToken(headers.value(i));
+        }
+
+        Encoder out = new Encoder(payload.count + 13);
+        out.writeInt(MAGIC_V2);
+        out.writeVarLong(payload.count);
+        out.writeBytes(payload.buf, 0, payload.count);
+        out.writeInt(checksum(payload.buf, 0, payload.count));
+        os.write(out.buf, 0, out.count);
+    }
+
+    /** 读取MAGIC_V2之后的部分.校验和不一致时抛出IOException. */
+    static CacheHeader read(InputStream is) throws IOException {
+        int length = (int) readVarLong(is, 5);
+        if (length < 0 || length > MAX_PAYLOAD_BYTES) {
+            throw new IOException("Invalid cache header length " + length);
+        }
+        byte[] payload = new byte[length + 4];
+        int pos = 0;
+        int count;
+        while (pos < payload.length
+                && (count = is.read(payload, pos, payload.length - pos)) != -1) {
+            pos += count;
+        }
+        if (pos != payload.length) {
+            throw new EOFException();
+        }
+        verifyChecksum(payload, length);
+        return decode(payload, length);
+    }
+
+    private static CacheHeader decode(byte[] payload, int length) throws IOException {
+        Decoder decoder = new Decoder(payload, length);
+        CacheHeader header = new CacheHeader();
+        long flags = decoder.readVarLong();
+        if ((flags & FLAG_COMPRESSED) != 0) {
+            header.compressed = true;
+            header.uncompressedSize = decoder.readVarLong();
+        }
+        if ((flags & FLAG_BLOB) != 0) {
+            header.blob = decoder.readString();
+        }
+        header.key = decoder.readString();
+        header.etag = decoder.readString();
+        if (header.etag.length() == 0) {
+            header.etag = null;
+        }
+        header.serverDate = unzigzag(decoder.readVarLong());
+        header.lastModified = unzigzag(decoder.readVarLong());
+        header.ttl = unzigzag(decoder.readVarLong());
+        header.softTtl = unzigzag(decoder.readVarLong());
+        int count = decoder.readLength();
+        Headers headers = new Headers(count);
+        for (int i = 0; i < count; i ++) {
+            String name = decoder.readToken();
+            headers.add(name, decoder.readToken());
+        }
+        header.responseHeaders = headers;
+        return header;
+    }
+
+    private static void verifyChecksum(byte[] payload, int length) throws IOException {
+        int expected = (payload[length] & 0xff)
+                | (payload[length + 1] & 0xff) << 8
+                | (payload[length + 2] & 0xff) << 16
+                | (payload[length + 3] & 0xff) << 24;
+        if (checksum(payload, 0, length) != expected) {
+            throw new IOException("Cache header checksum mismatch");
+        }
+    }
+
+    private static int checksum(byte[] bytes, int offset, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes, offset, length);
+        return (int) crc.getValue();
+    }
+
+    private static long zigzag(long n) {
+        return (n << 1) ^ (n >> 63);
+    }
+
+    private static long unzigzag(long n) {
+        return (n >>> 1) ^ -(n & 1);
+    }
+
+    private static long readVarLong(InputStream is, int maxBytes) throws IOException {
+        long result = 0;
+        for (int shift = 0; shift < maxBytes * 7; shift += 7) {
+            int b = is.read();
+            if (b == -1) {
+                throw new EOFException();
+            }
+            result |= (long) (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return result;
+            }
+        }
+        throw new IOException("Malformed varint");
+    }
+
+    /** 可增长的编码缓冲区,整数按小端字节序写入,与DiskBasedCache.writeInt一致. */
+    private static final class Encoder {
+        byte[] buf;
+        int count;
+
+        Encoder(int capacity) {
+            buf = new byte[capacity];
+        }
+
+        private void ensure(int n) {
+            if (count + n > buf.length) {
+                byte[] grown = new byte[Math.max(count + n, buf.length * 2)];
+                System.arraycopy(buf, 0, grown, 0, count);
+                buf = grown;
+            }
+        }
+
+        void writeInt(int n) {
+            ensure(4);
+            buf[count ++] = (byte) n;
+            buf[count ++] = (byte) (n >> 8);
+            buf[count ++] = (byte) (n >> 16);
+            buf[count ++] = (byte) (n >> 24);
+        }
+
+        void writeVarLong(long n) {
+            ensure(10);
+            while ((n & ~0x7fL) != 0) {
+                buf[count ++] = (byte) ((n & 0x7f) | 0x80);
+                n >>>= 7;
+            }
+            buf[count ++] = (byte) n;
+        }
+
+        void writeBytes(byte[] bytes, int offset, int length) {
+            ensure(length);
+            System.arraycopy(bytes, offset, buf, count, length);
+            count += length;
+        }
+
+        void writeString(String s) throws UnsupportedEncodingException {
+            byte[] bytes = s.getBytes("UTF-8");
+            writeVarLong(bytes.length);
+            writeBytes(bytes, 0, bytes.length);
+        }
+
+        /** 字典中的字符串写成(下标 << 1) | 1,其他字符串写成(长度 << 1)加UTF-8字节. */
+        void writeToken(String s) throws UnsupportedEncodingException {
+            Integer index = DICTIONARY_INDEX.get(s);
+            if (index != null) {
+                writeVarLong(((long) index << 1) | 1);
+                return;
+            }
+            byte[] bytes = s.getBytes("UTF-8");
+            writeVarLong((long) bytes.length << 1);
+            writeBytes(bytes, 0, bytes.length);
+        }
+    }
+
+    /** 在字节数组上解码负载,越界时抛出EOFException. */
+    private static final class Decoder {
+        private final byte[] mBuf;
+        private final int mLimit;
+        private int mPos;
+
+        Decoder(byte[] buf, int limit) {
+            mBuf = buf;
+            mLimit = limit;
+        }
+
+        long readVarLong() throws IOException {
+            long result = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                if (mPos >= mLimit) {
+                    throw new EOFException();
+                }
+                byte b = mBuf[mPos ++];
+                result |= (long) (b & 0x7f) << shift;
+                if ((b & 0x80) == 0) {
+                    return result;
+                }
+            }
+            throw new IOException("Malformed varint");
+        }
+
+        int readLength() throws IOException {
+            long length = readVarLong();
+            if (length < 0 || length > mLimit - mPos) {
+                throw new EOFException();
+            }
+            return (int) length;
+        }
+
+        String readString() throws IOException {
+            return readUtf8(readLength());
+        }
+
+        String readToken() throws IOException {
+            long token = readVarLong();
+            if ((token & 1) != 0) {
+                long index = token >>> 1;
+                if (index >= DICTIONARY.length) {
+                    throw new IOException("Unknown dictionary index " + index);
+                }
+                return DICTIONARY[(int) index];
+            }
+            long length = token >>> 1;
+            if (length > mLimit - mPos) {
+                throw new EOFException();
+            }
+            return readUtf8((int) length);
+        }
+
+        private String readUtf8(int length) throws UnsupportedEncodingException {
+            String s = new String(mBuf, mPos, length, "UTF-8");
+            mPos += length;
+            return s;
+        }
+    }
+}
@@ -0,0 +1,244 @@
+package com.android.volley.toolbox;
+
+import com.android.volley.toolbox.DiskBasedCache.CacheHeader;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+
+/**
+ * DiskBasedCache的索引日志.
+ * 日志只追加写入三种记录:写入(完整的CacheHeader和文件大小),删除和访问.启动时顺序读一遍日志就能恢复
+ * 全部CacheHeader以及LRU顺序,不再需要打开每个缓存文件解析头部.
+ * 冗余记录过多时,按当前的LRU顺序重写一份只包含写入记录的日志(压缩).
+ */
+@SuppressWarnings("ResultOfMethodCallIgnored")
+class CacheJournal {
+    /** 日志文件名,缓存文件名都是数字,不会冲突. */
+    static final String JOURNAL_FILE = "journal";
+
+    /** 压缩时使用的临时日志文件名. */
+    static final String JOURNAL_FILE_TEMP = "journal.tmp";
+
+    /** 标记日志文件的MAGIC_NUMBER. */
+    private static final int JOURNAL_MAGIC = 0x20160925;
+
+    private static final int OP_PUT = 1;
+    private static final int OP_REMOVE = 2;
+    private static final int OP_ACCESS = 3;
+
+    /** 冗余记录超过该数量并且超过有效记录数时压缩日志. */
+    private static final int COMPACT_THRESHOLD = 2000;
+
+    private final File mFile;
+
+    private final File mTempFile;
+
+    /** 追加写入的输出流,为null表示日志不可用,缓存继续工作但是不再记录. */
+    private OutputStream mWriter;
+
+    /** 日志中被后续记录覆盖的记录数. */
+    private int mRedundantOpCount;
+
+    /** 读取时日志末尾有不完整的记录,追加新记录之前必须重写日志. */
+    private boolean mTruncated;
+
+    CacheJournal(File directory) {
+        mFile = new File(directory, JOURNAL_FILE);
+        mTempFile = new File(directory, JOURNAL_FILE_TEMP);
+    }
+
+    /** 判断缓存目录中的文件是否是日志文件. */
+    static boolean isJournalFile(String name) {
+        return JOURNAL_FILE.equals(name) || JOURNAL_FILE_TEMP.equals(name);
+    }
+
+    /**
+     * 顺序读取日志,按LRU顺序(最久未访问的在前)返回全部CacheHeader.
+     * 日志不存在或者文件头损坏时返回null,调用方需要退回到扫描缓存目录.
+     * 进程在追加记录时被杀掉会留下半条记录,此时丢弃出错位置之后的内容,之前的记录仍然有效;
+     * 丢失记录的缓存文件会被当作没有索引的文件删除.
+     */
+    LinkedHashMap<String, CacheHeader> read() {
+        if (!mFile.exists()) {
+            return null;
+        }
+        LinkedHashMap<String, CacheHeader> entries =
+                new LinkedHashMap<String, CacheHeader>(16, 0.75f, true);
+        InputStream is = null;
+        int opCount = 0;
+        try {
+            is = new BufferedInputStream(new FileInputStream(mFile));
+            if (DiskBasedCache.readInt(is) != JOURNAL_MAGIC) {
+                return null;
+            }
+        } catch (IOException e) {
+            closeQuietly(is);
+            return null;
+        }
+        try {
+            while (true) {
+                int op = is.read();
+                if (op == -1) {
+                    break;
+                }
+                opCount ++;
+                if (op == OP_PUT) {
+                    long size = DiskBasedCache.readLong(is);
+                    CacheHeader header = CacheHeader.readHeader(is);
+                    header.size = size;
+                    entries.put(header.key, header);
+                } else if (op == OP_REMOVE) {
+                    entries.remove(DiskBasedCache.readString(is));
+                } else if (op == OP_ACCESS) {
+                    entries.get(DiskBasedCache.readString(is));
+                } else {
+                    throw new IOException("Unknown journal op " + op);
+                }
+            }
+        } catch (IOException e) {
+            mTruncated = true;
+        } catch (RuntimeException e) {
+            // 损坏的长度字段可能导致NegativeArraySizeException等异常.
+            mTruncated = true;
+        } finally {
+            closeQuietly(is);
+        }
+        mRedundantOpCount = opCount - entries.size();
+        return entries;
+    }
+
+    private static void closeQuietly(InputStream is) {
+        if (is != null) {
+            try {
+                is.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    /** 打开日志准备追加记录.已经打开的输出流先关闭. */
+    void open() {
+        close();
+        try {
+            mWriter = new BufferedOutputStream(new FileOutputStream(mFile, true));
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    /** 冗余记录是否已经多到需要压缩,或者日志末尾有不完整的记录. */
+    boolean needsCompaction(int entryCount) {
+        return mTruncated
+                || (mRedundantOpCount >= COMPACT_THRESHOLD && mRedundantOpCount >= entryCount);
+    }
+
+    /** 按给定顺序重写日志,每个CacheHeader只保留一条写入记录.先写临时文件再重命名. */
+    void rebuild(Collection<CacheHeader> entries) {
+        close();
+        OutputStream os = null;
+        try {
+            os = new BufferedOutputStream(new FileOutputStream(mTempFile));
+            DiskBasedCache.writeInt(os, JOURNAL_MAGIC);
+            for (CacheHeader header : entries) {
+                writePut(os, header);
+            }
+            os.close();
+            os = null;
+            if (!mTempFile.renameTo(mFile)) {
+                throw new IOException("rename failed: " + mTempFile);
+            }
+            mRedundantOpCount = 0;
+            mTruncated = false;
+            open();
+        } catch (IOException e) {
+            if (os != null) {
+                try {
+                    os.close();
+                } catch (IOException ignored) {
+                }
+            }
+            mTempFile.delete();
+            fail(e);
+        }
+    }
+
+    void appendPut(CacheHeader header, boolean replaced) {
+        if (mWriter == null) {
+            return;
+        }
+        try {
+            writePut(mWriter, header);
+            mWriter.flush();
+            if (replaced) {
+                mRedundantOpCount ++;
+            }
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    void appendRemove(String key) {
+        appendKeyOp(OP_REMOVE, key, 2, true);
+    }
+
+    /**
+     * 访问记录只写入缓冲区,由缓冲区写满或者下一条写入,删除记录一起刷到文件,读路径上通常没有IO.
+     * 进程被杀掉时丢失的只是最近的访问顺序.
+     */
+    void appendAccess(String key) {
+        appendKeyOp(OP_ACCESS, key, 1, false);
+    }
+
+    private void appendKeyOp(int op, String key, int redundant, boolean flush) {
+        if (mWriter == null) {
+            return;
+        }
+        try {
+            mWriter.write(op);
+            DiskBasedCache.writeString(mWriter, key);
+            if (flush) {
+                mWriter.flush();
+            }
+            // 删除记录本身和被它删除的写入记录都是冗余的.
+            mRedundantOpCount += redundant;
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    private static void writePut(OutputStream os, CacheHeader header) throws IOException {
+        os.write(OP_PUT);
+        DiskBasedCache.writeLong(os, header.size);
+        if (!header.writeHeader(os)) {
+            throw new IOException("Failed to write cache header");
+        }
+    }
+
+    /** 关闭日志. */
+    void close() {
+        if (mWriter != null) {
+            try {
+                mWriter.close();
+            } catch (IOException ignored) {
+            }
+            mWriter = null;
+        }
+    }
+
+    /**
+     * 写入失败后日志和缓存的实际状态不再一致,删除日志,下次启动时扫描缓存目录重建.
+     */
+    private void fail(IOException e) {
+        e.printStackTrace();
+        close();
+        mFile.delete();
+    }
+}
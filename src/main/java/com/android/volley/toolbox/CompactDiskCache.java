@@ -0,0 +1,781 @@
+package com.android.volley.toolbox;
+
+import android.util.Log;
+
+import com.android.volley.Cache;
+import com.android.volley.CacheStats;
+import com.android.volley.toolbox.DiskBasedCache.CacheHeader;
+import com.android.volley.toolbox.DiskBasedCache.CountingInputStream;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * 内存索引紧凑的Disk缓存.
+ * DiskBasedCache在内存中为每个条目保存完整的CacheHeader(key,etag和全部响应头部),条目很多时索引本身就要占用几MB堆内存.
+ * 这里的索引只保存key的MD5摘要,文件大小,ttl,softTtl和LRU链表,全部存放在基本类型数组中,每个条目约60字节;
+ * 响应头部在get/peek时才从缓存文件中读取.
+ * 缓存文件的位置和格式与DiskBasedCache相同,两者可以使用同一个缓存目录.
+ *
+ * initialize()不持有锁扫描缓存目录,只读取每个文件的头部,按文件修改时间恢复LRU顺序,最后在锁内合并;
+ * 扫描期间还没有加入索引的key直接探测缓存文件.
+ * DiskBasedCache旧版本放在缓存目录根部的缓存文件会被迁移到新的位置;
+ * 不支持DiskBasedCache去重存储的条目,初始化时删除它们.
+ */
+@SuppressWarnings({"unused", "ResultOfMethodCallIgnored"})
+public class CompactDiskCache implements Cache {
+    /** 默认硬盘最大的缓存空间(5M),与DiskBasedCache相同. */
+    private static final int DEFAULT_DISK_USAGE_BYTES = 5 * 1024 * 1024;
+
+    /** 淘汰到容量的该比例以下. */
+    private static final float HYSTERESIS_FACTOR = 0.9f;
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    /** 空的下标. */
+    private static final int NIL = -1;
+
+    /** 流式写入时拷贝响应体的缓冲区池的大小. */
+    private static final int BUFFER_POOL_SIZE_BYTES = 64 * 1024;
+
+    private final File mRootDirectory;
+
+    private final int mMaxCacheSizeInBytes;
+
+    private final ByteArrayPool mBufferPool = new ByteArrayPool(BUFFER_POOL_SIZE_BYTES);
+
+    /** 以下数组按槽位下标访问,一个槽位对应一个条目.key的MD5摘要分成高低两个long保存. */
+    private long[] mDigestHigh;
+    private long[] mDigestLow;
+    private int[] mSizes;
+    private long[] mTtls;
+    private long[] mSoftTtls;
+
+    /** LRU双向链表,mHead最旧,mTail最新.空闲槽位通过mNext串成单链表. */
+    private int[] mPrev;
+    private int[] mNext;
+    private int mHead = NIL;
+    private int mTail = NIL;
+    private int mFreeHead = NIL;
+
+    /** 已经分配过的槽位数,之后的槽位从未使用过. */
+    private int mAllocated = 0;
+
+    /** 摘要到槽位的开放寻址哈希表,保存槽位下标加1,0表示空位. */
+    private int[] mTable;
+
+    private int mCount = 0;
+
+    /** 目前使用的缓存字节数. */
+    private long mTotalSize = 0;
+
+    /** 记录淘汰次数和字节数,为null时不记录. */
+    private CacheStats mStats;
+
+    /** initialize()是否已经完成.完成之前索引中没有的key需要直接探测缓存文件. */
+    private boolean mInitialized = false;
+
+    /** 初始化期间被删除的文件名,合并扫描结果时需要跳过. */
+    private final Set<String> mRemovedDuringInit = new HashSet<String>();
+
+    /** 初始化期间缓存是否被清空过,清空过时丢弃全部扫描结果. */
+    private boolean mClearedDuringInit = false;
+
+    public CompactDiskCache(File rootDirectory) {
+        this(rootDirectory, DEFAULT_DISK_USAGE_BYTES);
+    }
+
+    public CompactDiskCache(File rootDirectory, int maxCacheSizeInBytes) {
+        mRootDirectory = rootDirectory;
+        mMaxCacheSizeInBytes = maxCacheSizeInBytes;
+        resetIndex();
+    }
+
+    private void resetIndex() {
+        mDigestHigh = new long[INITIAL_CAPACITY];
+        mDigestLow = new long[INITIAL_CAPACITY];
+        mSizes = new int[INITIAL_CAPACITY];
+        mTtls = new long[INITIAL_CAPACITY];
+        mSoftTtls = new long[INITIAL_CAPACITY];
+        mPrev = new int[INITIAL_CAPACITY];
+        mNext = new int[INITIAL_CAPACITY];
+        mTable = new int[INITIAL_CAPACITY * 2];
+        mHead = NIL;
+        mTail = NIL;
+        mFreeHead = NIL;
+        mAllocated = 0;
+        mCount = 0;
+        mTotalSize = 0;
+    }
+
+    /** 参见{@link DiskBasedCache#setStats(CacheStats)}. */
+    public synchronized void setStats(CacheStats stats) {
+        mStats = stats;
+    }
+
+    /** 索引中的条目数. */
+    public synchronized int size() {
+        return mCount;
+    }
+
+    @Override
+    public synchronized Entry get(String key) {
+        String filename = DiskBasedCache.getFilenameForKey(key);
+        int slot = findSlot(filename);
+        if (slot == NIL) {
+            return null;
+        }
+        File file = DiskBasedCache.getCacheFile(mRootDirectory, filename);
+        CountingInputStream cis = null;
+        try {
+            cis = new CountingInputStream(new BufferedInputStream(new FileInputStream(file)));
+            CacheHeader header = CacheHeader.readHeader(cis);
+            if (!key.equals(header.key)) {
+                // 摘要相同但key不同,当作没有缓存.
+                return null;
+            }
+            byte[] data;
+            if (header.compressed) {
+                data = DiskBasedCache.streamToBytes(
+                        new InflaterInputStream(cis), (int) header.uncompressedSize);
+            } else {
+                data = DiskBasedCache.streamToBytes(cis, (int) (file.length() - cis.bytesRead));
+            }
+            moveToTail(slot);
+            return header.toCacheEntry(data);
+        } catch (IOException e) {
+            remove(key);
+            return null;
+        } finally {
+            closeQuietly(cis);
+        }
+    }
+
+    /** 与DiskBasedCache相同,返回直接从缓存文件中读取响应体的StreamEntry. */
+    @Override
+    public synchronized StreamEntry getStream(String key) {
+        String filename = DiskBasedCache.getFilenameForKey(key);
+        int slot = findSlot(filename);
+        if (slot == NIL) {
+            return null;
+        }
+        FileInputStream fis = null;
+        try {
+            fis = new FileInputStream(DiskBasedCache.getCacheFile(mRootDirectory, filename));
+            CountingInputStream cis = new CountingInputStream(new BufferedInputStream(fis));
+            CacheHeader header = CacheHeader.readHeader(cis);
+            if (!key.equals(header.key)) {
+                fis.close();
+                return null;
+            }
+            moveToTail(slot);
+            return new FileStreamEntry(header, fis, cis.bytesRead);
+        } catch (IOException e) {
+            closeQuietly(fis);
+            remove(key);
+            return null;
+        }
+    }
+
+    /** 索引中没有响应头部,需要读取缓存文件的头部. */
+    @Override
+    public synchronized Entry peek(String key) {
+        CacheHeader header = readHeader(key);
+        return header == null ? null : header.toCacheEntry(null);
+    }
+
+    private CacheHeader readHeader(String key) {
+        String filename = DiskBasedCache.getFilenameForKey(key);
+        if (findSlot(filename) == NIL) {
+            return null;
+        }
+        InputStream is = null;
+        try {
+            is = new BufferedInputStream(
+                    new FileInputStream(DiskBasedCache.getCacheFile(mRootDirectory, filename)));
+            CacheHeader header = CacheHeader.readHeader(is);
+            return key.equals(header.key) ? header : null;
+        } catch (IOException e) {
+            remove(key);
+            return null;
+        } finally {
+            closeQuietly(is);
+        }
+    }
+
+    /**
+     * 返回文件名对应的槽位.初始化完成之前索引中可能还没有这个条目,此时直接探测缓存文件,只读取头部.
+     * key是否一致由调用方读取头部时检查.
+     */
+    private int findSlot(String filename) {
+        long high = parseHex(filename, 0);
+        long low = parseHex(filename, 16);
+        int slot = find(high, low);
+        if (slot != NIL || mInitialized || mClearedDuringInit
+                || mRemovedDuringInit.contains(filename)) {
+            return slot;
+        }
+        File file = DiskBasedCache.getCacheFile(mRootDirectory, filename);
+        if (!file.exists()) {
+            return NIL;
+        }
+        InputStream is = null;
+        try {
+            is = new BufferedInputStream(new FileInputStream(file), 1024);
+            CacheHeader header = CacheHeader.readHeader(is);
+            if (header.blob != null) {
+                return NIL;
+            }
+            putSlot(high, low, (int) file.length(), header.ttl, header.softTtl);
+            return find(high, low);
+        } catch (IOException e) {
+            return NIL;
+        } finally {
+            closeQuietly(is);
+        }
+    }
+
+    @Override
+    public synchronized void put(String key, Entry entry) {
+        pruneIfNeeded(entry.data.length);
+        String filename = DiskBasedCache.getFilenameForKey(key);
+        File file = DiskBasedCache.getCacheFile(mRootDirectory, filename);
+        File parent = file.getParentFile();
+        if (!parent.exists()) {
+            parent.mkdirs();
+        }
+        // 与DiskBasedCache相同,先写临时文件再重命名.
+        File temp = new File(file.getPath() + ".tmp");
+        try {
+            BufferedOutputStream fos = new BufferedOutputStream(new FileOutputStream(temp));
+            boolean success = new CacheHeader(key, entry).writeHeader(fos);
+            if (!success) {
+                fos.close();
+                throw new IOException();
+            }
+            fos.write(entry.data);
+            fos.close();
+            if (!temp.renameTo(file)) {
+                throw new IOException("rename failed: " + temp);
+            }
+            putSlot(parseHex(filename, 0), parseHex(filename, 16),
+                    (int) file.length(), entry.ttl, entry.softTtl);
+            return;
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        temp.delete();
+    }
+
+    /** 与DiskBasedCache相同,在锁外把body写入临时文件,再在锁内淘汰并替换旧文件. */
+    @Override
+    public void putStream(String key, Entry entry, InputStream body, long bodyLength) {
+        if (bodyLength > mMaxCacheSizeInBytes) {
+            return;
+        }
+        String filename = DiskBasedCache.getFilenameForKey(key);
+        File file = DiskBasedCache.getCacheFile(mRootDirectory, filename);
+        File temp = null;
+        try {
+            temp = DiskBasedCache.writeTempFile(file, new CacheHeader(key, entry), body,
+                    bodyLength, mBufferPool);
+            synchronized (this) {
+                pruneIfNeeded((int) bodyLength);
+                if (!temp.renameTo(file)) {
+                    throw new IOException("rename failed: " + temp);
+                }
+                putSlot(parseHex(filename, 0), parseHex(filename, 16),
+                        (int) file.length(), entry.ttl, entry.softTtl);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            if (temp != null) {
+                temp.delete();
+            }
+        }
+    }
+
+    /** 只重写缓存文件的头部,做法与DiskBasedCache相同. */
+    @Override
+    public synchronized void updateMetadata(String key, Entry entry) {
+        CacheHeader oldHeader = readHeader(key);
+        if (oldHeader == null) {
+            return;
+        }
+        String filename = DiskBasedCache.getFilenameForKey(key);
+        File file = DiskBasedCache.getCacheFile(mRootDirectory, filename);
+        CacheHeader newHeader = new CacheHeader(key, entry);
+        newHeader.compressed = oldHeader.compressed;
+        newHeader.uncompressedSize = oldHeader.uncompressedSize;
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            if (!newHeader.writeHeader(bytes)) {
+                throw new IOException();
+            }
+            byte[] headerBytes = bytes.toByteArray();
+            long oldHeaderLength = DiskBasedCache.readHeaderLength(file);
+            if (headerBytes.length == oldHeaderLength) {
+                RandomAccessFile raf = new RandomAccessFile(file, "rw");
+                try {
+                    raf.write(headerBytes);
+                } finally {
+                    raf.close();
+                }
+            } else {
+                DiskBasedCache.rewriteWithHeader(file, headerBytes, oldHeaderLength);
+            }
+            putSlot(parseHex(filename, 0), parseHex(filename, 16),
+                    (int) file.length(), entry.ttl, entry.softTtl);
+        } catch (IOException e) {
+            e.printStackTrace();
+            remove(key);
+        }
+    }
+
+    /**
+     * 扫描缓存目录重建索引.读取文件头部不持有锁,初始化期间get/peek/put等操作可以正常进行,
+     * 扫描结果最后在锁内合并,初始化期间写入或者删除过的条目以当前状态为准.
+     * DiskBasedCache的索引日志在这里不会被更新,直接删除,之后换回DiskBasedCache时会重新扫描目录.
+     * 去重存储的条目和blob也直接删除.
+     */
+    @Override
+    public void initialize() {
+        synchronized (this) {
+            mInitialized = false;
+            mClearedDuringInit = false;
+            mRemovedDuringInit.clear();
+        }
+        if (!mRootDirectory.exists() && !mRootDirectory.mkdirs()) {
+            Log.e("Volley", "缓存目录" + mRootDirectory.getAbsolutePath() + "创建失败.");
+            synchronized (this) {
+                mInitialized = true;
+            }
+            return;
+        }
+        migrateLegacyFiles();
+        DiskBasedCache.deleteRecursively(new File(mRootDirectory, DiskBasedCache.BLOB_DIRECTORY));
+
+        List<File> files = DiskBasedCache.listCacheFiles(mRootDirectory);
+        List<ScannedFile> scanned = new ArrayList<ScannedFile>(files.size());
+        List<File> unreadable = new ArrayList<File>();
+        for (File file : files) {
+            String filename = file.getName();
+            if (!isDigest(filename)) {
+                unreadable.add(file);
+                continue;
+            }
+            InputStream is = null;
+            try {
+                is = new BufferedInputStream(new FileInputStream(file), 1024);
+                CacheHeader header = CacheHeader.readHeader(is);
+                if (header.blob != null) {
+                    throw new IOException("Deduplicated entry");
+                }
+                scanned.add(new ScannedFile(filename, (int) file.length(), header.ttl,
+                        header.softTtl, file.lastModified()));
+            } catch (IOException e) {
+                unreadable.add(file);
+            } finally {
+                closeQuietly(is);
+            }
+        }
+        // 按修改时间从新到旧排列,合并时依次插入LRU链表的头部.
+        Collections.sort(scanned, new Comparator<ScannedFile>() {
+            @Override
+            public int compare(ScannedFile lhs, ScannedFile rhs) {
+                return lhs.modified > rhs.modified ? -1 : (lhs.modified == rhs.modified ? 0 : 1);
+            }
+        });
+
+        synchronized (this) {
+            if (!mClearedDuringInit) {
+                for (ScannedFile file : scanned) {
+                    long high = parseHex(file.filename, 0);
+                    long low = parseHex(file.filename, 16);
+                    // 初始化期间访问过的条目比扫描到的条目更新,保持在链表的后部.
+                    if (find(high, low) == NIL
+                            && !mRemovedDuringInit.contains(file.filename)) {
+                        addSlotFirst(high, low, file.size, file.ttl, file.softTtl);
+                    }
+                }
+                for (File file : unreadable) {
+                    // 扫描时可能正好遇到put写了一半的文件,只删除确实没有被索引的文件.
+                    // put持有锁,这里不会有正在写入的临时文件.
+                    String filename = file.getName();
+                    if (!isDigest(filename)
+                            || find(parseHex(filename, 0), parseHex(filename, 16)) == NIL) {
+                        file.delete();
+                    }
+                }
+            }
+            mInitialized = true;
+            mRemovedDuringInit.clear();
+            pruneIfNeeded(0);
+        }
+    }
+
+    /**
+     * 删除DiskBasedCache的索引日志;DiskBasedCache旧版本直接放在缓存目录根部的缓存文件,
+     * 读出其中的key之后重命名到新的位置,与DiskBasedCache的迁移方式相同.
+     */
+    private void migrateLegacyFiles() {
+        File[] files = mRootDirectory.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            if (!file.isFile()) {
+                continue;
+            }
+            if (CacheJournal.isJournalFile(file.getName())) {
+                file.delete();
+                continue;
+            }
+            String key = null;
+            InputStream is = null;
+            try {
+                is = new BufferedInputStream(new FileInputStream(file), 1024);
+                CacheHeader header = CacheHeader.readHeader(is);
+                if (header.blob == null) {
+                    key = header.key;
+                }
+            } catch (IOException ignored) {
+            } finally {
+                closeQuietly(is);
+            }
+            synchronized (this) {
+                if (key == null || mClearedDuringInit) {
+                    file.delete();
+                    continue;
+                }
+                String filename = DiskBasedCache.getFilenameForKey(key);
+                // 初始化期间已经写入或者删除的key以新位置的状态为准.
+                if (mRemovedDuringInit.contains(filename)
+                        || find(parseHex(filename, 0), parseHex(filename, 16)) != NIL) {
+                    file.delete();
+                    continue;
+                }
+                File target = DiskBasedCache.getCacheFile(mRootDirectory, filename);
+                target.getParentFile().mkdirs();
+                if (target.exists() || !file.renameTo(target)) {
+                    file.delete();
+                }
+            }
+        }
+    }
+
+    /** 初始化时扫描到的缓存文件. */
+    private static class ScannedFile {
+        final String filename;
+        final int size;
+        final long ttl;
+        final long softTtl;
+        final long modified;
+
+        ScannedFile(String filename, int size, long ttl, long softTtl, long modified) {
+            this.filename = filename;
+            this.size = size;
+            this.ttl = ttl;
+            this.softTtl = softTtl;
+            this.modified = modified;
+        }
+    }
+
+    @Override
+    public synchronized void invalidate(String key, boolean fullExpire) {
+        Entry entry = peek(key);
+        if (entry != null) {
+            entry.softTtl = 0;
+            if (fullExpire) {
+                entry.ttl = 0;
+            }
+            updateMetadata(key, entry);
+        }
+    }
+
+    @Override
+    public synchronized void remove(String key) {
+        String filename = DiskBasedCache.getFilenameForKey(key);
+        if (!mInitialized) {
+            mRemovedDuringInit.add(filename);
+        }
+        boolean deleted = DiskBasedCache.getCacheFile(mRootDirectory, filename).delete();
+        removeSlot(parseHex(filename, 0), parseHex(filename, 16));
+        if (!deleted) {
+            Log.e("Volley", "没能删除key=" + key + ", 文件名=" + filename + "缓存.");
+        }
+    }
+
+    @Override
+    public synchronized void clear() {
+        File[] files = mRootDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                DiskBasedCache.deleteRecursively(file);
+            }
+        }
+        resetIndex();
+        if (!mInitialized) {
+            mClearedDuringInit = true;
+        }
+    }
+
+    /**
+     * 淘汰到容量的HYSTERESIS_FACTOR以下.先按LRU顺序淘汰已经过期的条目,不够时再从最旧的条目开始淘汰.
+     * 只遍历内存中的数组,不需要读取缓存文件.
+     */
+    private void pruneIfNeeded(int neededSpace) {
+        if (mTotalSize + neededSpace < mMaxCacheSizeInBytes) {
+            return;
+        }
+        if (mStats != null) {
+            mStats.recordPrune();
+        }
+        long target = (long) (mMaxCacheSizeInBytes * HYSTERESIS_FACTOR);
+        long now = System.currentTimeMillis();
+        int slot = mHead;
+        while (slot != NIL && mTotalSize + neededSpace >= target) {
+            int next = mNext[slot];
+            if (mTtls[slot] < now) {
+                evict(slot);
+            }
+            slot = next;
+        }
+        while (mHead != NIL && mTotalSize + neededSpace >= target) {
+            evict(mHead);
+        }
+    }
+
+    private void evict(int slot) {
+        if (mStats != null) {
+            mStats.recordEviction(mSizes[slot]);
+        }
+        String filename = toHex(mDigestHigh[slot], mDigestLow[slot]);
+        if (!mInitialized) {
+            mRemovedDuringInit.add(filename);
+        }
+        DiskBasedCache.getCacheFile(mRootDirectory, filename).delete();
+        removeSlot(mDigestHigh[slot], mDigestLow[slot]);
+    }
+
+    /** 新增或者更新一个条目,并移到LRU链表的末尾. */
+    private void putSlot(long high, long low, int size, long ttl, long softTtl) {
+        int slot = find(high, low);
+        if (slot == NIL) {
+            slot = allocateSlot();
+            mDigestHigh[slot] = high;
+            mDigestLow[slot] = low;
+            mSizes[slot] = 0;
+            insertIntoTable(slot);
+            linkLast(slot);
+            mCount ++;
+        } else {
+            moveToTail(slot);
+        }
+        mTotalSize += size - mSizes[slot];
+        mSizes[slot] = size;
+        mTtls[slot] = ttl;
+        mSoftTtls[slot] = softTtl;
+    }
+
+    /** 加入一个索引中还没有的条目,放在LRU链表的头部. */
+    private void addSlotFirst(long high, long low, int size, long ttl, long softTtl) {
+        int slot = allocateSlot();
+        mDigestHigh[slot] = high;
+        mDigestLow[slot] = low;
+        mSizes[slot] = size;
+        mTtls[slot] = ttl;
+        mSoftTtls[slot] = softTtl;
+        insertIntoTable(slot);
+        linkFirst(slot);
+        mCount ++;
+        mTotalSize += size;
+    }
+
+    private void removeSlot(long high, long low) {
+        int index = indexOf(high, low);
+        if (mTable[index] == 0) {
+            return;
+        }
+        int slot = mTable[index] - 1;
+        deleteFromTable(index);
+        unlink(slot);
+        mTotalSize -= mSizes[slot];
+        mCount --;
+        mNext[slot] = mFreeHead;
+        mFreeHead = slot;
+    }
+
+    private int allocateSlot() {
+        if (mFreeHead != NIL) {
+            int slot = mFreeHead;
+            mFreeHead = mNext[slot];
+            return slot;
+        }
+        if (mAllocated == mDigestHigh.length) {
+            int capacity = mAllocated * 2;
+            mDigestHigh = Arrays.copyOf(mDigestHigh, capacity);
+            mDigestLow = Arrays.copyOf(mDigestLow, capacity);
+            mSizes = Arrays.copyOf(mSizes, capacity);
+            mTtls = Arrays.copyOf(mTtls, capacity);
+            mSoftTtls = Arrays.copyOf(mSoftTtls, capacity);
+            mPrev = Arrays.copyOf(mPrev, capacity);
+            mNext = Arrays.copyOf(mNext, capacity);
+            rehash(capacity * 2);
+        }
+        return mAllocated ++;
+    }
+
+    private void linkLast(int slot) {
+        mPrev[slot] = mTail;
+        mNext[slot] = NIL;
+        if (mTail == NIL) {
+            mHead = slot;
+        } else {
+            mNext[mTail] = slot;
+        }
+        mTail = slot;
+    }
+
+    private void linkFirst(int slot) {
+        mPrev[slot] = NIL;
+        mNext[slot] = mHead;
+        if (mHead == NIL) {
+            mTail = slot;
+        } else {
+            mPrev[mHead] = slot;
+        }
+        mHead = slot;
+    }
+
+    private void unlink(int slot) {
+        int prev = mPrev[slot];
+        int next = mNext[slot];
+        if (prev == NIL) {
+            mHead = next;
+        } else {
+            mNext[prev] = next;
+        }
+        if (next == NIL) {
+            mTail = prev;
+        } else {
+            mPrev[next] = prev;
+        }
+    }
+
+    private void moveToTail(int slot) {
+        if (slot != mTail) {
+            unlink(slot);
+            linkLast(slot);
+        }
+    }
+
+    private int find(long high, long low) {
+        int value = mTable[indexOf(high, low)];
+        return value == 0 ? NIL : value - 1;
+    }
+
+    /** 返回摘要所在的位置,不存在时返回应该插入的空位.MD5的低位已经足够分散,直接作为hash. */
+    private int indexOf(long high, long low) {
+        int mask = mTable.length - 1;
+        int index = (int) low & mask;
+        while (true) {
+            int value = mTable[index];
+            if (value == 0 || (mDigestLow[value - 1] == low && mDigestHigh[value - 1] == high)) {
+                return index;
+            }
+            index = (index + 1) & mask;
+        }
+    }
+
+    private void insertIntoTable(int slot) {
+        mTable[indexOf(mDigestHigh[slot], mDigestLow[slot])] = slot + 1;
+    }
+
+    /** 线性探测表的删除:把后面探测链上的元素前移填补空位,不需要墓碑标记. */
+    private void deleteFromTable(int index) {
+        int mask = mTable.length - 1;
+        int hole = index;
+        int i = index;
+        while (true) {
+            i = (i + 1) & mask;
+            int value = mTable[i];
+            if (value == 0) {
+                break;
+            }
+            int home = (int) mDigestLow[value - 1] & mask;
+            // home不在(hole, i]之间时,该元素可以移到hole.
+            if (((i - home) & mask) >= ((i - hole) & mask)) {
+                mTable[hole] = value;
+                hole = i;
+            }
+        }
+        mTable[hole] = 0;
+    }
+
+    private void rehash(int tableSize) {
+        int[] old = mTable;
+        mTable = new int[tableSize];
+        for (int value : old) {
+            if (value != 0) {
+                insertIntoTable(value - 1);
+            }
+        }
+    }
+
+    private static boolean isDigest(String filename) {
+        if (filename.length() != 32) {
+            return false;
+        }
+        for (int i = 0; i < filename.length(); i ++) {
+            if (Character.digit(filename.charAt(i), 16) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** 解析文件名中从offset开始的16个十六进制字符. */
+    private static long parseHex(String hex, int offset) {
+        long result = 0;
+        for (int i = offset; i < offset + 16; i ++) {
+            result = (result << 4) | Character.digit(hex.charAt(i), 16);
+        }
+        return result;
+    }
+
+    private static String toHex(long high, long low) {
+        char[] chars = new char[32];
+        for (int i = 15; i >= 0; i --) {
+            chars[i] = Character.forDigit((int) (high & 0xf), 16);
+            chars[i + 16] = Character.forDigit((int) (low & 0xf), 16);
+            high >>>= 4;
+            low >>>= 4;
+        }
+        return new String(chars);
+    }
+
+    private static void closeQuietly(InputStream is) {
+        if (is != null) {
+            try {
+                is.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+}
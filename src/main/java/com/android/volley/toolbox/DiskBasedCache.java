@@ -4,9 +4,12 @@ import android.support.annotation.NonNull;
 import android.util.Log;
 
 import com.android.volley.Cache;
+import com.android.volley.CacheStats;
+import com.android.volley.Headers;
 
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
@@ -15,11 +18,29 @@ import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.lang.ref.WeakReference;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
-import java.util.Iterator;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
 
 /** 基于Disk的缓存实现类. */
 @SuppressWarnings("ResultOfMethodCallIgnored")
@@ -27,20 +48,105 @@ public class DiskBasedCache implements Cache {
     /** 默认硬盘最大的缓存空间(5M). */
     private static final int DEFAULT_DISK_USAGE_BYTES = 5 * 1024 * 1024;
 
-    /** 标记缓存起始的MAGIC_NUMBER. */
+    /** 标记缓存起始的MAGIC_NUMBER(v1格式).新文件使用{@link CacheHeaderCodec#MAGIC_V2},v1文件仍然可以读取. */
     private static final int CACHE_MAGIC = 0x20150306;
 
+    /** 响应体经过Deflater压缩的v1缓存文件使用的MAGIC_NUMBER,其后紧跟压缩前的大小. */
+    private static final int CACHE_MAGIC_DEFLATED = 0x20161010;
+
+    /** 压缩后的大小超过原始大小的该比例时不值得压缩,直接保存原始数据. */
+    private static final float MAX_COMPRESSED_RATIO = 0.9f;
+
+    /** 压缩和解压时从缓冲池中借用的分块大小. */
+    private static final int COMPRESSION_CHUNK_BYTES = 16 * 1024;
+
+    /** 写入过程中的临时文件的后缀,写完之后重命名为正式的文件名. */
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    /** 去重存储的响应体(blob)所在的子目录,blob文件按SHA-1摘要命名. */
+    static final String BLOB_DIRECTORY = "blobs";
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
     /**
      * High water mark percentage for the cache.
      */
     private static final float HYSTERESIS_FACTOR = 0.9f;
 
+    /**
+     * 超出容量时put只通知后台线程淘汰;超出容量的该比例时才在put中同步淘汰,限制后台来不及淘汰时的磁盘占用.
+     */
+    private static final float MAX_OVERSHOOT_FACTOR = 1.2f;
+
+    /** 后台清理过期条目的间隔. */
+    private static final long SWEEP_INTERVAL_MS = 60 * 1000;
+
+    /** 后台淘汰时每次持有锁删除的最大条目数,批次之间释放锁,put不会被大量删除阻塞. */
+    private static final int SWEEP_BATCH_SIZE = 32;
+
+    /** 按过期时间排列的CacheHeader,过期时间相同时按key排列. */
+    private static final Comparator<CacheHeader> TTL_ORDER = new Comparator<CacheHeader>() {
+        @Override
+        public int compare(CacheHeader lhs, CacheHeader rhs) {
+            if (lhs.ttl != rhs.ttl) {
+                return lhs.ttl < rhs.ttl ? -1 : 1;
+            }
+            return lhs.key.compareTo(rhs.key);
+        }
+    };
+
+    /** 所有DiskBasedCache共享的后台清理线程. */
+    private static ScheduledThreadPoolExecutor sSweeper;
+
     /**
      * Map of the Key, CacheHeaders pairs.
      */
     private final Map<String, CacheHeader> mEntries =
             new LinkedHashMap<String, CacheHeader>(16, 0.75f, true);
 
+    /**
+     * mEntries中没有ETag和Last-Modified的CacheHeader,按过期时间排序.这些条目过期之后不能再被使用,
+     * 后台清理会删除它们.
+     */
+    private final TreeSet<CacheHeader> mExpiry = new TreeSet<CacheHeader>(TTL_ORDER);
+
+    /**
+     * 有ETag或者Last-Modified的CacheHeader,按过期时间排序.过期之后仍然可以通过条件请求(304)继续使用,
+     * 后台清理不删除它们,只在需要空间时优先淘汰.
+     */
+    private final TreeSet<CacheHeader> mRevalidatableExpiry = new TreeSet<CacheHeader>(TTL_ORDER);
+
+    /** 是否已经提交了后台淘汰任务. */
+    private boolean mTrimScheduled = false;
+
+    /** 是否已经启动了定期清理.RequestQueue每次start()都会再次initialize(),定期清理只启动一次. */
+    private boolean mSweepStarted = false;
+
+    /** 压缩响应体的最小字节数,小于0表示不压缩. */
+    private int mCompressMinBytes = -1;
+
+    /** 需要压缩的Content-Type前缀(小写),为空表示不限制类型. */
+    private String[] mCompressContentTypes = new String[0];
+
+    /** 去重存储响应体的最小字节数,小于0表示不去重. */
+    private int mDedupMinBytes = -1;
+
+    /** 记录淘汰次数和字节数,为null时不记录. */
+    private CacheStats mStats;
+
+    /** 去重存储的响应体,key是内容的SHA-1摘要. */
+    private final HashMap<String, Blob> mBlobs = new HashMap<String, Blob>();
+
+    /** put和get都持有锁,压缩和解压对象可以复用. */
+    private final Deflater mDeflater = new Deflater(Deflater.BEST_SPEED);
+    private final Inflater mInflater = new Inflater();
+
+    /** 压缩和流式写入时复用的缓冲区池的大小. */
+    private static final int BUFFER_POOL_SIZE_BYTES = 4 * COMPRESSION_CHUNK_BYTES;
+
+    /** 压缩和流式写入时借用分块的缓冲区池. */
+    private final ByteArrayPool mBufferPool = new ByteArrayPool(BUFFER_POOL_SIZE_BYTES);
+
     /** 目前使用的缓存字节数. */
     private long mTotalSize = 0;
 
@@ -50,13 +156,80 @@ public class DiskBasedCache implements Cache {
     /** 硬盘缓存最大容量(默认5M). */
     private final int mMaxCacheSizeInBytes;
 
+    /** 索引日志,用于启动时快速恢复mEntries. */
+    private final CacheJournal mJournal;
+
+    /** 淘汰策略,默认LRU. */
+    private final EvictionPolicy mEvictionPolicy;
+
+    /** initialize()是否已经完成.完成之前mEntries中没有的key需要直接探测缓存文件. */
+    private volatile boolean mInitialized = false;
+
+    /**
+     * initialize()是否已经开始.RequestQueue每次start()都会在新线程中再次调用initialize(),
+     * 只有第一次调用加载索引,之后的调用直接返回.
+     */
+    private boolean mInitializeStarted = false;
+
+    /** 初始化期间缓存是否被修改过,修改过时初始化结束后需要重写日志. */
+    private boolean mModifiedDuringInit = false;
+
+    /** 初始化期间被删除的key,合并加载结果时需要跳过. */
+    private final Set<String> mRemovedDuringInit = new HashSet<String>();
+
+    /** 初始化期间缓存是否被清空过,清空过时丢弃全部加载结果. */
+    private boolean mClearedDuringInit = false;
+
     public DiskBasedCache(File rootDirectory) {
         this(rootDirectory, DEFAULT_DISK_USAGE_BYTES);
     }
 
     public DiskBasedCache(File rootDirectory, int maxCacheSizeInBytes) {
+        this(rootDirectory, maxCacheSizeInBytes, new LruEvictionPolicy());
+    }
+
+    /**
+     * @param evictionPolicy 淘汰策略,例如{@link WTinyLfuEvictionPolicy}.策略中的访问频率等状态只保存在内存中,
+     *                       启动时按索引中的LRU顺序重新加入全部条目.
+     */
+    public DiskBasedCache(File rootDirectory, int maxCacheSizeInBytes,
+                          EvictionPolicy evictionPolicy) {
         mRootDirectory = rootDirectory;
         mMaxCacheSizeInBytes = maxCacheSizeInBytes;
+        mJournal = new CacheJournal(rootDirectory);
+        mEvictionPolicy = evictionPolicy;
+    }
+
+    /**
+     * 打开响应体压缩.大小不小于minBytes,并且Content-Type以contentTypes之一开头的响应体使用Deflater压缩后保存,
+     * 例如setCompression(1024, "application/json", "text/").容量按压缩后的大小计算.
+     * 已经保存的条目不受影响,两种格式的缓存文件都可以读取.
+     *
+     * @param minBytes 小于0时关闭压缩.
+     * @param contentTypes 为空时压缩所有类型.
+     */
+    public synchronized void setCompression(int minBytes, String... contentTypes) {
+        mCompressMinBytes = minBytes;
+        mCompressContentTypes = new String[contentTypes.length];
+        for (int i = 0; i < contentTypes.length; i ++) {
+            mCompressContentTypes[i] = contentTypes[i].toLowerCase(Locale.US);
+        }
+    }
+
+    /**
+     * 打开响应体去重.大小不小于minBytes的响应体按内容(压缩之后的字节)的SHA-1摘要保存在blob文件中,
+     * 缓存文件只保存头部和摘要;内容相同的多个key共享同一个blob,容量只计算一次,最后一个引用被删除时才删除blob.
+     * 适合同一张图片或者同一份JSON对应多个url的场景.已经保存的条目不受影响.
+     *
+     * @param minBytes 小于0时关闭去重.
+     */
+    public synchronized void setDeduplication(int minBytes) {
+        mDedupMinBytes = minBytes;
+    }
+
+    /** 把淘汰次数和淘汰的字节数记录到stats中,例如RequestQueue.getCacheStats()的返回值. */
+    public synchronized void setStats(CacheStats stats) {
+        mStats = stats;
     }
 
     /** 清空缓存内容. */
@@ -65,37 +238,195 @@ public class DiskBasedCache implements Cache {
         File[] files = mRootDirectory.listFiles();
         if (files != null) {
             for (File file : files) {
-                file.delete();
+                deleteRecursively(file);
             }
         }
         mEntries.clear();
+        mExpiry.clear();
+        mRevalidatableExpiry.clear();
+        mEvictionPolicy.clear();
+        mBlobs.clear();
         mTotalSize = 0;
+        if (!mInitialized) {
+            mClearedDuringInit = true;
+        }
+        mJournal.rebuild(mEntries.values());
     }
 
     /** 从Disk中根据key获取并构造HTTP响应体Cache.Entry. */
     @Override
     public synchronized Entry get(String key) {
-        CacheHeader entry = mEntries.get(key);
+        CacheHeader entry = getHeader(key);
         if (entry == null) {
             return null;
         }
 
-        File file = getFileForKey(key);
-        CountingInputStream cis = null;
+        File file = entry.blob != null ? getBlobFile(entry.blob) : getFileForKey(key);
         try {
-            cis = new CountingInputStream(new BufferedInputStream(new FileInputStream(file)));
-            // 读完CacheHeader部分,并通过CountingInputStream的bytesRead成员记录已经读取的字节数.
-            CacheHeader.readHeader(cis);
-            // 读取缓存文件存储的HTTP响应体内容.
-            byte[] data = streamToBytes(cis, (int)(file.length() - cis.bytesRead));
-            return entry.toCacheEntry(data);
+            Entry result = entry.toCacheEntry(readData(file, entry));
+            mEvictionPolicy.onAccess(key);
+            mJournal.appendAccess(key);
+            return result;
         } catch (IOException e) {
             remove(key);
             return null;
+        }
+    }
+
+    /** 读取缓存文件并返回其中的响应体.压缩的响应体直接解压到结果数组. */
+    private byte[] readData(File file, CacheHeader header) throws IOException {
+        CountingInputStream cis =
+                new CountingInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            // blob文件中只有响应体.
+            if (header.blob == null && !header.key.equals(CacheHeader.readHeader(cis).key)) {
+                throw new IOException("Cache file belongs to another key");
+            }
+            if (header.compressed) {
+                if (header.uncompressedSize > Integer.MAX_VALUE) {
+                    throw new IOException("Cache entry too large: " + header.uncompressedSize);
+                }
+                mInflater.reset();
+                return streamToBytes(new InflaterInputStream(cis, mInflater,
+                        COMPRESSION_CHUNK_BYTES), (int) header.uncompressedSize);
+            }
+            return streamToBytes(cis, (int) (file.length() - cis.bytesRead));
+        } finally {
+            cis.close();
+        }
+    }
+
+    /** 是否需要压缩该条目的响应体. */
+    private boolean shouldCompress(Entry entry) {
+        if (mCompressMinBytes < 0 || entry.data.length < mCompressMinBytes) {
+            return false;
+        }
+        if (mCompressContentTypes.length == 0) {
+            return true;
+        }
+        String contentType = entry.responseHeaders == null
+                ? null : entry.responseHeaders.get("Content-Type");
+        if (contentType == null) {
+            return false;
+        }
+        contentType = contentType.toLowerCase(Locale.US);
+        for (String prefix : mCompressContentTypes) {
+            if (contentType.startsWith(prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** 压缩响应体,压缩效果不明显时返回null.返回的输出流使用缓冲池,用完之后需要close. */
+    private PoolingByteArrayOutputStream deflate(byte[] data) throws IOException {
+        PoolingByteArrayOutputStream out = new PoolingByteArrayOutputStream(mBufferPool,
+                Math.min(data.length / 2, COMPRESSION_CHUNK_BYTES));
+        byte[] chunk = mBufferPool.getBuf(COMPRESSION_CHUNK_BYTES);
+        mDeflater.reset();
+        mDeflater.setInput(data);
+        mDeflater.finish();
+        try {
+            while (!mDeflater.finished()) {
+                int n = mDeflater.deflate(chunk);
+                out.write(chunk, 0, n);
+                if (out.size() > data.length * MAX_COMPRESSED_RATIO) {
+                    out.close();
+                    return null;
+                }
+            }
+            return out;
+        } finally {
+            mBufferPool.returnBuf(chunk);
+        }
+    }
+
+    /**
+     * 打开缓存文件,返回直接从文件中读取响应体的StreamEntry,响应体不会被读入Java堆.
+     * 只在持有锁期间读取头部,之后的读取不持有锁.
+     */
+    @Override
+    public synchronized StreamEntry getStream(String key) {
+        CacheHeader entry = getHeader(key);
+        if (entry == null) {
+            return null;
+        }
+        File file = entry.blob != null ? getBlobFile(entry.blob) : getFileForKey(key);
+        FileInputStream fis = null;
+        try {
+            fis = new FileInputStream(file);
+            long offset = 0;
+            if (entry.blob == null) {
+                // FileStreamEntry按绝对位置读取,这里移动文件位置没有影响.
+                CountingInputStream cis = new CountingInputStream(new BufferedInputStream(fis));
+                if (!key.equals(CacheHeader.readHeader(cis).key)) {
+                    throw new IOException("Cache file belongs to another key");
+                }
+                offset = cis.bytesRead;
+            }
+            StreamEntry result = new FileStreamEntry(entry, fis, offset);
+            mEvictionPolicy.onAccess(key);
+            mJournal.appendAccess(key);
+            return result;
+        } catch (IOException e) {
+            if (fis != null) {
+                try {
+                    fis.close();
+                } catch (IOException ignored) {
+                }
+            }
+            remove(key);
+            return null;
+        }
+    }
+
+    /** 内存中的CacheHeader已经包含了全部元数据,不需要访问缓存文件. */
+    @Override
+    public synchronized Entry peek(String key) {
+        CacheHeader entry = getHeader(key);
+        if (entry == null) {
+            return null;
+        }
+        return entry.toCacheEntry(null);
+    }
+
+    /**
+     * 返回key对应的CacheHeader.
+     * 初始化完成之前mEntries可能还没有这个key,此时根据文件名直接探测缓存文件,只读取头部.
+     * 不通知淘汰策略:peek,updateMetadata和invalidate不算一次使用,只有get/getStream读出响应体时才算.
+     */
+    private CacheHeader getHeader(String key) {
+        CacheHeader entry = mEntries.get(key);
+        if (entry != null) {
+            return entry;
+        }
+        if (mInitialized || mRemovedDuringInit.contains(key)) {
+            return null;
+        }
+        File file = getFileForKey(key);
+        if (!file.exists()) {
+            return null;
+        }
+        BufferedInputStream fis = null;
+        try {
+            fis = new BufferedInputStream(new FileInputStream(file));
+            entry = CacheHeader.readHeader(fis);
+            // 不同的key可能hash到同一个文件名.
+            if (!key.equals(entry.key)) {
+                return null;
+            }
+            entry.size = sizeOnDisk(file, entry);
+            mEntries.put(key, entry);
+            addExpiry(entry);
+            mEvictionPolicy.onAdd(key, entry.size);
+            charge(entry);
+            return entry;
+        } catch (IOException e) {
+            return null;
         } finally {
-            if (cis != null) {
+            if (fis != null) {
                 try {
-                    cis.close();
+                    fis.close();
                 } catch (IOException ignored) {
                 }
             }
@@ -103,28 +434,156 @@ public class DiskBasedCache implements Cache {
     }
 
     /** 初始化Disk缓存系统.
-     * 作用是：遍历Disk缓存系统,将缓存文件中的CacheHeader和key存储到Map对象中. */
+     * 优先顺序读取索引日志恢复mEntries;日志不存在或者损坏时,遍历Disk缓存系统,
+     * 将缓存文件中的CacheHeader和key存储到Map对象中,然后重建日志.
+     * 读取日志和扫描目录都不持有锁,初始化期间get/peek/put等操作可以正常进行,
+     * 还没有加载的key直接探测缓存文件.加载完成后再在锁内把结果合并到mEntries.
+     * 重复调用时直接返回. */
     @Override
     public void initialize() {
+        synchronized (this) {
+            if (mInitializeStarted) {
+                return;
+            }
+            mInitializeStarted = true;
+        }
         if (!mRootDirectory.exists() && !mRootDirectory.mkdirs()) {
+            mInitialized = true;
             return;
         }
 
+        migrateLegacyFiles();
+        LinkedHashMap<String, CacheHeader> loaded = mJournal.read();
+        boolean fromJournal = loaded != null;
+        List<File> unreadable = new ArrayList<File>();
+        if (!fromJournal) {
+            loaded = scanDirectory(unreadable);
+        }
+
+        synchronized (this) {
+            mergeLoadedEntries(loaded);
+            Set<String> indexed = getIndexedFilenames();
+            for (File file : unreadable) {
+                // 扫描时可能正好遇到put写了一半的文件,只删除确实没有被索引的文件.
+                if (!indexed.contains(file.getName())) {
+                    file.delete();
+                }
+            }
+            if (fromJournal) {
+                deleteUnindexedFiles(indexed);
+            }
+            deleteUnreferencedBlobs();
+            if (!fromJournal || mModifiedDuringInit
+                    || mJournal.needsCompaction(mEntries.size())) {
+                mJournal.rebuild(mEntries.values());
+            } else {
+                mJournal.open();
+            }
+            mInitialized = true;
+            mRemovedDuringInit.clear();
+            if (!mSweepStarted) {
+                mSweepStarted = true;
+                sweeper().execute(new Sweeper(this));
+            }
+        }
+    }
+
+    /**
+     * 旧版本的缓存文件直接放在缓存目录中,文件名由key两半的hashCode拼接而成,不同的key可能冲突.
+     * 缓存文件的格式没有变化,读出其中的key之后重命名到新的位置即可;读不出key的文件直接删除.
+     * 只在第一次使用新版本时有这样的文件,之后缓存目录中只有日志和子目录.
+     */
+    private void migrateLegacyFiles() {
         File[] files = mRootDirectory.listFiles();
         if (files == null) {
             return;
         }
-
         for (File file : files) {
+            if (CacheJournal.isJournalFile(file.getName()) || !file.isFile()) {
+                continue;
+            }
+            String key = null;
+            BufferedInputStream fis = null;
+            try {
+                fis = new BufferedInputStream(new FileInputStream(file));
+                key = CacheHeader.readHeader(fis).key;
+            } catch (IOException ignored) {
+            } finally {
+                if (fis != null) {
+                    try {
+                        fis.close();
+                    } catch (IOException ignored) {
+                    }
+                }
+            }
+            synchronized (this) {
+                // 初始化期间已经写入或者删除的key以新位置的状态为准.
+                if (key == null || mClearedDuringInit || mRemovedDuringInit.contains(key)
+                        || mEntries.containsKey(key)) {
+                    file.delete();
+                    continue;
+                }
+                File target = getFileForKey(key);
+                target.getParentFile().mkdirs();
+                if (target.exists() || !file.renameTo(target)) {
+                    file.delete();
+                }
+            }
+        }
+    }
+
+    /** 返回两级子目录中的全部缓存文件. */
+    static List<File> listCacheFiles(File rootDirectory) {
+        List<File> result = new ArrayList<File>();
+        File[] first = rootDirectory.listFiles();
+        if (first == null) {
+            return result;
+        }
+        for (File dir : first) {
+            // 只有一个字符的子目录,跳过blob目录.
+            if (dir.getName().length() != 1) {
+                continue;
+            }
+            File[] second = dir.listFiles();
+            if (second == null) {
+                continue;
+            }
+            for (File subdir : second) {
+                File[] files = subdir.listFiles();
+                if (files != null) {
+                    Collections.addAll(result, files);
+                }
+            }
+        }
+        return result;
+    }
+
+    static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+
+    /** 解析缓存目录中每个文件的头部.解析失败的文件加入unreadable,由调用方决定是否删除. */
+    private LinkedHashMap<String, CacheHeader> scanDirectory(List<File> unreadable) {
+        LinkedHashMap<String, CacheHeader> loaded = new LinkedHashMap<String, CacheHeader>();
+        for (File file : listCacheFiles(mRootDirectory)) {
+            if (file.getName().endsWith(TEMP_SUFFIX)) {
+                unreadable.add(file);
+                continue;
+            }
             BufferedInputStream fis = null;
             try {
                 fis = new BufferedInputStream(new FileInputStream(file));
                 CacheHeader entry = CacheHeader.readHeader(fis);
-                entry.size = file.length();
-                putEntry(entry.key, entry);
+                entry.size = sizeOnDisk(file, entry);
+                loaded.put(entry.key, entry);
             }catch (IOException e) {
-                file.delete();
-                e.printStackTrace();
+                unreadable.add(file);
             }finally {
                 if (fis != null) {
                     try {
@@ -134,95 +593,593 @@ public class DiskBasedCache implements Cache {
                 }
             }
         }
+        return loaded;
+    }
+
+    /**
+     * 将加载结果合并到mEntries.初始化期间写入或者探测到的条目比加载结果新,保留它们并放在LRU顺序的末尾;
+     * 初始化期间被删除的key不再加入.
+     */
+    private void mergeLoadedEntries(LinkedHashMap<String, CacheHeader> loaded) {
+        LinkedHashMap<String, CacheHeader> merged =
+                new LinkedHashMap<String, CacheHeader>(loaded.size() + mEntries.size());
+        if (!mClearedDuringInit) {
+            for (CacheHeader entry : loaded.values()) {
+                if (!mEntries.containsKey(entry.key)
+                        && !mRemovedDuringInit.contains(entry.key)) {
+                    merged.put(entry.key, entry);
+                }
+            }
+        }
+        merged.putAll(mEntries);
+        mEntries.clear();
+        mExpiry.clear();
+        mRevalidatableExpiry.clear();
+        mEvictionPolicy.clear();
+        mBlobs.clear();
+        mTotalSize = 0;
+        for (CacheHeader entry : merged.values()) {
+            mEntries.put(entry.key, entry);
+            addExpiry(entry);
+            mEvictionPolicy.onAdd(entry.key, entry.size);
+            charge(entry);
+        }
+    }
+
+    /** 条目占用的字节数.响应体在blob中时是blob文件的大小. */
+    private long sizeOnDisk(File file, CacheHeader entry) throws IOException {
+        if (entry.blob == null) {
+            return file.length();
+        }
+        File blob = getBlobFile(entry.blob);
+        if (!blob.exists()) {
+            throw new IOException("Missing blob " + entry.blob);
+        }
+        return blob.length();
+    }
+
+    /** 删除没有被任何条目引用的blob文件,例如进程在写完blob之后,写缓存文件之前被杀掉时留下的文件. */
+    private void deleteUnreferencedBlobs() {
+        File[] dirs = new File(mRootDirectory, BLOB_DIRECTORY).listFiles();
+        if (dirs == null) {
+            return;
+        }
+        for (File dir : dirs) {
+            File[] files = dir.listFiles();
+            if (files == null) {
+                continue;
+            }
+            for (File file : files) {
+                if (!mBlobs.containsKey(file.getName())) {
+                    file.delete();
+                }
+            }
+        }
+    }
+
+    /** 返回mEntries中全部key对应的缓存文件名. */
+    private Set<String> getIndexedFilenames() {
+        Set<String> indexed = new HashSet<String>(mEntries.size() * 2);
+        for (String key : mEntries.keySet()) {
+            indexed.add(getFilenameForKey(key));
+        }
+        return indexed;
+    }
+
+    /**
+     * 删除日志中没有记录的缓存文件.
+     * 缓存文件先于日志记录写入,进程在两者之间被杀掉时会留下这样的文件.只比较文件名,不需要打开文件.
+     */
+    private void deleteUnindexedFiles(Set<String> indexed) {
+        for (File file : listCacheFiles(mRootDirectory)) {
+            if (!indexed.contains(file.getName())) {
+                file.delete();
+            }
+        }
+    }
+
+    /**
+     * 日志中的冗余记录过多时按当前LRU顺序重写日志.
+     * get/getStream不调用,访问记录产生的冗余由写操作和后台清理压缩.
+     */
+    private void compactJournalIfNeeded() {
+        if (mJournal.needsCompaction(mEntries.size())) {
+            mJournal.rebuild(mEntries.values());
+        }
     }
 
     /** 标记指定的cache过期. */
     @Override
     public synchronized void invalidate(String key, boolean fullExpire) {
-        Entry entry = get(key);
+        Entry entry = peek(key);
         if (entry != null) {
             entry.softTtl = 0;
             if (fullExpire) {
                 entry.ttl = 0;
             }
-            put(key, entry);
+            updateMetadata(key, entry);
         }
     }
 
     /** 将Cache.Entry存入到指定的缓存文件中. 并在Map中记录<key,CacheHeader>. */
     @Override
     public synchronized void put(String key, Entry entry) {
-        pruneIfNeeded(entry.data.length);
+        PoolingByteArrayOutputStream compressed = null;
+        if (shouldCompress(entry)) {
+            try {
+                compressed = deflate(entry.data);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        int storedLength = compressed != null ? compressed.size() : entry.data.length;
+        String blob = null;
+        if (mDedupMinBytes >= 0 && entry.data.length >= mDedupMinBytes) {
+            blob = digestOf(compressed, entry.data);
+        }
+        // 已经保存过相同内容的blob时不需要新的空间.
+        int neededSpace = blob != null && mBlobs.containsKey(blob) ? 0 : storedLength;
+        makeRoom(neededSpace);
         File file = getFileForKey(key);
+        // 子目录按需创建;initialize()在后台执行,第一次put时缓存目录本身也可能还没有创建.
+        File parent = file.getParentFile();
+        if (!parent.exists()) {
+            parent.mkdirs();
+        }
+        File temp = new File(file.getPath() + TEMP_SUFFIX);
         try {
-            BufferedOutputStream fos = new BufferedOutputStream(new FileOutputStream(file));
             CacheHeader e = new CacheHeader(key, entry);
+            if (compressed != null) {
+                e.compressed = true;
+                e.uncompressedSize = entry.data.length;
+                e.size = compressed.size();
+            }
+            if (blob != null) {
+                writeBlob(blob, compressed, entry.data);
+                e.blob = blob;
+            }
+            // 先写临时文件再重命名,getStream()已经打开的旧文件不受影响.
+            BufferedOutputStream fos = new BufferedOutputStream(new FileOutputStream(temp));
             boolean success = e.writeHeader(fos);
             if (!success) {
                 fos.close();
                 throw new IOException();
             }
-            fos.write(entry.data);
+            // 去重存储时响应体已经写入blob.
+            if (blob == null) {
+                if (compressed != null) {
+                    compressed.writeTo(fos);
+                } else {
+                    fos.write(entry.data);
+                }
+            }
             fos.close();
+            if (!temp.renameTo(file)) {
+                throw new IOException("rename failed: " + temp);
+            }
             putEntry(key, e);
             return;
         } catch (IOException e) {
             e.printStackTrace();
+        } finally {
+            if (compressed != null) {
+                try {
+                    compressed.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+        temp.delete();
+    }
+
+    /**
+     * 把body直接拷贝到缓存文件,不读入Java堆.缓存文件在锁外写入,写完之后才在锁内淘汰并替换旧文件,
+     * 写入大响应体期间其它key的读写不受影响.流式写入的响应体不压缩也不去重.
+     */
+    @Override
+    public void putStream(String key, Entry entry, InputStream body, long bodyLength) {
+        // 比整个缓存还大的响应体写入之后也会立即被淘汰.
+        if (bodyLength > mMaxCacheSizeInBytes) {
+            return;
+        }
+        File file = getFileForKey(key);
+        CacheHeader e = new CacheHeader(key, entry);
+        e.size = bodyLength;
+        File temp = null;
+        try {
+            temp = writeTempFile(file, e, body, bodyLength, mBufferPool);
+            synchronized (this) {
+                makeRoom((int) bodyLength);
+                if (!temp.renameTo(file)) {
+                    throw new IOException("rename failed: " + temp);
+                }
+                putEntry(key, e);
+            }
+        } catch (IOException ex) {
+            ex.printStackTrace();
+            if (temp != null) {
+                temp.delete();
+            }
         }
-        file.delete();
     }
 
-    /** Disk缓存替换更新机制. */
+    /**
+     * 在file所在的目录中创建一个唯一的临时文件,写入头部和body中的bodyLength个字节.
+     * 临时文件名以TEMP_SUFFIX结尾,进程中途被杀掉时由initialize()清理.
+     */
+    static File writeTempFile(File file, CacheHeader header, InputStream body, long bodyLength,
+                              ByteArrayPool pool) throws IOException {
+        File parent = file.getParentFile();
+        if (!parent.exists()) {
+            parent.mkdirs();
+        }
+        File temp = File.createTempFile(file.getName(), TEMP_SUFFIX, parent);
+        byte[] buf = pool.getBuf(COMPRESSION_CHUNK_BYTES);
+        OutputStream fos = new BufferedOutputStream(new FileOutputStream(temp));
+        try {
+            if (!header.writeHeader(fos)) {
+                throw new IOException("Failed to write cache header");
+            }
+            long remaining = bodyLength;
+            while (remaining > 0) {
+                int n = body.read(buf, 0, (int) Math.min(buf.length, remaining));
+                if (n == -1) {
+                    throw new EOFException("Expected " + bodyLength + " bytes, read "
+                            + (bodyLength - remaining) + " bytes");
+                }
+                fos.write(buf, 0, n);
+                remaining -= n;
+            }
+            fos.close();
+            return temp;
+        } catch (IOException e) {
+            try {
+                fos.close();
+            } catch (IOException ignored) {
+            }
+            temp.delete();
+            throw e;
+        } finally {
+            pool.returnBuf(buf);
+        }
+    }
+
+    /**
+     * 超出容量时为neededSpace字节腾出空间:超出不多时只通知后台线程淘汰,否则同步淘汰.
+     * 初始化完成之前后台不会淘汰,仍然同步淘汰.
+     */
+    private void makeRoom(int neededSpace) {
+        if (mTotalSize + neededSpace >= mMaxCacheSizeInBytes) {
+            if (!mInitialized
+                    || mTotalSize + neededSpace >= mMaxCacheSizeInBytes * MAX_OVERSHOOT_FACTOR) {
+                pruneIfNeeded(neededSpace);
+            } else {
+                scheduleTrim();
+            }
+        }
+    }
+
+    /**
+     * 只重写缓存文件的头部.
+     * 新头部与旧头部长度相同时直接原地覆盖;否则写一个新文件,响应体通过FileChannel.transferTo
+     * 从旧文件拷贝过去,不经过Java堆.
+     */
+    @Override
+    public synchronized void updateMetadata(String key, Entry entry) {
+        CacheHeader oldHeader = getHeader(key);
+        if (oldHeader == null) {
+            return;
+        }
+        File file = getFileForKey(key);
+        CacheHeader newHeader = new CacheHeader(key, entry);
+        newHeader.size = oldHeader.size;
+        newHeader.compressed = oldHeader.compressed;
+        newHeader.uncompressedSize = oldHeader.uncompressedSize;
+        newHeader.blob = oldHeader.blob;
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            if (!newHeader.writeHeader(bytes)) {
+                throw new IOException();
+            }
+            byte[] headerBytes = bytes.toByteArray();
+            long oldHeaderLength = readHeaderLength(file);
+            if (headerBytes.length == oldHeaderLength) {
+                RandomAccessFile raf = new RandomAccessFile(file, "rw");
+                try {
+                    raf.write(headerBytes);
+                } finally {
+                    raf.close();
+                }
+            } else {
+                rewriteWithHeader(file, headerBytes, oldHeaderLength);
+            }
+            putEntry(key, newHeader);
+        } catch (IOException e) {
+            e.printStackTrace();
+            remove(key);
+        }
+    }
+
+    /** 返回缓存文件中头部的字节数. */
+    static long readHeaderLength(File file) throws IOException {
+        CountingInputStream cis =
+                new CountingInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            CacheHeader.readHeader(cis);
+            return cis.bytesRead;
+        } finally {
+            cis.close();
+        }
+    }
+
+    /** 用新的头部加上旧文件中的响应体生成新文件,再替换旧文件. */
+    static void rewriteWithHeader(File file, byte[] headerBytes, long oldHeaderLength)
+            throws IOException {
+        File temp = new File(file.getPath() + TEMP_SUFFIX);
+        FileInputStream in = new FileInputStream(file);
+        FileOutputStream out = new FileOutputStream(temp);
+        try {
+            out.write(headerBytes);
+            FileChannel source = in.getChannel();
+            FileChannel target = out.getChannel();
+            long position = oldHeaderLength;
+            long end = source.size();
+            while (position < end) {
+                long count = source.transferTo(position, end - position, target);
+                if (count <= 0) {
+                    throw new IOException("Expected " + end + " bytes, copied " + position);
+                }
+                position += count;
+            }
+        } finally {
+            in.close();
+            out.close();
+        }
+        if (!temp.renameTo(file)) {
+            temp.delete();
+            throw new IOException("rename failed: " + temp);
+        }
+    }
+
+    /** Disk缓存替换更新机制.先淘汰已经过期的条目,再按淘汰策略选出的顺序删除,直到低于容量的HYSTERESIS_FACTOR. */
     private void pruneIfNeeded(int neededSpace) {
         if ((mTotalSize + neededSpace) < mMaxCacheSizeInBytes) {
             return;
         }
 
-        Iterator<Map.Entry<String, CacheHeader>> iterator = mEntries.entrySet().iterator();
-        while (iterator.hasNext()) {
-            Map.Entry<String, CacheHeader> entry = iterator.next();
-            CacheHeader e = entry.getValue();
-            boolean deleted = getFileForKey(e.key).delete();
-            if (deleted) {
-                mTotalSize -= e.size;
+        if (mStats != null) {
+            mStats.recordPrune();
+        }
+        long now = System.currentTimeMillis();
+        while ((mTotalSize + neededSpace) >= mMaxCacheSizeInBytes * HYSTERESIS_FACTOR) {
+            if (!evictOne(now, -1)) {
+                break;
             }
-            iterator.remove();
+        }
+        compactJournalIfNeeded();
+    }
 
-            if ((mTotalSize + neededSpace) < mMaxCacheSizeInBytes * HYSTERESIS_FACTOR) {
-                break;
+    /**
+     * 淘汰一个条目:优先淘汰最早过期并且不能再验证的条目;占用超过limit字节时,
+     * 过期但是可以通过条件请求继续使用的条目也优先淘汰,没有过期的条目时再按淘汰策略选择.
+     *
+     * @return 是否还可能继续淘汰.
+     */
+    private boolean evictOne(long now, long limit) {
+        CacheHeader expired = firstExpired(mExpiry, now);
+        if (mTotalSize > limit) {
+            CacheHeader revalidatable = firstExpired(mRevalidatableExpiry, now);
+            if (expired == null || (revalidatable != null && revalidatable.ttl < expired.ttl)) {
+                expired = revalidatable;
+            }
+        }
+        if (expired != null) {
+            mEvictionPolicy.onRemove(expired.key);
+            evict(expired);
+            return true;
+        }
+        if (mTotalSize <= limit) {
+            return false;
+        }
+        String key = mEvictionPolicy.nextVictim();
+        if (key == null) {
+            return false;
+        }
+        CacheHeader e = mEntries.get(key);
+        if (e != null) {
+            evict(e);
+        }
+        return true;
+    }
+
+    private static CacheHeader firstExpired(TreeSet<CacheHeader> expiry, long now) {
+        return !expiry.isEmpty() && expiry.first().ttl < now ? expiry.first() : null;
+    }
+
+    private void addExpiry(CacheHeader e) {
+        if (hasValidator(e)) {
+            mRevalidatableExpiry.add(e);
+        } else {
+            mExpiry.add(e);
+        }
+    }
+
+    private void removeExpiry(CacheHeader e) {
+        if (hasValidator(e)) {
+            mRevalidatableExpiry.remove(e);
+        } else {
+            mExpiry.remove(e);
+        }
+    }
+
+    private static boolean hasValidator(CacheHeader e) {
+        return e.etag != null || e.lastModified > 0;
+    }
+
+    /** 删除被淘汰的条目.调用方负责把它从淘汰策略中移除. */
+    private void evict(CacheHeader e) {
+        if (mStats != null) {
+            mStats.recordEviction(e.size);
+        }
+        getFileForKey(e.key).delete();
+        discharge(e);
+        mEntries.remove(e.key);
+        removeExpiry(e);
+        mJournal.appendRemove(e.key);
+        if (!mInitialized) {
+            mModifiedDuringInit = true;
+            mRemovedDuringInit.add(e.key);
+        }
+    }
+
+    /** put超出容量时提交一次后台淘汰. */
+    private void scheduleTrim() {
+        if (!mTrimScheduled) {
+            mTrimScheduled = true;
+            sweeper().execute(new Runnable() {
+                @Override
+                public void run() {
+                    sweep();
+                }
+            });
+        }
+    }
+
+    /**
+     * 后台清理:删除全部过期并且不能再验证的条目;超出容量时先淘汰其余过期的条目,
+     * 再按淘汰策略淘汰到容量的HYSTERESIS_FACTOR以下.每批最多删除SWEEP_BATCH_SIZE个条目,批次之间释放锁.
+     */
+    private void sweep() {
+        long now = System.currentTimeMillis();
+        long limit = -1;
+        while (true) {
+            synchronized (this) {
+                mTrimScheduled = false;
+                if (!mInitialized) {
+                    return;
+                }
+                if (limit < 0) {
+                    limit = mTotalSize >= mMaxCacheSizeInBytes
+                            ? (long) (mMaxCacheSizeInBytes * HYSTERESIS_FACTOR) : Long.MAX_VALUE;
+                    if (limit != Long.MAX_VALUE && mStats != null) {
+                        mStats.recordPrune();
+                    }
+                }
+                for (int i = 0; i < SWEEP_BATCH_SIZE; i ++) {
+                    if (!evictOne(now, limit)) {
+                        compactJournalIfNeeded();
+                        return;
+                    }
+                }
+                compactJournalIfNeeded();
+            }
+        }
+    }
+
+    private static synchronized ScheduledThreadPoolExecutor sweeper() {
+        if (sSweeper == null) {
+            sSweeper = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "VolleyCacheSweeper");
+                    thread.setDaemon(true);
+                    thread.setPriority(Thread.MIN_PRIORITY);
+                    return thread;
+                }
+            });
+        }
+        return sSweeper;
+    }
+
+    /**
+     * 定期清理过期条目的任务,每次执行完再提交下一次.
+     * 只持有缓存的弱引用,不再使用的缓存被回收之后任务自然结束.
+     */
+    private static class Sweeper implements Runnable {
+        private final WeakReference<DiskBasedCache> mCache;
+
+        Sweeper(DiskBasedCache cache) {
+            mCache = new WeakReference<DiskBasedCache>(cache);
+        }
+
+        @Override
+        public void run() {
+            DiskBasedCache cache = mCache.get();
+            if (cache == null) {
+                return;
             }
+            cache.sweep();
+            sweeper().schedule(this, SWEEP_INTERVAL_MS, TimeUnit.MILLISECONDS);
         }
     }
 
-    /** 获取存储当前key对应value的文件句柄. */
+    /**
+     * 获取存储当前key对应value的文件句柄.
+     * 文件按文件名的前两个十六进制字符分散到两级子目录(16x16)中,避免单个目录中的文件过多.
+     */
     private File getFileForKey(String key) {
-        return new File(mRootDirectory, getFilenameForKey(key));
+        return getCacheFile(mRootDirectory, getFilenameForKey(key));
     }
 
-    /** 根据key的hash值生成对应的存储文件名称. */
-    private String getFilenameForKey(String key) {
-        int firstHalfLength = key.length() / 2;
-        String localFilename = String.valueOf(key.substring(0, firstHalfLength).hashCode());
-        localFilename += String.valueOf(key.substring(firstHalfLength).hashCode());
-        return localFilename;
+    /** 返回缓存目录中指定文件名的缓存文件. */
+    static File getCacheFile(File rootDirectory, String filename) {
+        File dir = new File(new File(rootDirectory, filename.substring(0, 1)),
+                filename.substring(1, 2));
+        return new File(dir, filename);
     }
 
-    /** 将key和CacheHeader存入到Map对象中.并更新当前占用的总字节数. */
+    /** 使用key的MD5摘要(32个十六进制字符)作为存储文件名称,不同的key实际上不会冲突. */
+    static String getFilenameForKey(String key) {
+        byte[] digest;
+        try {
+            digest = MessageDigest.getInstance("MD5").digest(key.getBytes("UTF-8"));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+        return toHex(digest);
+    }
+
+    private static String toHex(byte[] digest) {
+        char[] chars = new char[digest.length * 2];
+        for (int i = 0; i < digest.length; i ++) {
+            chars[2 * i] = HEX_DIGITS[(digest[i] >> 4) & 0xf];
+            chars[2 * i + 1] = HEX_DIGITS[digest[i] & 0xf];
+        }
+        return new String(chars);
+    }
+
+    /** 将key和CacheHeader存入到Map对象中.并更新当前占用的总字节数,同时记录到索引日志. */
     private void putEntry(String key, CacheHeader entry) {
-        if (!mEntries.containsKey(key)) {
-            mTotalSize += entry.size;
-        } else {
+        boolean replaced = mEntries.containsKey(key);
+        // 先计入新的条目,新旧条目共享同一个blob时不会误删blob.
+        charge(entry);
+        if (replaced) {
             CacheHeader oldEntry = mEntries.get(key);
-            mTotalSize += (entry.size - oldEntry.size);
+            discharge(oldEntry);
+            removeExpiry(oldEntry);
         }
+        addExpiry(entry);
 
         mEntries.put(key, entry);
+        mEvictionPolicy.onAdd(key, entry.size);
+        if (!mInitialized) {
+            mModifiedDuringInit = true;
+            mRemovedDuringInit.remove(key);
+        }
+        mJournal.appendPut(entry, replaced);
+        compactJournalIfNeeded();
     }
 
     @Override
     public synchronized void remove(String key) {
         boolean deleted = getFileForKey(key).delete();
         removeEntry(key);
+        if (!mInitialized) {
+            mModifiedDuringInit = true;
+            mRemovedDuringInit.add(key);
+        }
         if (!deleted) {
             Log.e("Volley", "没能删除key=" + key + ", 文件名=" + getFilenameForKey(key) + "缓存.");
         }
@@ -232,8 +1189,122 @@ public class DiskBasedCache implements Cache {
     private void removeEntry(String key) {
         CacheHeader entry = mEntries.get(key);
         if (entry != null) {
-            mTotalSize -= entry.size;
+            discharge(entry);
             mEntries.remove(key);
+            removeExpiry(entry);
+            mEvictionPolicy.onRemove(key);
+            mJournal.appendRemove(key);
+            compactJournalIfNeeded();
+        }
+    }
+
+    /** 返回blob文件,按摘要的前两个十六进制字符分散到子目录中. */
+    private File getBlobFile(String blob) {
+        return new File(new File(new File(mRootDirectory, BLOB_DIRECTORY), blob.substring(0, 2)),
+                blob);
+    }
+
+    /** 计算将要保存的响应体(压缩时是压缩之后的字节)的SHA-1摘要. */
+    private static String digestOf(PoolingByteArrayOutputStream compressed, byte[] data) {
+        final MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        if (compressed == null) {
+            digest.update(data);
+        } else {
+            try {
+                compressed.writeTo(new OutputStream() {
+                    @Override
+                    public void write(int b) {
+                        digest.update((byte) b);
+                    }
+
+                    @Override
+                    public void write(@NonNull byte[] b, int off, int len) {
+                        digest.update(b, off, len);
+                    }
+                });
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        return toHex(digest.digest());
+    }
+
+    /**
+     * 写入blob文件.blob已经被引用并且文件存在时直接复用;否则先写临时文件再重命名,
+     * 进程中途被杀掉时不会留下内容与名称不符的blob.
+     */
+    private void writeBlob(String blob, PoolingByteArrayOutputStream compressed, byte[] data)
+            throws IOException {
+        File file = getBlobFile(blob);
+        if (mBlobs.containsKey(blob) && file.exists()) {
+            return;
+        }
+        File parent = file.getParentFile();
+        if (!parent.exists()) {
+            parent.mkdirs();
+        }
+        File temp = new File(file.getPath() + TEMP_SUFFIX);
+        BufferedOutputStream fos = new BufferedOutputStream(new FileOutputStream(temp));
+        try {
+            if (compressed != null) {
+                compressed.writeTo(fos);
+            } else {
+                fos.write(data);
+            }
+        } finally {
+            fos.close();
+        }
+        if (!temp.renameTo(file)) {
+            temp.delete();
+            throw new IOException("rename failed: " + temp);
+        }
+    }
+
+    /** 把条目占用的空间计入mTotalSize.共享的blob只在第一次被引用时计入. */
+    private void charge(CacheHeader e) {
+        if (e.blob == null) {
+            mTotalSize += e.size;
+            return;
+        }
+        Blob blob = mBlobs.get(e.blob);
+        if (blob == null) {
+            blob = new Blob(e.size);
+            mBlobs.put(e.blob, blob);
+            mTotalSize += e.size;
+        }
+        blob.refs ++;
+    }
+
+    /** 从mTotalSize中扣除条目占用的空间.blob不再被引用时才扣除并删除blob文件. */
+    private void discharge(CacheHeader e) {
+        if (e.blob == null) {
+            mTotalSize -= e.size;
+            return;
+        }
+        Blob blob = mBlobs.get(e.blob);
+        if (blob == null || -- blob.refs > 0) {
+            return;
+        }
+        mBlobs.remove(e.blob);
+        mTotalSize -= blob.size;
+        // 初始化完成之前,还没有加载的条目可能引用该blob,由initialize()统一清理.
+        if (mInitialized) {
+            getBlobFile(e.blob).delete();
+        }
+    }
+
+    /** 多个条目共享的blob的大小和引用计数. */
+    private static class Blob {
+        final long size;
+        int refs;
+
+        Blob(long size) {
+            this.size = size;
         }
     }
 
@@ -262,9 +1333,18 @@ public class DiskBasedCache implements Cache {
         public long softTtl;
 
         /** HTTP的响应headers. */
-        public Map<String, String> responseHeaders;
+        public Headers responseHeaders;
+
+        /** 缓存文件中的响应体是否经过Deflater压缩. */
+        public boolean compressed;
 
-        private CacheHeader(){}
+        /** 压缩前响应体的大小,只在compressed为true时有效. */
+        public long uncompressedSize;
+
+        /** 去重存储时响应体所在blob的SHA-1摘要,为null时响应体保存在缓存文件中. */
+        public String blob;
+
+        CacheHeader(){}
 
         /**
          * Instantiates a new CacheHeader object
@@ -273,21 +1353,29 @@ public class DiskBasedCache implements Cache {
          */
         public CacheHeader(String key, Entry entry) {
             this.key = key;
-            this.size = entry.data.length;
+            this.size = entry.data == null ? 0 : entry.data.length;
             this.etag = entry.etag;
             this.serverDate = entry.serverDate;
             this.lastModified = entry.lastModified;
             this.ttl = entry.ttl;
             this.softTtl = entry.softTtl;
-            this.responseHeaders = entry.responseHeaders;
+            // 索引持有自己的拷贝,调用方之后修改entry不会影响索引和日志.
+            this.responseHeaders = entry.responseHeaders == null
+                    ? new Headers() : new Headers(entry.responseHeaders);
         }
 
-        /** 从InputStream中构造CacheHeader对象.其实就是实现对象的反序列化. */
+        /** 从InputStream中构造CacheHeader对象.其实就是实现对象的反序列化.同时支持v2和v1格式. */
         public static CacheHeader readHeader(InputStream is) throws IOException {
-            CacheHeader entry = new CacheHeader();
             // 以CACHE_NUMBER作为读取一个对象的开始
             int magic = readInt(is);
-            if (magic != CACHE_MAGIC) {
+            if (magic == CacheHeaderCodec.MAGIC_V2) {
+                return CacheHeaderCodec.read(is);
+            }
+            CacheHeader entry = new CacheHeader();
+            if (magic == CACHE_MAGIC_DEFLATED) {
+                entry.compressed = true;
+                entry.uncompressedSize = readLong(is);
+            } else if (magic != CACHE_MAGIC) {
                 throw new IOException();
             }
             entry.key = readString(is);
@@ -304,7 +1392,10 @@ public class DiskBasedCache implements Cache {
             return entry;
         }
 
-        /** 通过传入的data数组构造一个Cache.Entry对象. */
+        /**
+         * 通过传入的data数组构造一个Cache.Entry对象.
+         * 头部是拷贝,304时BasicNetwork在网络线程中合并头部,不能修改索引中的对象.
+         */
         public Entry toCacheEntry(byte[] data) {
             Entry e = new Entry();
             e.data = data;
@@ -313,22 +1404,15 @@ public class DiskBasedCache implements Cache {
             e.lastModified = lastModified;
             e.ttl = ttl;
             e.softTtl = softTtl;
-            e.responseHeaders = responseHeaders;
+            e.responseHeaders = responseHeaders == null
+                    ? new Headers() : new Headers(responseHeaders);
             return e;
         }
 
-        /** 将CacheHeader对象序列化. */
+        /** 将CacheHeader对象按v2格式序列化. */
         public boolean writeHeader(OutputStream os) {
             try {
-                writeInt(os, CACHE_MAGIC);
-                writeString(os, key);
-                writeString(os, etag == null ? "" : etag);
-                writeLong(os, serverDate);
-                writeLong(os, lastModified);
-                writeLong(os, ttl);
-                writeLong(os, softTtl);
-                writeStringStringMap(responseHeaders, os);
-                os.flush();
+                CacheHeaderCodec.write(this, os);
                 return true;
             } catch (IOException e) {
                 e.printStackTrace();
@@ -348,13 +1432,13 @@ public class DiskBasedCache implements Cache {
      *  2. 读取n个字节保存在字符数组中.
      *  3. 将字符数组转换成字符串.
      */
-    private static String readString(InputStream is) throws IOException {
+    static String readString(InputStream is) throws IOException {
         int n = (int)readLong(is);
         byte[] b = streamToBytes(is, n);
         return new String(b, "UTF-8");
     }
 
-    private static byte[] streamToBytes(InputStream in, int length) throws IOException {
+    static byte[] streamToBytes(InputStream in, int length) throws IOException {
         byte[] bytes = new byte[length];
         int count;
         int pos = 0;
@@ -381,7 +1465,7 @@ public class DiskBasedCache implements Cache {
         os.write((byte)(n >>> 56));
     }
 
-    private static long readLong(InputStream is) throws IOException {
+    static long readLong(InputStream is) throws IOException {
         long n = 0;
         n |= ((read(is) & 0xFFL));
         n |= ((read(is) & 0xFFL) << 8);
@@ -394,14 +1478,14 @@ public class DiskBasedCache implements Cache {
         return n;
     }
 
-    private static void writeInt(OutputStream os, int n) throws IOException {
+    static void writeInt(OutputStream os, int n) throws IOException {
         os.write((n) & 0xff);
         os.write((n >> 8) & 0xff);
         os.write((n >> 16) & 0xff);
         os.write((n >> 24) & 0xff);
     }
 
-    private static int readInt(InputStream is) throws IOException {
+    static int readInt(InputStream is) throws IOException {
         int n = 0;
         n |= (read(is));
         n |= (read(is) << 8);
@@ -419,42 +1503,28 @@ public class DiskBasedCache implements Cache {
         return b;
     }
 
-    static void writeStringStringMap(Map<String, String> map, OutputStream os) throws IOException {
-        if (map != null) {
-            writeInt(os, map.size());
-            for (Map.Entry<String, String> entry : map.entrySet()) {
-                writeString(os, entry.getKey());
-                writeString(os, entry.getValue());
-            }
-        } else {
-            writeInt(os, 0);
-        }
-    }
-
-
     /**
      * 从输入流中读取Map对象.读取方法如下:
      * 1. 读取Map对象的数量size.
      * 2. 然后循环读取size次,每次先读一个String作为key,再读一个String作为Value.
      */
-    private static Map<String, String> readStringStringMap(InputStream is) throws IOException {
+    private static Headers readStringStringMap(InputStream is) throws IOException {
         int size = readInt(is);
-        Map<String, String> result = (size == 0) ? Collections.<String, String>emptyMap()
-                : new HashMap<String, String>(size);
+        Headers result = new Headers(size);
         for (int i = 0; i < size; i ++) {
             String key = readString(is).intern();
             String value = readString(is).intern();
-            result.put(key, value);
+            result.add(key, value);
         }
 
         return result;
     }
 
     /** 继承FilterInputStream,增加记录读取总字节数的功能. */
-    private static class CountingInputStream extends FilterInputStream{
-        private int bytesRead = 0;
+    static class CountingInputStream extends FilterInputStream{
+        int bytesRead = 0;
 
-        private CountingInputStream(InputStream in) {
+        CountingInputStream(InputStream in) {
             super(in);
         }
 
@@ -0,0 +1,188 @@
+package com.android.volley.toolbox;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * 断点续传的进度记录.
+ * 记录保存在目标文件旁边的.progress文件中,进程重启后可以据此继续下载.
+ * 一个下载任务被划分为若干个连续的分段,每个分段记录[start, end]区间以及已经下载的字节数.
+ */
+@SuppressWarnings("ResultOfMethodCallIgnored")
+class DownloadRecord {
+    /** 标记进度记录文件的MAGIC_NUMBER. */
+    private static final int RECORD_MAGIC = 0x20160901;
+
+    /** 进度记录文件. */
+    private final File mFile;
+
+    /** 下载的url,只有url相同时才能复用进度记录. */
+    final String url;
+
+    /** 用于If-Range的校验值(ETag或者Last-Modified),为null时不能续传. */
+    String validator;
+
+    /** 文件总长度,未知时为-1. */
+    long totalLength = -1;
+
+    /** 下载分段. */
+    Segment[] segments = new Segment[0];
+
+    /** 下载分段.end为-1时表示一直下载到服务器返回结束. */
+    static class Segment {
+        final long start;
+        long end;
+        long downloaded;
+
+        Segment(long start, long end, long downloaded) {
+            this.start = start;
+            this.end = end;
+            this.downloaded = downloaded;
+        }
+
+        /** 分段的长度,长度未知时返回-1. */
+        long length() {
+            return end == -1 ? -1 : end - start + 1;
+        }
+
+        /** 下一个需要写入的文件位置. */
+        long position() {
+            return start + downloaded;
+        }
+    }
+
+    DownloadRecord(File file, String url) {
+        mFile = file;
+        this.url = url;
+    }
+
+    /** 从磁盘加载进度记录.记录不存在,损坏或者url不一致时返回null. */
+    static DownloadRecord load(File file, String url) {
+        if (!file.exists()) {
+            return null;
+        }
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            if (in.readInt() != RECORD_MAGIC) {
+                throw new IOException("bad magic");
+            }
+            DownloadRecord record = new DownloadRecord(file, in.readUTF());
+            if (!record.url.equals(url)) {
+                throw new IOException("url mismatch");
+            }
+            String validator = in.readUTF();
+            record.validator = validator.length() == 0 ? null : validator;
+            record.totalLength = in.readLong();
+            int count = in.readInt();
+            record.segments = new Segment[count];
+            for (int i = 0; i < count; i ++) {
+                record.segments[i] = new Segment(in.readLong(), in.readLong(), in.readLong());
+            }
+            return record;
+        } catch (IOException e) {
+            file.delete();
+            return null;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    /** 重新规划分段.totalLength未知时只能使用一个分段. */
+    synchronized void reset(String validator, long totalLength, int segmentCount) {
+        this.validator = validator;
+        this.totalLength = totalLength;
+        if (totalLength <= 0 || segmentCount <= 1) {
+            segments = new Segment[] {
+                    new Segment(0, totalLength > 0 ? totalLength - 1 : -1, 0)
+            };
+            return;
+        }
+        segments = new Segment[segmentCount];
+        long segmentLength = (totalLength + segmentCount - 1) / segmentCount;
+        for (int i = 0; i < segmentCount; i ++) {
+            long start = i * segmentLength;
+            long end = Math.min(totalLength, start + segmentLength) - 1;
+            segments[i] = new Segment(start, end, 0);
+        }
+    }
+
+    /** 记录某个分段新写入了count个字节. */
+    synchronized void advance(Segment segment, int count) {
+        segment.downloaded += count;
+    }
+
+    /** 长度未知的分段读到流结束时,以实际下载的字节数确定分段的结束位置. */
+    synchronized void finish(Segment segment) {
+        if (segment.end == -1) {
+            segment.end = segment.start + segment.downloaded - 1;
+            if (segments.length == 1) {
+                totalLength = segment.downloaded;
+            }
+        }
+    }
+
+    synchronized boolean isComplete(Segment segment) {
+        return segment.end != -1 && segment.downloaded >= segment.length();
+    }
+
+    /** 所有分段是否都已经下载完成. */
+    synchronized boolean isComplete() {
+        for (Segment segment : segments) {
+            if (!isComplete(segment)) {
+                return false;
+            }
+        }
+        return segments.length > 0;
+    }
+
+    /** 持久化进度记录.先写临时文件再重命名,避免进程被杀时留下半个记录. */
+    synchronized void save() {
+        File temp = new File(mFile.getPath() + ".tmp");
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+            out.writeInt(RECORD_MAGIC);
+            out.writeUTF(url);
+            out.writeUTF(validator == null ? "" : validator);
+            out.writeLong(totalLength);
+            out.writeInt(segments.length);
+            for (Segment segment : segments) {
+                out.writeLong(segment.start);
+                out.writeLong(segment.end);
+                out.writeLong(segment.downloaded);
+            }
+            out.close();
+            out = null;
+            if (!temp.renameTo(mFile)) {
+                mFile.delete();
+                temp.renameTo(mFile);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    /** 删除进度记录. */
+    synchronized void delete() {
+        mFile.delete();
+    }
+}
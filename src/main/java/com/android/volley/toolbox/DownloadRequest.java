@@ -0,0 +1,460 @@
+package com.android.volley.toolbox;
+
+import com.android.volley.AuthFailureError;
+import com.android.volley.DefaultRetryPolicy;
+import com.android.volley.Headers;
+import com.android.volley.NetworkResponse;
+import com.android.volley.Request;
+import com.android.volley.RequestQueue;
+import com.android.volley.Response;
+import com.android.volley.VolleyError;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpStatus;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 大文件下载请求.
+ * 1. 响应体直接写入目标文件,不会整体缓存在内存中.
+ * 2. 服务器支持Range时,进度记录持久化在目标文件旁边的.progress文件中,
+ *    失败重试或者进程重启后使用Range/If-Range从断点继续下载.
+ * 3. 调用{@link #setMaxSegments(int)}后,如果服务器返回Accept-Ranges: bytes,
+ *    会将文件拆分为多个分段,由多个NetworkDispatcher线程并发下载.
+ * 所有分段下载完成后,回调一次Listener,参数为目标文件.
+ */
+@SuppressWarnings("unused")
+public class DownloadRequest extends Request<File> {
+    /** 默认下载超时时间(单位:毫秒). */
+    public static final int DEFAULT_DOWNLOAD_TIMEOUT_MS = 10000;
+
+    /** 默认下载的重试次数. */
+    public static final int DEFAULT_DOWNLOAD_MAX_RETRIES = 3;
+
+    /** 每个分段的最小长度,文件太小时拆分没有意义. */
+    private static final long MIN_SEGMENT_SIZE = 1024 * 1024;
+
+    /** 每写入多少字节持久化一次进度记录. */
+    private static final long PROGRESS_SAVE_INTERVAL = 256 * 1024;
+
+    private static final int BUFFER_SIZE = 8 * 1024;
+
+    /** 所有分段请求共享的下载任务. */
+    private final DownloadTask mTask;
+
+    /** 是否为用户创建的主请求,主请求负责规划和派发其它分段. */
+    private final boolean mPrimary;
+
+    /** 当前请求负责下载的分段,主请求在拿到第一个响应前可能为null. */
+    private DownloadRecord.Segment mSegment;
+
+    /** 最多拆分的分段数量. */
+    private int mMaxSegments = 1;
+
+    /**
+     * 构造一个下载请求.
+     * @param url 文件的url地址.
+     * @param target 下载的目标文件.
+     * @param listener 全部下载完成后的回调接口.
+     * @param errorListener 下载失败的回调接口.
+     */
+    public DownloadRequest(String url, File target, Response.Listener<File> listener,
+                           Response.ErrorListener errorListener) {
+        super(Method.GET, url, errorListener);
+        mTask = new DownloadTask(url, target, listener);
+        mTask.requests.add(this);
+        mPrimary = true;
+        init();
+    }
+
+    /** 构造一个分段请求. */
+    private DownloadRequest(DownloadRequest primary, DownloadRecord.Segment segment) {
+        super(Method.GET, primary.getUrl(), primary.getErrorListener());
+        mTask = primary.mTask;
+        mPrimary = false;
+        mSegment = segment;
+        init();
+    }
+
+    private void init() {
+        // 文件下载不走Volley的Disk缓存.
+        setShouldCache(false);
+        setRetryPolicy(new DefaultRetryPolicy(DEFAULT_DOWNLOAD_TIMEOUT_MS,
+                DEFAULT_DOWNLOAD_MAX_RETRIES, DefaultRetryPolicy.DEFAULT_BACKOFF_MULT));
+    }
+
+    /** 设置最多拆分的分段数量,默认为1,即不拆分. */
+    public DownloadRequest setMaxSegments(int maxSegments) {
+        mMaxSegments = Math.max(1, maxSegments);
+        return this;
+    }
+
+    /** 返回下载的目标文件. */
+    public File getTargetFile() {
+        return mTask.target;
+    }
+
+    /** 根据当前分段的下载进度构造Range和If-Range请求头. */
+    @Override
+    public Map<String, String> getHeaders() throws AuthFailureError {
+        DownloadRecord.Segment segment = ensureSegment();
+        if (segment == null) {
+            return Collections.emptyMap();
+        }
+        Headers headers = new Headers(2);
+        headers.put("Range", "bytes=" + segment.position() + "-"
+                + (segment.end == -1 ? "" : String.valueOf(segment.end)));
+        DownloadRecord record = mTask.record;
+        if (record != null && record.validator != null) {
+            headers.put("If-Range", record.validator);
+        }
+        return headers;
+    }
+
+    /**
+     * 主请求第一次执行时加载磁盘上的进度记录,并选择第一个未完成的分段.
+     * 没有可用的进度记录时返回null,表示从头开始下载.
+     */
+    private DownloadRecord.Segment ensureSegment() {
+        synchronized (mTask) {
+            if (mSegment != null || !mPrimary) {
+                return mSegment;
+            }
+            if (!mTask.recordLoaded) {
+                mTask.recordLoaded = true;
+                DownloadRecord record = DownloadRecord.load(mTask.recordFile, mTask.url);
+                if (record != null && (!mTask.target.exists() || record.segments.length == 0
+                        || (record.segments.length > 1 && getRequestQueue() == null))) {
+                    // 目标文件已经被删除,或者无法派发并发分段,只能从头下载.
+                    record.delete();
+                    record = null;
+                }
+                mTask.record = record;
+            }
+            DownloadRecord record = mTask.record;
+            if (record == null) {
+                return null;
+            }
+            for (DownloadRecord.Segment segment : record.segments) {
+                if (!record.isComplete(segment)) {
+                    mSegment = segment;
+                    return mSegment;
+                }
+            }
+            // 所有分段都已完成但记录还未删除(例如进程在收尾时被杀),重新校验最后一个字节即可.
+            mSegment = record.segments[record.segments.length - 1];
+            mSegment.downloaded = Math.max(0, mSegment.length() - 1);
+            return mSegment;
+        }
+    }
+
+    /**
+     * 由BasicNetwork在收到2xx响应时调用,将响应体直接写入目标文件.
+     *
+     * @return 空的响应体,真正的数据已经写入目标文件.
+     */
+    byte[] writeResponse(int statusCode, Headers headers, HttpEntity entity)
+            throws IOException, VolleyError {
+        try {
+            if (statusCode == HttpStatus.SC_PARTIAL_CONTENT) {
+                long start = parseContentRangeStart(headers.get("Content-Range"));
+                if (mSegment == null || start != mSegment.position()) {
+                    throw new IOException("Unexpected Content-Range: "
+                            + headers.get("Content-Range"));
+                }
+                if (mPrimary) {
+                    spawnSegments();
+                }
+            } else if (mPrimary) {
+                // 首次下载,或者If-Range校验失败(服务器上的文件已经变化),需要从头开始.
+                startOver(headers);
+            } else {
+                mTask.discardRecord();
+                throw new VolleyError("Resource changed during segmented download");
+            }
+
+            DownloadRecord record = mTask.record;
+            if (record == null) {
+                // 其它分段已经放弃了本次下载.
+                throw new VolleyError("Segmented download aborted");
+            }
+            writeSegment(record, entity.getContent());
+            if (record.isComplete()) {
+                record.delete();
+            }
+            return new byte[0];
+        } finally {
+            try {
+                entity.consumeContent();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /** 根据200响应重新规划下载,并在服务器支持Range时派发其它分段. */
+    private void startOver(Headers headers) throws IOException {
+        long totalLength = parseLong(headers.get("Content-Length"));
+        String validator = headers.get("ETag");
+        if (validator == null) {
+            validator = headers.get("Last-Modified");
+        }
+        boolean acceptRanges = "bytes".equalsIgnoreCase(headers.get("Accept-Ranges"));
+        int segmentCount = 1;
+        if (mMaxSegments > 1 && acceptRanges && validator != null
+                && totalLength >= MIN_SEGMENT_SIZE * 2 && getRequestQueue() != null) {
+            segmentCount = (int) Math.min(mMaxSegments, totalLength / MIN_SEGMENT_SIZE);
+        }
+
+        DownloadRecord record = new DownloadRecord(mTask.recordFile, mTask.url);
+        record.reset(validator, totalLength, segmentCount);
+        synchronized (mTask) {
+            mTask.record = record;
+            mTask.resumable = acceptRanges && validator != null;
+            mTask.segmentsSpawned = false;
+            mSegment = record.segments[0];
+        }
+
+        RandomAccessFile file = new RandomAccessFile(mTask.target, "rw");
+        try {
+            file.setLength(0);
+            if (segmentCount > 1) {
+                // 预先分配文件长度,各个分段直接写入各自的位置.
+                file.setLength(totalLength);
+            }
+        } finally {
+            file.close();
+        }
+        mTask.saveRecord();
+        spawnSegments();
+    }
+
+    /** 将除主请求之外所有未完成的分段加入到请求队列中并发下载. */
+    private void spawnSegments() {
+        List<DownloadRequest> spawned = new ArrayList<DownloadRequest>();
+        synchronized (mTask) {
+            if (mTask.segmentsSpawned) {
+                return;
+            }
+            mTask.segmentsSpawned = true;
+            for (DownloadRecord.Segment segment : mTask.record.segments) {
+                if (segment != mSegment && !mTask.record.isComplete(segment)) {
+                    DownloadRequest request = new DownloadRequest(this, segment);
+                    mTask.requests.add(request);
+                    mTask.pending ++;
+                    spawned.add(request);
+                }
+            }
+        }
+        RequestQueue queue = getRequestQueue();
+        for (DownloadRequest request : spawned) {
+            queue.add(request);
+        }
+    }
+
+    /** 将输入流写入当前分段对应的文件位置,分段写满后不再继续读取. */
+    private void writeSegment(DownloadRecord record, InputStream in) throws IOException {
+        if (in == null) {
+            throw new IOException("Response has no content");
+        }
+        RandomAccessFile file = new RandomAccessFile(mTask.target, "rw");
+        byte[] buffer = new byte[BUFFER_SIZE];
+        long unsaved = 0;
+        boolean reachedEnd = false;
+        try {
+            file.seek(mSegment.position());
+            while (!isCanceled()) {
+                long remaining = mSegment.end == -1
+                        ? buffer.length : mSegment.length() - mSegment.downloaded;
+                if (remaining <= 0) {
+                    break;
+                }
+                int count = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                if (count == -1) {
+                    reachedEnd = true;
+                    break;
+                }
+                file.write(buffer, 0, count);
+                record.advance(mSegment, count);
+                unsaved += count;
+                if (unsaved >= PROGRESS_SAVE_INTERVAL) {
+                    mTask.saveRecord();
+                    unsaved = 0;
+                }
+            }
+        } finally {
+            file.close();
+            mTask.saveRecord();
+        }
+
+        if (isCanceled()) {
+            return;
+        }
+        if (reachedEnd && mSegment.end == -1) {
+            record.finish(mSegment);
+        }
+        if (!record.isComplete(mSegment)) {
+            throw new IOException("Connection closed before segment completed");
+        }
+    }
+
+    /** 解析"bytes start-end/total"格式的Content-Range,返回start,格式错误时返回-1. */
+    private static long parseContentRangeStart(String contentRange) {
+        if (contentRange == null || !contentRange.startsWith("bytes ")) {
+            return -1;
+        }
+        int dash = contentRange.indexOf('-', 6);
+        if (dash == -1) {
+            return -1;
+        }
+        return parseLong(contentRange.substring(6, dash).trim());
+    }
+
+    private static long parseLong(String value) {
+        if (value == null) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    @Override
+    protected Response<File> parseNetworkResponse(NetworkResponse response) {
+        return Response.success(mTask.target, null);
+    }
+
+    /** 416表示请求的区间已经无效,丢弃进度记录,下次从头下载. */
+    @Override
+    protected VolleyError parseNetworkError(VolleyError volleyError) {
+        if (volleyError.networkResponse != null
+                && volleyError.networkResponse.statusCode == 416) {
+            mTask.discardRecord();
+        }
+        return volleyError;
+    }
+
+    /** 只有全部分段都完成后才回调用户的Listener. */
+    @Override
+    protected void deliverResponse(File response) {
+        if (mTask.onRequestDone()) {
+            mTask.listener.onResponse(response);
+        }
+    }
+
+    /** 任意一个分段失败都会取消其它分段,并且只回调一次ErrorListener. */
+    @Override
+    public void deliverError(VolleyError error) {
+        if (mTask.onRequestFailed()) {
+            super.deliverError(error);
+        }
+    }
+
+    /** 取消任意一个分段都会取消整个下载任务,已经下载的进度仍然保留. */
+    @Override
+    public void cancel() {
+        super.cancel();
+        mTask.cancel();
+    }
+
+    /** 主请求和所有分段请求共享的下载状态. */
+    private static class DownloadTask {
+        final String url;
+        final File target;
+        final File recordFile;
+        final Response.Listener<File> listener;
+
+        /** 参与下载的所有请求,用于整体取消. */
+        final List<DownloadRequest> requests = new ArrayList<DownloadRequest>();
+
+        /** 当前的进度记录. */
+        DownloadRecord record;
+
+        /** 是否已经尝试从磁盘加载过进度记录. */
+        boolean recordLoaded = false;
+
+        /** 服务器是否支持Range和If-Range,只有支持时才持久化进度记录. */
+        boolean resumable = true;
+
+        /** 是否已经派发了其它分段. */
+        boolean segmentsSpawned = false;
+
+        /** 尚未完成的请求数量. */
+        int pending = 1;
+
+        /** 是否已经回调过用户接口. */
+        boolean finished = false;
+
+        boolean canceled = false;
+
+        DownloadTask(String url, File target, Response.Listener<File> listener) {
+            this.url = url;
+            this.target = target;
+            this.recordFile = new File(target.getPath() + ".progress");
+            this.listener = listener;
+        }
+
+        synchronized void saveRecord() {
+            if (record != null && resumable) {
+                record.save();
+            }
+        }
+
+        synchronized void discardRecord() {
+            if (record != null) {
+                record.delete();
+            }
+            recordFile.delete();
+            record = null;
+            recordLoaded = true;
+        }
+
+        /** 某个请求成功完成,全部完成时返回true. */
+        synchronized boolean onRequestDone() {
+            if (finished) {
+                return false;
+            }
+            pending --;
+            if (pending == 0) {
+                finished = true;
+                return true;
+            }
+            return false;
+        }
+
+        /** 某个请求失败,第一次失败时返回true并取消其它请求. */
+        boolean onRequestFailed() {
+            synchronized (this) {
+                if (finished) {
+                    return false;
+                }
+                finished = true;
+            }
+            cancel();
+            return true;
+        }
+
+        void cancel() {
+            List<DownloadRequest> toCancel;
+            synchronized (this) {
+                if (canceled) {
+                    return;
+                }
+                canceled = true;
+                toCancel = new ArrayList<DownloadRequest>(requests);
+            }
+            for (DownloadRequest request : toCancel) {
+                request.cancel();
+            }
+        }
+    }
+}
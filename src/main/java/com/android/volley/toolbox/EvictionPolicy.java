@@ -0,0 +1,23 @@
+package com.android.volley.toolbox;
+
+/**
+ * 磁盘缓存的淘汰策略.
+ * 缓存把条目的写入,访问和删除通知给策略,需要腾出空间时向策略要下一个被淘汰的key.
+ * 调用都发生在缓存的锁内,实现不需要自己同步;一个策略实例只能给一个缓存使用.
+ */
+public interface EvictionPolicy {
+    /** 写入了新条目或者替换了已有条目. */
+    void onAdd(String key, long size);
+
+    /** 通过get/getStream读取了已有条目的响应体.只读取元数据(peek等)不通知. */
+    void onAccess(String key);
+
+    /** 条目被删除(不是由nextVictim淘汰的). */
+    void onRemove(String key);
+
+    /** 选出并移除下一个被淘汰的条目,返回其key;没有条目时返回null. */
+    String nextVictim();
+
+    /** 缓存被清空. */
+    void clear();
+}
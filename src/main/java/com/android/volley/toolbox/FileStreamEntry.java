@@ -0,0 +1,112 @@
+package com.android.volley.toolbox;
+
+import com.android.volley.Cache;
+import com.android.volley.toolbox.DiskBasedCache.CacheHeader;
+
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * 响应体位于缓存文件中一段连续区域的StreamEntry.
+ * 文件在创建时打开,缓存之后删除或者替换这个文件(put先写临时文件再重命名)都不影响已经打开的条目.
+ * 每个输入流通过FileChannel的绝对位置读取,互不影响.
+ */
+class FileStreamEntry extends Cache.StreamEntry {
+    private final FileInputStream mFile;
+    private final FileChannel mChannel;
+
+    /** 响应体在文件中的起始位置. */
+    private final long mOffset;
+
+    /** 响应体在文件中的字节数,压缩时是压缩之后的大小. */
+    private final long mStoredLength;
+
+    private final boolean mCompressed;
+
+    /**
+     * @param file 缓存文件,由该条目负责关闭.
+     * @param offset 响应体的起始位置,即头部的长度.
+     */
+    FileStreamEntry(CacheHeader header, FileInputStream file, long offset) throws IOException {
+        copyMetadata(header.toCacheEntry(null));
+        mFile = file;
+        mChannel = file.getChannel();
+        mOffset = offset;
+        mStoredLength = mChannel.size() - offset;
+        mCompressed = header.compressed;
+        bodyLength = mCompressed ? header.uncompressedSize : mStoredLength;
+        if (mStoredLength < 0) {
+            throw new EOFException();
+        }
+    }
+
+    @Override
+    public InputStream openBody() {
+        InputStream region = new RegionInputStream();
+        return mCompressed ? new InflaterInputStream(region) : region;
+    }
+
+    @Override
+    public ByteBuffer mapBody() throws IOException {
+        if (!mCompressed) {
+            return mChannel.map(FileChannel.MapMode.READ_ONLY, mOffset, mStoredLength);
+        }
+        if (bodyLength > Integer.MAX_VALUE) {
+            throw new IOException("Cache entry too large: " + bodyLength);
+        }
+        InputStream in = openBody();
+        try {
+            return ByteBuffer.wrap(DiskBasedCache.streamToBytes(in, (int) bodyLength))
+                    .asReadOnlyBuffer();
+        } finally {
+            in.close();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        mFile.close();
+    }
+
+    /** 读取[mOffset, mOffset + mStoredLength)区域的输入流. */
+    private class RegionInputStream extends InputStream {
+        private long mPosition = mOffset;
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) == -1 ? -1 : one[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            long remaining = mOffset + mStoredLength - mPosition;
+            if (remaining <= 0) {
+                return -1;
+            }
+            int count = mChannel.read(ByteBuffer.wrap(buffer, offset,
+                    (int) Math.min(length, remaining)), mPosition);
+            if (count > 0) {
+                mPosition += count;
+            }
+            return count;
+        }
+
+        @Override
+        public long skip(long n) {
+            long skipped = Math.max(0, Math.min(n, mOffset + mStoredLength - mPosition));
+            mPosition += skipped;
+            return skipped;
+        }
+
+        @Override
+        public int available() {
+            return (int) Math.min(Integer.MAX_VALUE, mOffset + mStoredLength - mPosition);
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package com.android.volley.toolbox;
+
+/**
+ * 估算key访问频率的Count-Min Sketch.
+ * 每个计数器4位(最大15),16个计数器打包在一个long中;每个key对应同一个long中的4个计数器,
+ * 取其中的最小值作为估计.记录次数达到表容量的10倍时所有计数器减半,使频率随时间衰减.
+ */
+class FrequencySketch {
+    private static final long[] SEED = {
+            0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L};
+    private static final long RESET_MASK = 0x7777777777777777L;
+    private static final long ONE_MASK = 0x1111111111111111L;
+
+    private long[] mTable;
+    private int mTableMask;
+    private int mSampleSize;
+    private int mSize;
+
+    FrequencySketch() {
+        ensureCapacity(16);
+    }
+
+    /** 保证表能容纳maximumSize个key,需要扩大时重新分配(丢弃已有的计数). */
+    void ensureCapacity(int maximumSize) {
+        int maximum = Math.max(1, Math.min(maximumSize, Integer.MAX_VALUE >>> 4));
+        if (mTable != null && mTable.length >= maximum) {
+            return;
+        }
+        mTable = new long[maximum == 1 ? 1 : Integer.highestOneBit(maximum - 1) << 1];
+        mTableMask = mTable.length - 1;
+        mSampleSize = 10 * maximum;
+        mSize = 0;
+    }
+
+    /** 返回key的估计频率(0-15). */
+    int frequency(String key) {
+        int hash = spread(key.hashCode());
+        int start = (hash & 3) << 2;
+        int frequency = Integer.MAX_VALUE;
+        for (int i = 0; i < 4; i ++) {
+            int index = indexOf(hash, i);
+            int count = (int) ((mTable[index] >>> ((start + i) << 2)) & 0xfL);
+            frequency = Math.min(frequency, count);
+        }
+        return frequency;
+    }
+
+    /** 记录一次访问. */
+    void increment(String key) {
+        int hash = spread(key.hashCode());
+        int start = (hash & 3) << 2;
+        boolean added = false;
+        for (int i = 0; i < 4; i ++) {
+            added |= incrementAt(indexOf(hash, i), start + i);
+        }
+        if (added && ++ mSize == mSampleSize) {
+            reset();
+        }
+    }
+
+    private boolean incrementAt(int index, int counter) {
+        int offset = counter << 2;
+        long mask = 0xfL << offset;
+        if ((mTable[index] & mask) != mask) {
+            mTable[index] += 1L << offset;
+            return true;
+        }
+        return false;
+    }
+
+    /** 所有计数器减半.奇数计数器减半时的截断误差从mSize中扣除. */
+    private void reset() {
+        int odd = 0;
+        for (int i = 0; i < mTable.length; i ++) {
+            odd += Long.bitCount(mTable[i] & ONE_MASK);
+            mTable[i] = (mTable[i] >>> 1) & RESET_MASK;
+        }
+        mSize = (mSize >>> 1) - (odd >>> 2);
+    }
+
+    private int indexOf(int item, int i) {
+        long hash = (item + SEED[i]) * SEED[i];
+        hash += (hash >>> 32);
+        return ((int) hash) & mTableMask;
+    }
+
+    /** 打散String.hashCode的低位. */
+    private static int spread(int x) {
+        x = ((x >>> 16) ^ x) * 0x45d9f3b;
+        x = ((x >>> 16) ^ x) * 0x45d9f3b;
+        return (x >>> 16) ^ x;
+    }
+}
@@ -0,0 +1,83 @@
+package com.android.volley.toolbox;
+
+import com.android.volley.Headers;
+
+import org.apache.http.Header;
+import org.apache.http.HeaderIterator;
+import org.apache.http.StatusLine;
+import org.apache.http.message.BasicHeader;
+import org.apache.http.message.BasicHttpResponse;
+
+/**
+ * 直接携带{@link Headers}的HttpResponse.
+ * BasicNetwork可以通过{@link #getHeaders()}拿到响应头,不再为每个头部创建BasicHeader对象.
+ * 只有外部代码通过Apache接口读取头部时,才会按需构造一次Apache的Header视图.
+ */
+public class HeadersHttpResponse extends BasicHttpResponse {
+    private final Headers mHeaders;
+
+    /** Apache的Header视图是否已经构造. */
+    private boolean mApacheHeadersBuilt = false;
+
+    public HeadersHttpResponse(StatusLine statusLine, Headers headers) {
+        super(statusLine);
+        mHeaders = headers;
+    }
+
+    /** 返回完整的响应头. */
+    public Headers getHeaders() {
+        return mHeaders;
+    }
+
+    private void ensureApacheHeaders() {
+        if (mApacheHeadersBuilt) {
+            return;
+        }
+        mApacheHeadersBuilt = true;
+        for (int i = 0; i < mHeaders.count(); i ++) {
+            super.addHeader(new BasicHeader(mHeaders.name(i), mHeaders.value(i)));
+        }
+    }
+
+    @Override
+    public boolean containsHeader(String name) {
+        ensureApacheHeaders();
+        return super.containsHeader(name);
+    }
+
+    @Override
+    public Header[] getHeaders(String name) {
+        ensureApacheHeaders();
+        return super.getHeaders(name);
+    }
+
+    @Override
+    public Header getFirstHeader(String name) {
+        ensureApacheHeaders();
+        return super.getFirstHeader(name);
+    }
+
+    @Override
+    public Header getLastHeader(String name) {
+        ensureApacheHeaders();
+        return super.getLastHeader(name);
+    }
+
+    @Override
+    public Header[] getAllHeaders() {
+        ensureApacheHeaders();
+        return super.getAllHeaders();
+    }
+
+    @Override
+    public HeaderIterator headerIterator() {
+        ensureApacheHeaders();
+        return super.headerIterator();
+    }
+
+    @Override
+    public HeaderIterator headerIterator(String name) {
+        ensureApacheHeaders();
+        return super.headerIterator(name);
+    }
+}
@@ -1,6 +1,7 @@
 package com.android.volley.toolbox;
 
 import com.android.volley.Cache;
+import com.android.volley.Headers;
 import com.android.volley.NetworkResponse;
 
 import org.apache.http.impl.cookie.DateParseException;
@@ -22,7 +23,7 @@ public class HttpHeaderParser {
     public static Cache.Entry parseCacheHeaders(NetworkResponse response) {
         long now = System.currentTimeMillis();
 
-        Map<String, String> headers = response.headers;
+        Headers headers = response.headers;
 
         long serverDate = 0;
         long lastModified = 0;
@@ -43,29 +44,40 @@ public class HttpHeaderParser {
         }
 
         // 获取响应体的Cache缓存策略.
+        // 单遍扫描Cache-Control,不使用split/trim/substring创建中间字符串.
         headerValue = headers.get("Cache-Control");
         if (headerValue != null) {
             hasCacheControl = true;
-            String[] tokens = headerValue.split(",");
-            for (String token : tokens) {
-                token = token.trim();
-                if (token.equals("no-cache") || token.equals("no-store")) {
+            int length = headerValue.length();
+            int pos = 0;
+            while (pos < length) {
+                // 跳过分隔符和空白,定位到token起始位置.
+                char c = headerValue.charAt(pos);
+                if (c == ',' || c == ' ' || c == '\t') {
+                    pos ++;
+                    continue;
+                }
+                int start = pos;
+                int end = headerValue.indexOf(',', start);
+                if (end == -1) {
+                    end = length;
+                }
+                pos = end + 1;
+                while (end > start && isWhitespace(headerValue.charAt(end - 1))) {
+                    end --;
+                }
+
+                if (tokenEquals(headerValue, start, end, "no-cache")
+                        || tokenEquals(headerValue, start, end, "no-store")) {
                     // no-cache|no-store代表服务器禁止客户端缓存,每次需要重新发送HTTP请求
                     return null;
-                } else if (token.startsWith("max-age=")) {
+                } else if (tokenStartsWith(headerValue, start, end, "max-age=")) {
                     // 获取缓存的有效时间
-                    try {
-                        maxAge = Long.parseLong(token.substring(8));
-                    } catch (Exception e) {
-                        maxAge = 0;
-                    }
-                } else if (token.startsWith("stale-while-revalidate=")) {
-                    try {
-                        staleWhileRevalidate = Long.parseLong(token.substring(23));
-                    } catch (Exception e) {
-                        staleWhileRevalidate = 0;
-                    }
-                } else if (token.equals("must-revalidate") || token.equals("proxy-revalidate")) {
+                    maxAge = parseDeltaSeconds(headerValue, start + 8, end);
+                } else if (tokenStartsWith(headerValue, start, end, "stale-while-revalidate=")) {
+                    staleWhileRevalidate = parseDeltaSeconds(headerValue, start + 23, end);
+                } else if (tokenEquals(headerValue, start, end, "must-revalidate")
+                        || tokenEquals(headerValue, start, end, "proxy-revalidate")) {
                     // 需要进行新鲜度验证
                     mustRevalidate = true;
                 }
@@ -111,17 +123,168 @@ public class HttpHeaderParser {
         return entry;
     }
 
+    /** 判断[start, end)区间的token是否等于directive(忽略大小写). */
+    private static boolean tokenEquals(String value, int start, int end, String directive) {
+        return end - start == directive.length()
+                && value.regionMatches(true, start, directive, 0, directive.length());
+    }
+
+    /** 判断[start, end)区间的token是否以prefix开头(忽略大小写). */
+    private static boolean tokenStartsWith(String value, int start, int end, String prefix) {
+        return end - start >= prefix.length()
+                && value.regionMatches(true, start, prefix, 0, prefix.length());
+    }
+
+    private static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\t';
+    }
+
+    /** 解析[start, end)区间的秒数,格式非法时返回0,溢出时返回Long.MAX_VALUE / 1000. */
+    private static long parseDeltaSeconds(String value, int start, int end) {
+        if (start >= end) {
+            return 0;
+        }
+        long result = 0;
+        for (int i = start; i < end; i ++) {
+            char c = value.charAt(i);
+            if (c < '0' || c > '9') {
+                return 0;
+            }
+            result = result * 10 + (c - '0');
+            if (result >= Long.MAX_VALUE / 1000) {
+                return Long.MAX_VALUE / 1000;
+            }
+        }
+        return result;
+    }
+
     /**
      * Parse date in RFC1123 format, and return its value as epoch
+     * 优先使用定长的RFC1123快速解析,并缓存最近解析过的日期字符串.
+     * 其它格式(RFC850, asctime)仍然交给Apache DateUtils处理.
      */
     public static long parseDateAsEpoch(String dateStr) {
-        try {
-            // Parse date in RFC1123 format if this header contains one
-            return DateUtils.parseDate(dateStr).getTime();
-        } catch (DateParseException e) {
-            // Date in invalid format, fallback to 0
-            return 0;
+        int slot = (dateStr.hashCode() & 0x7fffffff) % DATE_CACHE_SIZE;
+        ParsedDate cached = sDateCache[slot];
+        if (cached != null && cached.text.equals(dateStr)) {
+            return cached.epochMs;
+        }
+
+        long epochMs = parseRfc1123(dateStr);
+        if (epochMs == -1) {
+            try {
+                // Parse date in RFC1123 format if this header contains one
+                epochMs = DateUtils.parseDate(dateStr).getTime();
+            } catch (DateParseException e) {
+                // Date in invalid format, fallback to 0
+                return 0;
+            }
         }
+        sDateCache[slot] = new ParsedDate(dateStr, epochMs);
+        return epochMs;
+    }
+
+    /** 日期缓存的槽位数量.同一批响应的Date/Expires/Last-Modified往往完全相同. */
+    private static final int DATE_CACHE_SIZE = 32;
+
+    /**
+     * 直接映射的日期缓存.
+     * ParsedDate的字段都是final的,多线程下读到的要么是null,要么是完整构造的对象,因此不需要加锁.
+     */
+    private static final ParsedDate[] sDateCache = new ParsedDate[DATE_CACHE_SIZE];
+
+    private static final class ParsedDate {
+        final String text;
+        final long epochMs;
+
+        ParsedDate(String text, long epochMs) {
+            this.text = text;
+            this.epochMs = epochMs;
+        }
+    }
+
+    /**
+     * 按固定位置解析"Sun, 06 Nov 1994 08:49:37 GMT"格式的日期.
+     *
+     * @return 对应的epoch毫秒数,格式不匹配时返回-1.
+     */
+    static long parseRfc1123(String s) {
+        if (s.length() != 29 || s.charAt(3) != ',' || s.charAt(4) != ' '
+                || s.charAt(7) != ' ' || s.charAt(11) != ' ' || s.charAt(16) != ' '
+                || s.charAt(19) != ':' || s.charAt(22) != ':' || s.charAt(25) != ' '
+                || !s.regionMatches(26, "GMT", 0, 3)) {
+            return -1;
+        }
+        int day = parseDigits(s, 5, 7);
+        int month = parseMonth(s, 8);
+        int year = parseDigits(s, 12, 16);
+        int hour = parseDigits(s, 17, 19);
+        int minute = parseDigits(s, 20, 22);
+        int second = parseDigits(s, 23, 25);
+        if (day < 1 || day > 31 || month == -1 || year < 0
+                || hour < 0 || hour > 23 || minute < 0 || minute > 59
+                || second < 0 || second > 60) {
+            return -1;
+        }
+        long days = daysFromCivil(year, month, day);
+        return ((days * 24 + hour) * 60 + minute) * 60 * 1000L + second * 1000L;
+    }
+
+    /** 解析定长的十进制数字,遇到非数字返回-1. */
+    private static int parseDigits(String s, int start, int end) {
+        int result = 0;
+        for (int i = start; i < end; i ++) {
+            char c = s.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            result = result * 10 + (c - '0');
+        }
+        return result;
+    }
+
+    /** 解析三个字母的英文月份缩写,返回1~12,无法识别时返回-1. */
+    private static int parseMonth(String s, int start) {
+        char a = s.charAt(start);
+        char b = s.charAt(start + 1);
+        char c = s.charAt(start + 2);
+        switch (a) {
+            case 'J':
+                if (b == 'a' && c == 'n') return 1;
+                if (b == 'u' && c == 'n') return 6;
+                if (b == 'u' && c == 'l') return 7;
+                return -1;
+            case 'F':
+                return b == 'e' && c == 'b' ? 2 : -1;
+            case 'M':
+                if (b == 'a' && c == 'r') return 3;
+                if (b == 'a' && c == 'y') return 5;
+                return -1;
+            case 'A':
+                if (b == 'p' && c == 'r') return 4;
+                if (b == 'u' && c == 'g') return 8;
+                return -1;
+            case 'S':
+                return b == 'e' && c == 'p' ? 9 : -1;
+            case 'O':
+                return b == 'c' && c == 't' ? 10 : -1;
+            case 'N':
+                return b == 'o' && c == 'v' ? 11 : -1;
+            case 'D':
+                return b == 'e' && c == 'c' ? 12 : -1;
+            default:
+                return -1;
+        }
+    }
+
+    /** 计算公历日期距离1970-01-01的天数. */
+    private static long daysFromCivil(int year, int month, int day) {
+        year -= month <= 2 ? 1 : 0;
+        long era = (year >= 0 ? year : year - 399) / 400;
+        long yearOfEra = year - era * 400;
+        long dayOfYear = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+        long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097 + dayOfEra - 719468;
     }
 
     /**
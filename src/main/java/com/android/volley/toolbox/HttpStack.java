@@ -10,6 +10,7 @@ import java.util.Map;
 
 /**
  * A HTTP stack abstraction.
+ * 实现类可以返回{@link HeadersHttpResponse},让BasicNetwork直接复用其中的Headers.
  */
 public interface HttpStack {
     HttpResponse performRequest(Request<?> request, Map<String, String> additionalHeaders)
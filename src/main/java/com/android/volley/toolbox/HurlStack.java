@@ -1,26 +1,24 @@
 package com.android.volley.toolbox;
 
 import com.android.volley.AuthFailureError;
+import com.android.volley.Headers;
 import com.android.volley.Request;
 
-import org.apache.http.Header;
 import org.apache.http.HttpEntity;
 import org.apache.http.HttpResponse;
 import org.apache.http.HttpStatus;
 import org.apache.http.ProtocolVersion;
 import org.apache.http.StatusLine;
 import org.apache.http.entity.BasicHttpEntity;
-import org.apache.http.message.BasicHeader;
-import org.apache.http.message.BasicHttpResponse;
 import org.apache.http.message.BasicStatusLine;
 
 import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
 import java.net.URL;
-import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
 
 import javax.net.ssl.HttpsURLConnection;
@@ -42,21 +40,53 @@ public class HurlStack implements HttpStack {
         mSslSocketFactory = sslSocketFactory;
     }
 
+    /**
+     * 预先与各个https url的host完成TLS握手,使第一个真正的请求可以复用会话,省去完整握手.
+     * 需要配合{@link ResumableSslSocketFactory}这类共享会话缓存的SSLSocketFactory使用;
+     * 没有设置SSLSocketFactory时使用HttpsURLConnection的默认实现.
+     * 该方法会阻塞当前线程,不能在主线程调用.
+     *
+     * @return 握手成功的host个数.
+     */
+    public int warmUp(int timeoutMs, String... urls) {
+        SSLSocketFactory factory = mSslSocketFactory != null
+                ? mSslSocketFactory : HttpsURLConnection.getDefaultSSLSocketFactory();
+        int warmed = 0;
+        for (String url : urls) {
+            URL parsedUrl;
+            try {
+                parsedUrl = new URL(url);
+            } catch (MalformedURLException e) {
+                continue;
+            }
+            if (!"https".equals(parsedUrl.getProtocol())) {
+                continue;
+            }
+            String host = parsedUrl.getHost();
+            int port = parsedUrl.getPort() == -1 ? parsedUrl.getDefaultPort() : parsedUrl.getPort();
+            if (ResumableSslSocketFactory.handshake(factory, host, port, timeoutMs)) {
+                warmed ++;
+            }
+        }
+        return warmed;
+    }
+
     /** HTTP or HTTPS请求真正执行的地方 */
     @Override
     public HttpResponse performRequest(Request<?> request, Map<String, String> additionalHeaders)
             throws IOException, AuthFailureError {
-        HashMap<String, String> map = new HashMap<String, String>();
-        map.putAll(request.getHeaders());
-        map.putAll(additionalHeaders);
-
         // 构造HttpURLConnection，封装一些固定参数.
         String url = request.getUrl();
         URL parsedUrl = new URL(url);
         HttpURLConnection connection = openConnection(parsedUrl, request);
-        // 构造http请求的header.
-        for (String headerName: map.keySet()) {
-            connection.addRequestProperty(headerName, map.get(headerName));
+        // 构造http请求的header.additionalHeaders中的同名头部优先,直接写入连接,不再拷贝到中间Map.
+        for (Map.Entry<String, String> header : request.getHeaders().entrySet()) {
+            if (!additionalHeaders.containsKey(header.getKey())) {
+                connection.addRequestProperty(header.getKey(), header.getValue());
+            }
+        }
+        for (Map.Entry<String, String> header : additionalHeaders.entrySet()) {
+            connection.addRequestProperty(header.getKey(), header.getValue());
         }
         // 构造http请求的body.
         setConnectionParametersForRequest(connection, request);
@@ -68,23 +98,37 @@ public class HurlStack implements HttpStack {
             throw new IOException("Could not retrieve response code from HttpUrlConnection.");
         }
 
-        // 使用apache提供的BasicHttpResponse来封装请求.
+        // 使用携带Headers的HttpResponse来封装请求,保留同名头部的全部取值.
         StatusLine responseStatus = new BasicStatusLine(protocolVersion,
                 connection.getResponseCode(), connection.getResponseMessage());
-        BasicHttpResponse response = new BasicHttpResponse(responseStatus);
+        HeadersHttpResponse response =
+                new HeadersHttpResponse(responseStatus, readResponseHeaders(connection));
         if (hasResponseBody(request.getMethod(), responseStatus.getStatusCode())) {
             response.setEntity(entityFromConnection(connection));
         }
-        for (Map.Entry<String, List<String>> header : connection.getHeaderFields().entrySet()) {
-            if (header.getKey() != null) {
-                Header h = new BasicHeader(header.getKey(), header.getValue().get(0));
-                response.addHeader(h);
-            }
-        }
 
         return response;
     }
 
+    /**
+     * 按下标逐个读取响应头.
+     * 相比getHeaderFields(),不需要构造Map<String, List<String>>.下标0通常是状态行,其name为null.
+     */
+    private static Headers readResponseHeaders(HttpURLConnection connection) {
+        Headers headers = new Headers(16);
+        for (int i = 0; ; i ++) {
+            String value = connection.getHeaderField(i);
+            if (value == null) {
+                break;
+            }
+            String name = connection.getHeaderFieldKey(i);
+            if (name != null) {
+                headers.add(name, value);
+            }
+        }
+        return headers;
+    }
+
     /** 封装HttpURLConnection类的构造函数. */
     private HttpURLConnection openConnection(URL url, Request<?> request) throws IOException {
         HttpURLConnection connection = (HttpURLConnection) url.openConnection();
@@ -120,6 +164,10 @@ public class HurlStack implements HttpStack {
     /** 添加POST请求参数到HttpURLConnection中. */
     private static void addBodyIfExists(HttpURLConnection connection, Request<?> request)
             throws AuthFailureError, IOException {
+        if (request instanceof MultipartRequest) {
+            addMultipartBody(connection, (MultipartRequest<?>) request);
+            return;
+        }
         byte[] body = request.getBody();
         if (body != null) {
             connection.setDoOutput(true);
@@ -130,10 +178,33 @@ public class HurlStack implements HttpStack {
         }
     }
 
+    /**
+     * 将multipart请求体直接写入连接的输出流.
+     * 长度已知时使用定长流模式,否则使用chunked模式,两种模式下HttpURLConnection都不会缓存整个请求体.
+     */
+    private static void addMultipartBody(HttpURLConnection connection,
+                                         MultipartRequest<?> request) throws IOException {
+        connection.setDoOutput(true);
+        connection.addRequestProperty(HEADER_CONTENT_TYPE, request.getBodyContentType());
+        long contentLength = request.getBodyContentLength();
+        if (contentLength >= 0) {
+            connection.setFixedLengthStreamingMode(contentLength);
+        } else {
+            connection.setChunkedStreamingMode(0);
+        }
+        OutputStream out = connection.getOutputStream();
+        try {
+            request.writeBody(out);
+            out.flush();
+        } finally {
+            out.close();
+        }
+    }
+
     /** 判断当前request请求结果是否有响应体. */
     private boolean hasResponseBody(int requestMethod, int responseCode) {
         return requestMethod != Request.Method.HEAD
-                && !(HttpStatus.SC_CONTINUE <= responseCode && responseCode <= HttpStatus.SC_OK)
+                && !(HttpStatus.SC_CONTINUE <= responseCode && responseCode < HttpStatus.SC_OK)
                 && responseCode != HttpStatus.SC_NO_CONTENT
                 && responseCode != HttpStatus.SC_NOT_MODIFIED;
     }
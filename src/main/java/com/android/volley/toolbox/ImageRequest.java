@@ -4,11 +4,18 @@ import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.widget.ImageView;
 
+import com.android.volley.ConnectionQuality;
+import com.android.volley.ConnectionQualityEstimator;
 import com.android.volley.NetworkResponse;
 import com.android.volley.Request;
 import com.android.volley.Response;
 import com.android.volley.VolleyError;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.EnumMap;
+import java.util.Map;
+
 /** 网络图片请求类. */
 @SuppressWarnings("unused")
 public class ImageRequest extends Request<Bitmap> {
@@ -24,6 +31,15 @@ public class ImageRequest extends Request<Bitmap> {
     private final int mMaxHeight;
     private ImageView.ScaleType mScaleType;
 
+    /** 按连接质量选择的图片url,key为该url适用的最高连接质量. */
+    private EnumMap<ConnectionQuality, String> mUrlVariants;
+
+    /** 用于选择url的连接质量估算器. */
+    private ConnectionQualityEstimator mQualityEstimator = ConnectionQualityEstimator.getInstance();
+
+    /** 第一次调用getUrl()时确定的url,之后不再变化,保证缓存key和实际请求的url一致. */
+    private String mResolvedUrl;
+
     /** Bitmap解析同步锁,保证同一时间只有一个Bitmap被load到内存进行解析,防止OOM. */
     private static final Object sDecodeLock = new Object();
 
@@ -48,6 +64,53 @@ public class ImageRequest extends Request<Bitmap> {
         mScaleType = scaleType;
     }
 
+    /**
+     * 添加一个按连接质量选择的url,例如为POOR连接提供小尺寸的图片.
+     * 当前连接质量不高于quality时可以使用该url,有多个满足条件的url时选择quality最低的那个.
+     * 连接质量未知时使用构造函数传入的url.
+     */
+    public ImageRequest addUrlVariant(ConnectionQuality quality, String url) {
+        if (mUrlVariants == null) {
+            mUrlVariants = new EnumMap<ConnectionQuality, String>(ConnectionQuality.class);
+        }
+        mUrlVariants.put(quality, url);
+        return this;
+    }
+
+    /** 设置选择url时使用的连接质量估算器. */
+    public ImageRequest setConnectionQualityEstimator(ConnectionQualityEstimator estimator) {
+        mQualityEstimator = estimator;
+        return this;
+    }
+
+    @Override
+    public String getUrl() {
+        if (mUrlVariants == null) {
+            return super.getUrl();
+        }
+        synchronized (this) {
+            if (mResolvedUrl == null) {
+                mResolvedUrl = resolveUrl();
+            }
+            return mResolvedUrl;
+        }
+    }
+
+    /** 根据当前的连接质量选择url. */
+    private String resolveUrl() {
+        ConnectionQuality quality = mQualityEstimator == null
+                ? ConnectionQuality.UNKNOWN : mQualityEstimator.getQuality();
+        if (quality != ConnectionQuality.UNKNOWN) {
+            // EnumMap按照枚举顺序(由差到好)遍历.
+            for (Map.Entry<ConnectionQuality, String> variant : mUrlVariants.entrySet()) {
+                if (quality.ordinal() <= variant.getKey().ordinal()) {
+                    return variant.getValue();
+                }
+            }
+        }
+        return super.getUrl();
+    }
+
     /** 设置网络图片请求的优先级. */
     @Override
     public Priority getPriority() {
@@ -66,16 +129,15 @@ public class ImageRequest extends Request<Bitmap> {
     }
 
     private Response<Bitmap> doParse(NetworkResponse response) {
-        byte[] data = response.data;
         BitmapFactory.Options decodeOptions = new BitmapFactory.Options();
         Bitmap bitmap;
         if (mMaxWidth == 0 && mMaxHeight == 0) {
             decodeOptions.inPreferredConfig = mDecodeConfig;
-            bitmap = BitmapFactory.decodeByteArray(data, 0, data.length, decodeOptions);
+            bitmap = decode(response, decodeOptions);
         } else {
             // 获取网络图片的真实尺寸.
             decodeOptions.inJustDecodeBounds = true;
-            BitmapFactory.decodeByteArray(data, 0, data.length, decodeOptions);
+            decode(response, decodeOptions);
             int actualWidth = decodeOptions.outWidth;
             int actualHeight = decodeOptions.outHeight;
 
@@ -87,7 +149,7 @@ public class ImageRequest extends Request<Bitmap> {
             decodeOptions.inJustDecodeBounds = false;
             decodeOptions.inSampleSize =
                     findBestSampleSize(actualWidth, actualHeight, desiredWidth, desireHeight);
-            Bitmap tempBitmap = BitmapFactory.decodeByteArray(data, 0, data.length, decodeOptions);
+            Bitmap tempBitmap = decode(response, decodeOptions);
 
             if (tempBitmap != null && (tempBitmap.getWidth() > desiredWidth ||
                     tempBitmap.getHeight() > desireHeight)) {
@@ -105,6 +167,31 @@ public class ImageRequest extends Request<Bitmap> {
         }
     }
 
+    /** 响应体被写入临时文件或者来自缓存的流时直接从文件或者流解码,避免把大图片整个读入内存. */
+    private static Bitmap decode(NetworkResponse response, BitmapFactory.Options options) {
+        if (response.isSpilled()) {
+            return BitmapFactory.decodeFile(response.bodyFile.getPath(), options);
+        }
+        if (response.cachedBody != null) {
+            InputStream in = null;
+            try {
+                in = response.openBodyStream();
+                return BitmapFactory.decodeStream(in, null, options);
+            } catch (IOException e) {
+                return null;
+            } finally {
+                if (in != null) {
+                    try {
+                        in.close();
+                    } catch (IOException ignored) {
+                    }
+                }
+            }
+        }
+        byte[] data = response.data;
+        return BitmapFactory.decodeByteArray(data, 0, data.length, options);
+    }
+
     static int findBestSampleSize(
             int actualWidth, int actualHeight, int desiredWidth, int desireHeight) {
         double wr = (double) actualWidth / desiredWidth;
@@ -0,0 +1,800 @@
+package com.android.volley.toolbox;
+
+import com.android.volley.Cache;
+import com.android.volley.toolbox.DiskBasedCache.CacheHeader;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * 日志结构的磁盘缓存.
+ * 所有条目追加写入少量的大段文件,内存中的索引记录每个key所在的段和偏移,写入是顺序追加,
+ * 不需要为每个key创建,打开和关闭一个文件.覆盖和删除只追加新记录(删除记录),旧记录变成无效数据.
+ * 某个段中有效数据的比例低于阈值时,后台线程把其中仍然有效的记录搬到当前段末尾,然后删除该段.
+ *
+ * 启动时按段的顺序读一遍全部记录头部(跳过响应体)重建索引,LRU顺序按照写入顺序恢复.
+ * 扫描不持有锁,期间get/peek/put等操作可以正常进行,只是还看不到启动前写入的条目.
+ * 缓存目录只能由该类使用.磁盘占用最多约为容量/压缩阈值再加一个段.
+ */
+@SuppressWarnings({"unused", "ResultOfMethodCallIgnored"})
+public class LogStructuredCache implements Cache {
+    /** 默认硬盘最大的缓存空间(5M),与DiskBasedCache相同. */
+    private static final int DEFAULT_DISK_USAGE_BYTES = 5 * 1024 * 1024;
+
+    /** 默认段文件大小. */
+    private static final int DEFAULT_SEGMENT_BYTES = 1024 * 1024;
+
+    /** 默认压缩阈值:段中有效数据低于一半时压缩. */
+    private static final float DEFAULT_COMPACTION_RATIO = 0.5f;
+
+    /** 淘汰时删除到容量的该比例为止,与DiskBasedCache相同. */
+    private static final float HYSTERESIS_FACTOR = 0.9f;
+
+    /** 段文件的扩展名,文件名是段的序号. */
+    private static final String SEGMENT_SUFFIX = ".log";
+
+    /** 标记每条记录起始的MAGIC_NUMBER. */
+    private static final int RECORD_MAGIC = 0x20161001;
+
+    private static final int TYPE_PUT = 1;
+    private static final int TYPE_REMOVE = 2;
+
+    /** 记录的固定前缀:MAGIC_NUMBER,类型,头部长度,响应体长度. */
+    private static final int RECORD_PREFIX_BYTES = 4 + 1 + 4 + 4;
+
+    /** 读取时遇到段被压缩删除或者通道被中断关闭时的最大尝试次数. */
+    private static final int MAX_READ_ATTEMPTS = 3;
+
+    private final File mRootDirectory;
+
+    private final int mMaxCacheSizeInBytes;
+
+    private final int mSegmentBytes;
+
+    private final float mCompactionRatio;
+
+    /** key到记录位置的索引,按访问顺序排列. */
+    private final LinkedHashMap<String, Location> mIndex =
+            new LinkedHashMap<String, Location>(16, 0.75f, true);
+
+    /** 按序号排列的全部段,序号越大写入越晚. */
+    private final TreeMap<Integer, Segment> mSegments = new TreeMap<Integer, Segment>();
+
+    /** 当前追加写入的段,为null时在下次写入时创建. */
+    private Segment mActiveSegment;
+
+    private int mNextSegmentId = 0;
+
+    /** 有效记录的总字节数. */
+    private long mLiveBytes = 0;
+
+    /** initialize()是否已经完成.完成之前索引中只有初始化期间写入的条目. */
+    private boolean mInitialized = false;
+
+    /** initialize()是否已经开始,保证只扫描一次. */
+    private boolean mInitializeStarted = false;
+
+    /** 启动时已有的段,扫描完成后合并到mSegments.为null时还没有列出缓存目录. */
+    private TreeMap<Integer, Segment> mExistingSegments;
+
+    /** 初始化期间被删除的key,合并扫描结果时需要跳过. */
+    private final Set<String> mRemovedDuringInit = new HashSet<String>();
+
+    /** 初始化期间缓存是否被清空过,清空过时丢弃全部扫描结果. */
+    private boolean mClearedDuringInit = false;
+
+    /** 后台压缩线程是否正在运行. */
+    private boolean mCompactionRunning = false;
+
+    public LogStructuredCache(File rootDirectory) {
+        this(rootDirectory, DEFAULT_DISK_USAGE_BYTES, DEFAULT_SEGMENT_BYTES,
+                DEFAULT_COMPACTION_RATIO);
+    }
+
+    public LogStructuredCache(File rootDirectory, int maxCacheSizeInBytes) {
+        this(rootDirectory, maxCacheSizeInBytes, DEFAULT_SEGMENT_BYTES, DEFAULT_COMPACTION_RATIO);
+    }
+
+    /**
+     * @param segmentBytes 段文件的大小,写满后开始新的段.
+     * @param compactionRatio 段中有效数据的比例低于该值时压缩,取值(0, 1).
+     */
+    public LogStructuredCache(File rootDirectory, int maxCacheSizeInBytes, int segmentBytes,
+                              float compactionRatio) {
+        if (segmentBytes <= 0) {
+            throw new IllegalArgumentException("segmentBytes must be positive");
+        }
+        if (compactionRatio <= 0 || compactionRatio >= 1) {
+            throw new IllegalArgumentException("compactionRatio must be in (0, 1)");
+        }
+        mRootDirectory = rootDirectory;
+        mMaxCacheSizeInBytes = maxCacheSizeInBytes;
+        mSegmentBytes = segmentBytes;
+        mCompactionRatio = compactionRatio;
+    }
+
+    /**
+     * 读取响应体时不持有锁,多个线程可以并行读.
+     * 段在读取期间被压缩删除时,记录已经搬到了新位置,重新查询索引再读一次.
+     */
+    @Override
+    public Entry get(String key) {
+        for (int attempt = 0; attempt < MAX_READ_ATTEMPTS; attempt ++) {
+            Location location;
+            synchronized (this) {
+                location = mIndex.get(key);
+            }
+            if (location == null) {
+                return null;
+            }
+            try {
+                return location.header.toCacheEntry(readBody(location));
+            } catch (ClosedChannelException e) {
+                // 重新查询索引.
+            } catch (IOException e) {
+                e.printStackTrace();
+                synchronized (this) {
+                    if (mIndex.get(key) == location) {
+                        removeLocked(key);
+                    }
+                }
+                return null;
+            }
+        }
+        return null;
+    }
+
+    /** 段文件会被压缩线程删除,不保留打开的段;记录不大,读出完整的响应体再包装. */
+    @Override
+    public StreamEntry getStream(String key) {
+        Entry entry = get(key);
+        return entry == null ? null : StreamEntry.of(entry);
+    }
+
+    @Override
+    public synchronized Entry peek(String key) {
+        Location location = mIndex.get(key);
+        return location == null ? null : location.header.toCacheEntry(null);
+    }
+
+    @Override
+    public synchronized void put(String key, Entry entry) {
+        CacheHeader header = new CacheHeader(key, entry);
+        try {
+            ByteBuffer head = encodePut(header, entry.data.length);
+            pruneIfNeeded(head.remaining() + entry.data.length);
+            putLocation(key, append(header, head, entry.data));
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        scheduleCompactionIfNeeded();
+    }
+
+    /** 段文件中的记录整体追加写入,这里先把body读入内存,再按put写入. */
+    @Override
+    public void putStream(String key, Entry entry, InputStream body, long bodyLength) {
+        if (bodyLength > mMaxCacheSizeInBytes) {
+            return;
+        }
+        Entry copy = TieredCache.copyOf(entry, false);
+        try {
+            copy.data = DiskBasedCache.streamToBytes(body, (int) bodyLength);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        }
+        put(key, copy);
+    }
+
+    /** 追加一条只有新头部的记录,响应体从旧记录中复制. */
+    @Override
+    public synchronized void updateMetadata(String key, Entry entry) {
+        Location location = mIndex.get(key);
+        if (location == null) {
+            return;
+        }
+        CacheHeader header = new CacheHeader(key, entry);
+        header.size = location.bodyLength;
+        try {
+            byte[] data = readBody(location);
+            putLocation(key, append(header, encodePut(header, data.length), data));
+        } catch (IOException e) {
+            e.printStackTrace();
+            removeLocked(key);
+        }
+        scheduleCompactionIfNeeded();
+    }
+
+    /**
+     * 加载索引:按序号顺序重放每个段中的记录,后面的记录覆盖前面的记录.
+     * 段末尾不完整的记录(进程在写入时被杀掉)被截掉.
+     * 读取段文件不持有锁,初始化期间的写入追加到序号更大的新段,
+     * 扫描结果最后在锁内合并,初始化期间写入或者删除过的key以当前状态为准.
+     */
+    @Override
+    public void initialize() {
+        TreeMap<Integer, Segment> existing;
+        synchronized (this) {
+            if (mInitializeStarted) {
+                return;
+            }
+            mInitializeStarted = true;
+            listExistingSegments();
+            existing = mExistingSegments;
+        }
+
+        // 按写入顺序排列,重放时后写入的记录移到末尾.
+        final LinkedHashMap<String, Location> scanned =
+                new LinkedHashMap<String, Location>(16, 0.75f, true);
+        for (final Segment segment : existing.values()) {
+            try {
+                long end = scan(segment, new RecordVisitor() {
+                    @Override
+                    public void onPut(CacheHeader header, long offset, int headLength,
+                                      int bodyLength) {
+                        Location location =
+                                new Location(header, segment, offset, headLength, bodyLength);
+                        segment.liveBytes += location.recordSize();
+                        Location old = scanned.put(header.key, location);
+                        if (old != null) {
+                            old.segment.liveBytes -= old.recordSize();
+                        }
+                    }
+
+                    @Override
+                    public void onRemove(String key) {
+                        Location old = scanned.remove(key);
+                        if (old != null) {
+                            old.segment.liveBytes -= old.recordSize();
+                        }
+                    }
+                });
+                if (end < segment.size) {
+                    segment.channel().truncate(end);
+                    segment.size = end;
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+
+        synchronized (this) {
+            if (mClearedDuringInit) {
+                for (Segment segment : existing.values()) {
+                    segment.delete();
+                }
+            } else {
+                for (Segment segment : existing.values()) {
+                    mSegments.put(segment.id, segment);
+                }
+                // 初始化期间访问过的条目比扫描到的条目更新,保持在LRU顺序的后部.
+                Map<String, Location> current = new LinkedHashMap<String, Location>(mIndex);
+                mIndex.clear();
+                for (Map.Entry<String, Location> entry : scanned.entrySet()) {
+                    Location location = entry.getValue();
+                    if (current.containsKey(entry.getKey())
+                            || mRemovedDuringInit.contains(entry.getKey())) {
+                        location.segment.liveBytes -= location.recordSize();
+                    } else {
+                        mIndex.put(entry.getKey(), location);
+                        mLiveBytes += location.recordSize();
+                    }
+                }
+                mIndex.putAll(current);
+                if (mActiveSegment == null && !existing.isEmpty()) {
+                    mActiveSegment = existing.lastEntry().getValue();
+                }
+            }
+            mExistingSegments = new TreeMap<Integer, Segment>();
+            mInitialized = true;
+            mRemovedDuringInit.clear();
+            pruneIfNeeded(0);
+            scheduleCompactionIfNeeded();
+        }
+    }
+
+    /** 初始化期间还没有扫描到的条目当作已经删除处理,避免合并之后以未过期的状态出现. */
+    @Override
+    public synchronized void invalidate(String key, boolean fullExpire) {
+        Entry entry = peek(key);
+        if (entry != null) {
+            entry.softTtl = 0;
+            if (fullExpire) {
+                entry.ttl = 0;
+            }
+            updateMetadata(key, entry);
+        } else if (!mInitialized) {
+            removeLocked(key);
+        }
+    }
+
+    @Override
+    public synchronized void remove(String key) {
+        removeLocked(key);
+        scheduleCompactionIfNeeded();
+    }
+
+    @Override
+    public synchronized void clear() {
+        for (Segment segment : mSegments.values()) {
+            segment.delete();
+        }
+        File[] files = mRootDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (parseSegmentId(file.getName()) >= 0) {
+                    file.delete();
+                }
+            }
+        }
+        mSegments.clear();
+        mIndex.clear();
+        mActiveSegment = null;
+        mLiveBytes = 0;
+        if (!mInitialized) {
+            mClearedDuringInit = true;
+        }
+    }
+
+    /**
+     * 列出启动时已有的段,保留它们的序号,之后新建的段序号更大,重放时覆盖已有的段.
+     * 只列目录不读文件,在锁内进行.
+     */
+    private void listExistingSegments() {
+        if (mExistingSegments != null) {
+            return;
+        }
+        mExistingSegments = new TreeMap<Integer, Segment>();
+        if (!mRootDirectory.exists() && !mRootDirectory.mkdirs()) {
+            return;
+        }
+        File[] files = mRootDirectory.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            int id = parseSegmentId(file.getName());
+            if (id >= 0) {
+                mExistingSegments.put(id, new Segment(id, file));
+            }
+        }
+        if (!mExistingSegments.isEmpty()) {
+            mNextSegmentId = mExistingSegments.lastKey() + 1;
+        }
+    }
+
+    private static int parseSegmentId(String name) {
+        if (!name.endsWith(SEGMENT_SUFFIX)) {
+            return -1;
+        }
+        try {
+            return Integer.parseInt(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /** 更新key的位置,旧记录变成无效数据. */
+    private void putLocation(String key, Location location) {
+        Location old = mIndex.put(key, location);
+        if (old != null) {
+            markDead(old);
+        }
+        mLiveBytes += location.recordSize();
+    }
+
+    private void markDead(Location location) {
+        location.segment.liveBytes -= location.recordSize();
+        mLiveBytes -= location.recordSize();
+    }
+
+    /** 初始化完成之前key可能只在还没有扫描的段中,也要追加删除记录. */
+    private void removeLocked(String key) {
+        Location old = mIndex.remove(key);
+        if (old != null) {
+            markDead(old);
+        } else if (mInitialized) {
+            return;
+        }
+        appendRemove(key);
+    }
+
+    /** 追加删除记录.写入失败时该条目在下次启动后可能重新出现,不影响本次运行. */
+    private void appendRemove(String key) {
+        if (!mInitialized) {
+            mRemovedDuringInit.add(key);
+        }
+        try {
+            byte[] keyBytes = key.getBytes("UTF-8");
+            append(null, encodeRecord(TYPE_REMOVE, keyBytes, 0), null);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /** 按LRU顺序淘汰条目,直到能放下needed字节. */
+    private void pruneIfNeeded(int needed) {
+        if (mLiveBytes + needed < mMaxCacheSizeInBytes) {
+            return;
+        }
+        List<String> evicted = new ArrayList<String>();
+        Iterator<Map.Entry<String, Location>> iterator = mIndex.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, Location> entry = iterator.next();
+            markDead(entry.getValue());
+            evicted.add(entry.getKey());
+            iterator.remove();
+            if (mLiveBytes + needed < mMaxCacheSizeInBytes * HYSTERESIS_FACTOR) {
+                break;
+            }
+        }
+        for (String key : evicted) {
+            appendRemove(key);
+        }
+    }
+
+    /** 返回能放下recordSize字节的当前段,当前段已满时开始新的段. */
+    private Segment activeSegmentFor(long recordSize) {
+        if (mActiveSegment == null
+                || (mActiveSegment.size > 0 && mActiveSegment.size + recordSize > mSegmentBytes)) {
+            listExistingSegments();
+            if (!mRootDirectory.exists()) {
+                mRootDirectory.mkdirs();
+            }
+            int id = mNextSegmentId ++;
+            mActiveSegment = new Segment(id, new File(mRootDirectory, id + SEGMENT_SUFFIX));
+            mSegments.put(id, mActiveSegment);
+        }
+        return mActiveSegment;
+    }
+
+    /**
+     * 在当前段末尾追加一条记录,返回记录的位置.
+     * 写入失败时把段截回写入之前的长度,避免半条记录挡住之后追加的记录.
+     */
+    private Location append(CacheHeader header, ByteBuffer head, byte[] body) throws IOException {
+        int headLength = head.remaining();
+        int bodyLength = body == null ? 0 : body.length;
+        Segment segment = activeSegmentFor(headLength + bodyLength);
+        long offset = segment.size;
+        try {
+            FileChannel channel = segment.channel();
+            channel.position(offset);
+            if (body == null) {
+                writeFully(channel, new ByteBuffer[] {head});
+            } else {
+                writeFully(channel, new ByteBuffer[] {head, ByteBuffer.wrap(body)});
+            }
+        } catch (IOException e) {
+            segment.truncateQuietly(offset);
+            throw e;
+        }
+        segment.size += headLength + bodyLength;
+        if (header == null) {
+            return null;
+        }
+        segment.liveBytes += headLength + bodyLength;
+        return new Location(header, segment, offset, headLength, bodyLength);
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer[] buffers) throws IOException {
+        ByteBuffer last = buffers[buffers.length - 1];
+        while (last.hasRemaining()) {
+            channel.write(buffers);
+        }
+    }
+
+    private static byte[] readBody(Location location) throws IOException {
+        byte[] data = new byte[location.bodyLength];
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        readFully(location.segment.channel(), buffer, location.offset + location.headLength);
+        return data;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position)
+            throws IOException {
+        while (buffer.hasRemaining()) {
+            int n = channel.read(buffer, position + buffer.position());
+            if (n < 0) {
+                throw new EOFException();
+            }
+        }
+    }
+
+    private static ByteBuffer encodePut(CacheHeader header, int bodyLength) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream(256);
+        if (!header.writeHeader(bos)) {
+            throw new IOException("Failed to write cache header");
+        }
+        return encodeRecord(TYPE_PUT, bos.toByteArray(), bodyLength);
+    }
+
+    /** 记录格式:MAGIC_NUMBER,类型,头部长度,响应体长度,头部,响应体.整数使用小端字节序. */
+    private static ByteBuffer encodeRecord(int type, byte[] headerBytes, int bodyLength) {
+        ByteBuffer buffer = ByteBuffer.allocate(RECORD_PREFIX_BYTES + headerBytes.length)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(RECORD_MAGIC);
+        buffer.put((byte) type);
+        buffer.putInt(headerBytes.length);
+        buffer.putInt(bodyLength);
+        buffer.put(headerBytes);
+        buffer.flip();
+        return buffer;
+    }
+
+    private interface RecordVisitor {
+        void onPut(CacheHeader header, long offset, int headLength, int bodyLength);
+
+        void onRemove(String key);
+    }
+
+    /**
+     * 顺序解析段中的记录,只读取前缀和头部,按长度跳过响应体.
+     * 返回最后一条完整记录的结束位置,之后的内容不完整或者已经损坏.
+     */
+    private static long scan(Segment segment, RecordVisitor visitor) throws IOException {
+        FileChannel channel = segment.channel();
+        long size = channel.size();
+        segment.size = size;
+        ByteBuffer prefix = ByteBuffer.allocate(RECORD_PREFIX_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        long position = 0;
+        while (position + RECORD_PREFIX_BYTES <= size) {
+            prefix.clear();
+            readFully(channel, prefix, position);
+            prefix.flip();
+            if (prefix.getInt() != RECORD_MAGIC) {
+                break;
+            }
+            int type = prefix.get();
+            int headerLength = prefix.getInt();
+            int bodyLength = prefix.getInt();
+            long recordSize = (long) RECORD_PREFIX_BYTES + headerLength + bodyLength;
+            if (headerLength < 0 || bodyLength < 0 || position + recordSize > size) {
+                break;
+            }
+            byte[] headerBytes = new byte[headerLength];
+            readFully(channel, ByteBuffer.wrap(headerBytes), position + RECORD_PREFIX_BYTES);
+            if (type == TYPE_PUT) {
+                CacheHeader header;
+                try {
+                    header = CacheHeader.readHeader(new ByteArrayInputStream(headerBytes));
+                } catch (IOException e) {
+                    break;
+                } catch (RuntimeException e) {
+                    break;
+                }
+                header.size = bodyLength;
+                visitor.onPut(header, position, RECORD_PREFIX_BYTES + headerLength, bodyLength);
+            } else if (type == TYPE_REMOVE) {
+                visitor.onRemove(new String(headerBytes, "UTF-8"));
+            } else {
+                break;
+            }
+            position += recordSize;
+        }
+        return position;
+    }
+
+    /**
+     * 有段需要压缩并且压缩线程没有在运行时,启动压缩线程.
+     * 初始化完成之前不压缩:还没有合并的旧段中可能有需要新段中删除记录覆盖的写入记录.
+     */
+    private void scheduleCompactionIfNeeded() {
+        if (!mInitialized || mCompactionRunning || findCompactionVictim() == null) {
+            return;
+        }
+        mCompactionRunning = true;
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                compact();
+            }
+        }, "VolleyCacheCompaction").start();
+    }
+
+    /** 返回有效数据比例最低并且低于阈值的已写满的段. */
+    private Segment findCompactionVictim() {
+        Segment victim = null;
+        float victimRatio = mCompactionRatio;
+        for (Segment segment : mSegments.values()) {
+            if (segment == mActiveSegment) {
+                continue;
+            }
+            float ratio = segment.size == 0 ? 0f : (float) segment.liveBytes / segment.size;
+            if (ratio < victimRatio) {
+                victim = segment;
+                victimRatio = ratio;
+            }
+        }
+        return victim;
+    }
+
+    /**
+     * 逐个压缩段.每个段在持有锁的情况下完成,段之间释放锁,
+     * 单次持有锁的时间与段大小成正比(有效数据通过FileChannel.transferTo在内核中复制).
+     */
+    private void compact() {
+        while (true) {
+            synchronized (this) {
+                Segment victim = findCompactionVictim();
+                if (victim == null) {
+                    mCompactionRunning = false;
+                    return;
+                }
+                try {
+                    relocate(victim);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                    mCompactionRunning = false;
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * 把段中的有效记录复制到当前段末尾,然后删除该段.
+     * 删除记录要保证比它更早的段中被删除的写入记录不会在重启后复活:该段不是最早的段时,
+     * 其中key仍然不在索引中的删除记录也要复制过去.
+     */
+    private void relocate(Segment victim) throws IOException {
+        List<String> removedKeys = Collections.emptyList();
+        if (mSegments.firstKey() != victim.id) {
+            final List<String> keys = new ArrayList<String>();
+            scan(victim, new RecordVisitor() {
+                @Override
+                public void onPut(CacheHeader header, long offset, int headLength,
+                                  int bodyLength) {
+                }
+
+                @Override
+                public void onRemove(String key) {
+                    keys.add(key);
+                }
+            });
+            removedKeys = keys;
+        }
+        // Map.Entry.setValue不会改变访问顺序.
+        for (Map.Entry<String, Location> entry : mIndex.entrySet()) {
+            Location location = entry.getValue();
+            if (location.segment == victim) {
+                entry.setValue(copyRecord(location));
+            }
+        }
+        for (String key : removedKeys) {
+            if (!mIndex.containsKey(key)) {
+                appendRemove(key);
+            }
+        }
+        victim.delete();
+        mSegments.remove(victim.id);
+    }
+
+    /** 把一条记录原样复制到当前段末尾. */
+    private Location copyRecord(Location location) throws IOException {
+        long recordSize = location.recordSize();
+        Segment target = activeSegmentFor(recordSize);
+        long offset = target.size;
+        try {
+            FileChannel source = location.segment.channel();
+            FileChannel channel = target.channel();
+            channel.position(offset);
+            long copied = 0;
+            while (copied < recordSize) {
+                long n = source.transferTo(location.offset + copied, recordSize - copied, channel);
+                if (n <= 0) {
+                    throw new EOFException();
+                }
+                copied += n;
+            }
+        } catch (IOException e) {
+            target.truncateQuietly(offset);
+            throw e;
+        }
+        target.size += recordSize;
+        target.liveBytes += recordSize;
+        location.segment.liveBytes -= recordSize;
+        return new Location(location.header, target, offset, location.headLength,
+                location.bodyLength);
+    }
+
+    /** 一条写入记录在段中的位置.创建之后不再修改,可以在锁外读取. */
+    private static class Location {
+        final CacheHeader header;
+        final Segment segment;
+        /** 记录在段中的起始位置. */
+        final long offset;
+        /** 前缀加头部的长度,响应体从offset + headLength开始. */
+        final int headLength;
+        final int bodyLength;
+
+        Location(CacheHeader header, Segment segment, long offset, int headLength,
+                 int bodyLength) {
+            this.header = header;
+            this.segment = segment;
+            this.offset = offset;
+            this.headLength = headLength;
+            this.bodyLength = bodyLength;
+        }
+
+        long recordSize() {
+            return headLength + bodyLength;
+        }
+    }
+
+    /**
+     * 段文件.size和liveBytes只在持有缓存的锁时访问;通道可以被锁外的读取共享.
+     * 读取线程被中断时FileChannel会被关闭,之后使用时重新打开.
+     */
+    private static class Segment {
+        final int id;
+        final File file;
+        /** 段文件的长度. */
+        long size;
+        /** 段中有效记录的字节数. */
+        long liveBytes;
+
+        private RandomAccessFile mFile;
+        private FileChannel mChannel;
+        private boolean mDeleted;
+
+        Segment(int id, File file) {
+            this.id = id;
+            this.file = file;
+        }
+
+        synchronized FileChannel channel() throws IOException {
+            if (mDeleted) {
+                throw new ClosedChannelException();
+            }
+            if (mChannel == null || !mChannel.isOpen()) {
+                close();
+                mFile = new RandomAccessFile(file, "rw");
+                mChannel = mFile.getChannel();
+            }
+            return mChannel;
+        }
+
+        void truncateQuietly(long length) {
+            try {
+                channel().truncate(length);
+            } catch (IOException ignored) {
+            }
+        }
+
+        synchronized void delete() {
+            mDeleted = true;
+            close();
+            file.delete();
+        }
+
+        private void close() {
+            if (mFile != null) {
+                try {
+                    mFile.close();
+                } catch (IOException ignored) {
+                }
+                mFile = null;
+                mChannel = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package com.android.volley.toolbox;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/** 按访问顺序淘汰最久没有使用的条目,DiskBasedCache默认使用该策略. */
+public class LruEvictionPolicy implements EvictionPolicy {
+    private final LinkedHashMap<String, Long> mEntries =
+            new LinkedHashMap<String, Long>(16, 0.75f, true);
+
+    @Override
+    public void onAdd(String key, long size) {
+        mEntries.put(key, size);
+    }
+
+    @Override
+    public void onAccess(String key) {
+        mEntries.get(key);
+    }
+
+    @Override
+    public void onRemove(String key) {
+        mEntries.remove(key);
+    }
+
+    @Override
+    public String nextVictim() {
+        Iterator<String> iterator = mEntries.keySet().iterator();
+        if (!iterator.hasNext()) {
+            return null;
+        }
+        String key = iterator.next();
+        iterator.remove();
+        return key;
+    }
+
+    @Override
+    public void clear() {
+        mEntries.clear();
+    }
+}
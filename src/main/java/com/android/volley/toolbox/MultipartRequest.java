@@ -0,0 +1,249 @@
+package com.android.volley.toolbox;
+
+import com.android.volley.AuthFailureError;
+import com.android.volley.Request;
+import com.android.volley.Response;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * multipart/form-data请求基类,可以同时上传表单字段和文件.
+ * HurlStack会调用{@link #writeBody(OutputStream)}把各个part直接写到连接的输出流上,不会在内存中拼接整个请求体.
+ * 所有part的长度都已知时,{@link #getBodyContentLength()}返回请求体的总长度,HurlStack据此使用定长的流模式;
+ * 否则使用chunked模式.
+ * 注意:InputStream类型的part只能被发送一次,重试时无法重放.
+ */
+@SuppressWarnings("unused")
+public abstract class MultipartRequest<T> extends Request<T> {
+    private static final String CRLF = "\r\n";
+
+    private static final String DEFAULT_CONTENT_TYPE = "application/octet-stream";
+
+    private static final int BUFFER_SIZE = 8 * 1024;
+
+    /** 分隔各个part的boundary. */
+    private final String mBoundary;
+
+    private final List<Part> mParts = new ArrayList<Part>();
+
+    public MultipartRequest(String url, Response.ErrorListener listener) {
+        this(Method.POST, url, listener);
+    }
+
+    public MultipartRequest(int method, String url, Response.ErrorListener listener) {
+        super(method, url, listener);
+        mBoundary = "VolleyBoundary" + Long.toHexString(new Random().nextLong());
+    }
+
+    /** 添加一个字符串表单字段. */
+    public MultipartRequest<T> addStringPart(String name, String value) {
+        mParts.add(new BytesPart(name, null, "text/plain; charset=" + getParamsEncoding(),
+                encode(value, getParamsEncoding())));
+        return this;
+    }
+
+    /** 添加一个字节数组part. */
+    public MultipartRequest<T> addBytePart(String name, String filename, String contentType,
+                                           byte[] data) {
+        mParts.add(new BytesPart(name, filename, contentType, data));
+        return this;
+    }
+
+    /** 添加一个文件part,文件名默认使用file.getName(). */
+    public MultipartRequest<T> addFilePart(String name, File file, String contentType) {
+        mParts.add(new FilePart(name, file.getName(), contentType, file));
+        return this;
+    }
+
+    /**
+     * 添加一个输入流part.
+     * @param length 流的长度,未知时传-1,此时整个请求体使用chunked模式发送.
+     */
+    public MultipartRequest<T> addStreamPart(String name, String filename, String contentType,
+                                             InputStream in, long length) {
+        mParts.add(new StreamPart(name, filename, contentType, in, length));
+        return this;
+    }
+
+    @Override
+    public String getBodyContentType() {
+        return "multipart/form-data; boundary=" + mBoundary;
+    }
+
+    /** 返回请求体的总长度,存在长度未知的part时返回-1. */
+    public long getBodyContentLength() {
+        long total = 0;
+        for (Part part : mParts) {
+            long length = part.contentLength();
+            if (length < 0) {
+                return -1;
+            }
+            total += part.header.length + length + CRLF.length();
+        }
+        return total + closingBytes().length;
+    }
+
+    /** 将所有part依次写入输出流. */
+    public void writeBody(OutputStream out) throws IOException {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        for (Part part : mParts) {
+            out.write(part.header);
+            part.writeContent(out, buffer);
+            out.write(CRLF.getBytes("US-ASCII"));
+        }
+        out.write(closingBytes());
+    }
+
+    /**
+     * 不支持流式写入的HttpStack会调用该方法,此时只能在内存中构造完整的请求体.
+     * HurlStack不会调用该方法.
+     */
+    @Override
+    public byte[] getBody() throws AuthFailureError {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        try {
+            writeBody(bos);
+        } catch (IOException e) {
+            throw new AuthFailureError("Failed to build multipart body", e);
+        }
+        return bos.toByteArray();
+    }
+
+    private byte[] closingBytes() {
+        return encode("--" + mBoundary + "--" + CRLF, "US-ASCII");
+    }
+
+    /** 构造part的头部:boundary, Content-Disposition和Content-Type. */
+    private byte[] buildPartHeader(String name, String filename, String contentType) {
+        StringBuilder header = new StringBuilder(128);
+        header.append("--").append(mBoundary).append(CRLF);
+        header.append("Content-Disposition: form-data; name=\"").append(escape(name)).append('"');
+        if (filename != null) {
+            header.append("; filename=\"").append(escape(filename)).append('"');
+        }
+        header.append(CRLF);
+        header.append("Content-Type: ")
+                .append(contentType == null ? DEFAULT_CONTENT_TYPE : contentType).append(CRLF);
+        header.append(CRLF);
+        return encode(header.toString(), "UTF-8");
+    }
+
+    /** 按照HTML5的规则转义字段名和文件名中的引号和换行. */
+    private static String escape(String value) {
+        return value.replace("\"", "%22").replace("\r", "%0D").replace("\n", "%0A");
+    }
+
+    private static byte[] encode(String value, String charset) {
+        try {
+            return value.getBytes(charset);
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException("Encoding not supported:" + charset, e);
+        }
+    }
+
+    /** multipart中的一个part. */
+    private abstract class Part {
+        final byte[] header;
+
+        Part(String name, String filename, String contentType) {
+            header = buildPartHeader(name, filename, contentType);
+        }
+
+        /** 内容长度,未知时返回-1. */
+        abstract long contentLength();
+
+        abstract void writeContent(OutputStream out, byte[] buffer) throws IOException;
+    }
+
+    private class BytesPart extends Part {
+        private final byte[] mData;
+
+        BytesPart(String name, String filename, String contentType, byte[] data) {
+            super(name, filename, contentType);
+            mData = data;
+        }
+
+        @Override
+        long contentLength() {
+            return mData.length;
+        }
+
+        @Override
+        void writeContent(OutputStream out, byte[] buffer) throws IOException {
+            out.write(mData);
+        }
+    }
+
+    private class FilePart extends Part {
+        private final File mFile;
+
+        FilePart(String name, String filename, String contentType, File file) {
+            super(name, filename, contentType);
+            mFile = file;
+        }
+
+        @Override
+        long contentLength() {
+            return mFile.length();
+        }
+
+        @Override
+        void writeContent(OutputStream out, byte[] buffer) throws IOException {
+            InputStream in = new FileInputStream(mFile);
+            try {
+                copy(in, out, buffer);
+            } finally {
+                in.close();
+            }
+        }
+    }
+
+    private class StreamPart extends Part {
+        private final InputStream mIn;
+        private final long mLength;
+
+        StreamPart(String name, String filename, String contentType, InputStream in,
+                   long length) {
+            super(name, filename, contentType);
+            mIn = in;
+            mLength = length;
+        }
+
+        @Override
+        long contentLength() {
+            return mLength;
+        }
+
+        @Override
+        void writeContent(OutputStream out, byte[] buffer) throws IOException {
+            try {
+                long copied = copy(mIn, out, buffer);
+                if (mLength >= 0 && copied != mLength) {
+                    throw new IOException("Expected " + mLength + " bytes, read " + copied);
+                }
+            } finally {
+                mIn.close();
+            }
+        }
+    }
+
+    private static long copy(InputStream in, OutputStream out, byte[] buffer)
+            throws IOException {
+        long total = 0;
+        int count;
+        while ((count = in.read(buffer)) != -1) {
+            out.write(buffer, 0, count);
+            total += count;
+        }
+        return total;
+    }
+}
@@ -0,0 +1,244 @@
+package com.android.volley.toolbox;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.security.GeneralSecurityException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.net.ssl.HandshakeCompletedEvent;
+import javax.net.ssl.HandshakeCompletedListener;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSessionContext;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+
+/**
+ * 复用TLS会话的SSLSocketFactory.
+ * 所有连接共享同一个SSLContext的客户端会话缓存,同一个host:port的后续连接可以走简化握手(session id或者session ticket).
+ * 同时统计完整握手和复用握手的次数以及耗时.
+ * 同一个实例应该在整个应用中共享,例如传给{@link HurlStack#HurlStack(SSLSocketFactory)}.
+ */
+@SuppressWarnings("unused")
+public class ResumableSslSocketFactory extends SSLSocketFactory {
+    /** 默认缓存的会话个数. */
+    public static final int DEFAULT_SESSION_CACHE_SIZE = 64;
+
+    /** 默认会话的有效期(秒). */
+    public static final int DEFAULT_SESSION_TIMEOUT_SECONDS = 8 * 60 * 60;
+
+    private static final String TLS_V13 = "TLSv1.3";
+
+    /** 预热时等待TLS 1.3 session ticket的时间. */
+    private static final int TICKET_READ_TIMEOUT_MS = 100;
+
+    private final SSLSocketFactory mDelegate;
+
+    private final SSLSessionContext mSessionContext;
+
+    private final AtomicLong mFullHandshakes = new AtomicLong();
+    private final AtomicLong mResumedHandshakes = new AtomicLong();
+    private final AtomicLong mFullHandshakeMs = new AtomicLong();
+    private final AtomicLong mResumedHandshakeMs = new AtomicLong();
+
+    /** 使用系统默认信任证书的TLS上下文. */
+    public static ResumableSslSocketFactory create() throws GeneralSecurityException {
+        SSLContext context = SSLContext.getInstance("TLS");
+        context.init(null, null, null);
+        return new ResumableSslSocketFactory(context, DEFAULT_SESSION_CACHE_SIZE,
+                DEFAULT_SESSION_TIMEOUT_SECONDS);
+    }
+
+    /**
+     * @param context 已经初始化的SSLContext,其客户端会话缓存被所有连接共享.
+     * @param sessionCacheSize 缓存的会话个数,0表示不限制.
+     * @param sessionTimeoutSeconds 会话的有效期,0表示不限制.
+     */
+    public ResumableSslSocketFactory(SSLContext context, int sessionCacheSize,
+                                     int sessionTimeoutSeconds) {
+        mDelegate = context.getSocketFactory();
+        mSessionContext = context.getClientSessionContext();
+        if (mSessionContext != null) {
+            mSessionContext.setSessionCacheSize(sessionCacheSize);
+            mSessionContext.setSessionTimeout(sessionTimeoutSeconds);
+        }
+    }
+
+    /** 返回共享的客户端会话缓存. */
+    public SSLSessionContext getSessionContext() {
+        return mSessionContext;
+    }
+
+    /**
+     * 预先与host:port完成一次TLS握手,握手得到的会话进入缓存,之后的真正请求可以直接复用.
+     * 该方法会阻塞当前线程,不能在主线程调用.
+     *
+     * @return 握手是否成功.
+     */
+    public boolean warmUp(String host, int port, int timeoutMs) {
+        return handshake(this, host, port, timeoutMs);
+    }
+
+    /* package */ static boolean handshake(SSLSocketFactory factory, String host, int port,
+                                           int timeoutMs) {
+        Socket raw = new Socket();
+        SSLSocket socket = null;
+        try {
+            raw.connect(new InetSocketAddress(host, port), timeoutMs);
+            raw.setSoTimeout(timeoutMs);
+            // 与HttpsURLConnection一样在已连接的Socket上创建SSLSocket,保证会话缓存的key一致.
+            socket = (SSLSocket) factory.createSocket(raw, host, port, true);
+            useHttpsEndpointIdentification(socket);
+            socket.startHandshake();
+            if (TLS_V13.equals(socket.getSession().getProtocol())) {
+                readSessionTickets(socket);
+            }
+            return true;
+        } catch (IOException e) {
+            return false;
+        } finally {
+            try {
+                if (socket != null) {
+                    socket.close();
+                } else {
+                    raw.close();
+                }
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    /**
+     * HttpsURLConnection的SSLSocket使用HTTPS主机名校验,部分实现只复用校验算法相同的会话,
+     * 预热的连接需要保持一致.SSLParameters.setEndpointIdentificationAlgorithm从API 24开始才有,只能反射调用.
+     */
+    private static void useHttpsEndpointIdentification(SSLSocket socket) {
+        try {
+            SSLParameters params = socket.getSSLParameters();
+            Method method = SSLParameters.class.getMethod(
+                    "setEndpointIdentificationAlgorithm", String.class);
+            method.invoke(params, "HTTPS");
+            socket.setSSLParameters(params);
+        } catch (Exception ignored) {
+        }
+    }
+
+    /**
+     * TLS 1.3的session ticket在握手完成之后才由服务器发送,客户端只有在读取数据时才会处理它.
+     * 这里短暂地读一次,让ticket进入会话缓存;服务器不会主动发送应用数据,读取会以超时结束.
+     */
+    private static void readSessionTickets(SSLSocket socket) {
+        try {
+            socket.setSoTimeout(TICKET_READ_TIMEOUT_MS);
+            socket.getInputStream().read();
+        } catch (IOException ignored) {
+        }
+    }
+
+    /** 返回完整握手的次数. */
+    public long getFullHandshakeCount() {
+        return mFullHandshakes.get();
+    }
+
+    /** 返回复用会话的简化握手次数. */
+    public long getResumedHandshakeCount() {
+        return mResumedHandshakes.get();
+    }
+
+    /** 返回完整握手的平均耗时(毫秒),没有样本时返回-1. */
+    public long getAverageFullHandshakeMs() {
+        long count = mFullHandshakes.get();
+        return count == 0 ? -1 : mFullHandshakeMs.get() / count;
+    }
+
+    /** 返回简化握手的平均耗时(毫秒),没有样本时返回-1. */
+    public long getAverageResumedHandshakeMs() {
+        long count = mResumedHandshakes.get();
+        return count == 0 ? -1 : mResumedHandshakeMs.get() / count;
+    }
+
+    @Override
+    public String[] getDefaultCipherSuites() {
+        return mDelegate.getDefaultCipherSuites();
+    }
+
+    @Override
+    public String[] getSupportedCipherSuites() {
+        return mDelegate.getSupportedCipherSuites();
+    }
+
+    @Override
+    public Socket createSocket(Socket s, String host, int port, boolean autoClose)
+            throws IOException {
+        return prepare(mDelegate.createSocket(s, host, port, autoClose));
+    }
+
+    @Override
+    public Socket createSocket(String host, int port) throws IOException {
+        return prepare(mDelegate.createSocket(host, port));
+    }
+
+    @Override
+    public Socket createSocket(String host, int port, InetAddress localHost, int localPort)
+            throws IOException {
+        return prepare(mDelegate.createSocket(host, port, localHost, localPort));
+    }
+
+    @Override
+    public Socket createSocket(InetAddress host, int port) throws IOException {
+        return prepare(mDelegate.createSocket(host, port));
+    }
+
+    @Override
+    public Socket createSocket(InetAddress address, int port, InetAddress localAddress,
+                               int localPort) throws IOException {
+        return prepare(mDelegate.createSocket(address, port, localAddress, localPort));
+    }
+
+    /** 打开session ticket,并在握手完成时记录耗时. */
+    private Socket prepare(Socket socket) {
+        if (socket instanceof SSLSocket) {
+            SSLSocket sslSocket = (SSLSocket) socket;
+            enableSessionTickets(sslSocket);
+            sslSocket.addHandshakeCompletedListener(new HandshakeTimer());
+        }
+        return socket;
+    }
+
+    /**
+     * Android的Conscrypt实现提供了setUseSessionTickets方法,但不是公开API,只能通过反射调用.
+     * 其他实现没有该方法时忽略.
+     */
+    private static void enableSessionTickets(SSLSocket socket) {
+        try {
+            Method method = socket.getClass().getMethod("setUseSessionTickets", boolean.class);
+            method.invoke(socket, true);
+        } catch (Exception ignored) {
+        }
+    }
+
+    /**
+     * 统计握手耗时.计时从创建SSLSocket开始,HttpsURLConnection创建之后会立即开始握手.
+     * 会话的创建时间早于本次握手开始时间,说明复用了缓存中的会话.
+     */
+    private class HandshakeTimer implements HandshakeCompletedListener {
+        private final long mStartMs = System.currentTimeMillis();
+
+        @Override
+        public void handshakeCompleted(HandshakeCompletedEvent event) {
+            long elapsed = System.currentTimeMillis() - mStartMs;
+            SSLSession session = event.getSession();
+            if (session.getCreationTime() < mStartMs) {
+                mResumedHandshakes.incrementAndGet();
+                mResumedHandshakeMs.addAndGet(elapsed);
+            } else {
+                mFullHandshakes.incrementAndGet();
+                mFullHandshakeMs.addAndGet(elapsed);
+            }
+        }
+    }
+}
@@ -0,0 +1,255 @@
+package com.android.volley.toolbox;
+
+import com.android.volley.Cache;
+import com.android.volley.CacheStats;
+import com.android.volley.toolbox.DiskBasedCache.CacheHeader;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * 分段的Disk缓存.
+ * key按hash值分配到N个互相独立的{@link DiskBasedCache}段,每段使用自己的子目录,锁,LRU表和容量上限.
+ * DiskBasedCache在持有锁的情况下读写文件,分段之后不同段的key可以并行读写磁盘.
+ *
+ * 每段的容量固定为总容量/N,段之间不互相借用:单个条目不能超过总容量/N,否则写入后立即被淘汰;
+ * key分布不均匀时,热点段按自己的容量淘汰,其它段的空闲容量不能被利用.
+ * 条目大小接近总容量/N,或者key集中在少数url上时,应该减少分段数或者直接使用DiskBasedCache.
+ */
+@SuppressWarnings({"unused", "ResultOfMethodCallIgnored"})
+public class SegmentedDiskCache implements Cache {
+    /** 默认硬盘最大的缓存空间(5M),与DiskBasedCache相同. */
+    private static final int DEFAULT_DISK_USAGE_BYTES = 5 * 1024 * 1024;
+
+    /** 默认的分段数. */
+    private static final int DEFAULT_SEGMENT_COUNT = 4;
+
+    /** 分段子目录名的前缀. */
+    private static final String SEGMENT_DIR_PREFIX = "segment-";
+
+    private final File mRootDirectory;
+
+    private final DiskBasedCache[] mSegments;
+
+    public SegmentedDiskCache(File rootDirectory) {
+        this(rootDirectory, DEFAULT_DISK_USAGE_BYTES, DEFAULT_SEGMENT_COUNT);
+    }
+
+    /**
+     * @param maxCacheSizeInBytes 总容量,平均分给各个段,单个条目的上限是总容量/segmentCount.
+     * @param segmentCount 分段数,一般取与网络线程数相当的值.
+     */
+    public SegmentedDiskCache(File rootDirectory, int maxCacheSizeInBytes, int segmentCount) {
+        if (segmentCount <= 0) {
+            throw new IllegalArgumentException("segmentCount must be positive");
+        }
+        mRootDirectory = rootDirectory;
+        mSegments = new DiskBasedCache[segmentCount];
+        int segmentSize = maxCacheSizeInBytes / segmentCount;
+        for (int i = 0; i < segmentCount; i ++) {
+            mSegments[i] = new DiskBasedCache(segmentDirectory(i), segmentSize);
+        }
+    }
+
+    /** 打开各个段的响应体压缩,参数见{@link DiskBasedCache#setCompression(int, String...)}. */
+    public void setCompression(int minBytes, String... contentTypes) {
+        for (DiskBasedCache segment : mSegments) {
+            segment.setCompression(minBytes, contentTypes);
+        }
+    }
+
+    /** 打开各个段的响应体去重,参数见{@link DiskBasedCache#setDeduplication(int)}.只在同一段内去重. */
+    public void setDeduplication(int minBytes) {
+        for (DiskBasedCache segment : mSegments) {
+            segment.setDeduplication(minBytes);
+        }
+    }
+
+    /** 各个段的淘汰都记录到同一个stats中,参见{@link DiskBasedCache#setStats(CacheStats)}. */
+    public void setStats(CacheStats stats) {
+        for (DiskBasedCache segment : mSegments) {
+            segment.setStats(stats);
+        }
+    }
+
+    private DiskBasedCache segmentFor(String key) {
+        return mSegments[segmentIndex(key)];
+    }
+
+    /** 根据key的hash值选择分段.打散hash的高位,避免相近的url集中在同一段. */
+    private int segmentIndex(String key) {
+        int h = key.hashCode();
+        h ^= (h >>> 16);
+        return (h & 0x7fffffff) % mSegments.length;
+    }
+
+    private File segmentDirectory(int index) {
+        return new File(mRootDirectory, SEGMENT_DIR_PREFIX + index);
+    }
+
+    @Override
+    public Entry get(String key) {
+        return segmentFor(key).get(key);
+    }
+
+    @Override
+    public Entry peek(String key) {
+        return segmentFor(key).peek(key);
+    }
+
+    @Override
+    public StreamEntry getStream(String key) {
+        return segmentFor(key).getStream(key);
+    }
+
+    @Override
+    public void put(String key, Entry entry) {
+        segmentFor(key).put(key, entry);
+    }
+
+    @Override
+    public void putStream(String key, Entry entry, InputStream body, long bodyLength) {
+        segmentFor(key).putStream(key, entry, body, bodyLength);
+    }
+
+    @Override
+    public void updateMetadata(String key, Entry entry) {
+        segmentFor(key).updateMetadata(key, entry);
+    }
+
+    /**
+     * 依次初始化各个段.每个段初始化期间都可以正常查询,所以这里不需要并行.
+     * 初始化之前先把未分段的DiskBasedCache(缓存目录本身)和分段数变化之前的段中的条目迁移到新的段,
+     * 只处理能识别的文件:日志,blob目录,两级子目录中的缓存文件,以及能解析出头部的旧版本缓存文件,
+     * 缓存目录中的其它文件和目录保持不变.
+     */
+    @Override
+    public void initialize() {
+        if (!mRootDirectory.exists() && !mRootDirectory.mkdirs()) {
+            return;
+        }
+        boolean[] migrated = new boolean[mSegments.length];
+        File[] files = mRootDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                String name = file.getName();
+                if (file.isDirectory() && name.startsWith(SEGMENT_DIR_PREFIX)
+                        && !isSegmentDirectory(name)) {
+                    migrateDirectory(file, migrated);
+                } else if (file.isFile() && !CacheJournal.isJournalFile(name)) {
+                    migrateFile(file, migrated, false);
+                }
+            }
+        }
+        migrateDirectory(mRootDirectory, migrated);
+        for (int i = 0; i < mSegments.length; i ++) {
+            // 段的日志中没有迁移进来的文件,删除日志让该段扫描目录重建索引.
+            if (migrated[i]) {
+                new File(segmentDirectory(i), CacheJournal.JOURNAL_FILE).delete();
+            }
+            mSegments[i].initialize();
+        }
+    }
+
+    private boolean isSegmentDirectory(String name) {
+        for (int i = 0; i < mSegments.length; i ++) {
+            if (name.equals(SEGMENT_DIR_PREFIX + i)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 迁移一个DiskBasedCache目录中的全部缓存文件,然后删除它的日志,blob目录和空的子目录.
+     * 目录本身只在为空时删除.
+     */
+    private void migrateDirectory(File directory, boolean[] migrated) {
+        for (File file : DiskBasedCache.listCacheFiles(directory)) {
+            migrateFile(file, migrated, true);
+        }
+        new File(directory, CacheJournal.JOURNAL_FILE).delete();
+        new File(directory, CacheJournal.JOURNAL_FILE_TEMP).delete();
+        DiskBasedCache.deleteRecursively(new File(directory, DiskBasedCache.BLOB_DIRECTORY));
+        File[] children = directory.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                // 两级子目录的名称都只有一个字符,不为空时delete()失败.
+                if (child.isDirectory() && child.getName().length() == 1) {
+                    File[] subdirs = child.listFiles();
+                    if (subdirs != null) {
+                        for (File subdir : subdirs) {
+                            subdir.delete();
+                        }
+                    }
+                    child.delete();
+                }
+            }
+        }
+        if (directory != mRootDirectory) {
+            directory.delete();
+        }
+    }
+
+    /**
+     * 按文件中的key把缓存文件移动到所属的段.响应体保存在旧目录blob中的条目不迁移,直接删除;
+     * 新的段中已经有该key时以新的段为准.
+     *
+     * @param deleteUnreadable 读不出头部时是否删除.缓存目录根部的文件可能不属于缓存,不删除.
+     */
+    private void migrateFile(File file, boolean[] migrated, boolean deleteUnreadable) {
+        CacheHeader header = null;
+        BufferedInputStream fis = null;
+        try {
+            fis = new BufferedInputStream(new FileInputStream(file));
+            header = CacheHeader.readHeader(fis);
+        } catch (IOException ignored) {
+        } finally {
+            if (fis != null) {
+                try {
+                    fis.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+        if (header == null) {
+            if (deleteUnreadable) {
+                file.delete();
+            }
+            return;
+        }
+        int index = segmentIndex(header.key);
+        File target = DiskBasedCache.getCacheFile(segmentDirectory(index),
+                DiskBasedCache.getFilenameForKey(header.key));
+        if (header.blob != null || target.exists()) {
+            file.delete();
+            return;
+        }
+        target.getParentFile().mkdirs();
+        if (file.renameTo(target)) {
+            migrated[index] = true;
+        } else {
+            file.delete();
+        }
+    }
+
+    @Override
+    public void invalidate(String key, boolean fullExpire) {
+        segmentFor(key).invalidate(key, fullExpire);
+    }
+
+    @Override
+    public void remove(String key) {
+        segmentFor(key).remove(key);
+    }
+
+    @Override
+    public void clear() {
+        for (DiskBasedCache segment : mSegments) {
+            segment.clear();
+        }
+    }
+}
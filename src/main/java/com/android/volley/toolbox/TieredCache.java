@@ -0,0 +1,288 @@
+package com.android.volley.toolbox;
+
+import android.support.v4.util.LruCache;
+
+import com.android.volley.Cache;
+import com.android.volley.Headers;
+
+import java.io.InputStream;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 两级缓存:内存中的L1缓存放在任意一个磁盘Cache(L2)前面.
+ * L1按照响应体字节数计算容量,使用LRU淘汰;在L2中命中的条目会被提升到L1.
+ * 写操作同步写入L2.需要异步写入时用{@link WriteBehindCache}作为L2,例如
+ * new TieredCache(new WriteBehindCache(new DiskBasedCache(dir))),
+ * 等待写入的操作由WriteBehindCache合并和限流,并保证读到自己的写入.
+ */
+@SuppressWarnings("unused")
+public class TieredCache implements Cache {
+    /** 每个条目除响应体之外的估算开销(对象,头部等). */
+    private static final int ENTRY_OVERHEAD_BYTES = 256;
+
+    /** 默认L1容量(1M). */
+    private static final int DEFAULT_MEMORY_BYTES = 1024 * 1024;
+
+    /** 写入版本号的分段数,必须是2的幂. */
+    private static final int WRITE_STRIPES = 64;
+
+    /** 磁盘缓存. */
+    private final Cache mDiskCache;
+
+    /** 内存缓存. */
+    private final LruCache<String, Entry> mMemoryCache;
+
+    /** 超过该大小的条目不进入L1,避免一个大响应把L1中的热点条目全部挤出去. */
+    private final int mMaxMemoryEntryBytes;
+
+    /**
+     * 每个分段开始过的写操作数和正在进行的写操作数.
+     * L2读取期间同一分段有写操作开始或者还没有结束时,读到的条目可能已经过时,不提升到L1.
+     * 分段冲突只会少提升一次,不影响正确性.
+     */
+    private final AtomicLongArray mWriteVersions = new AtomicLongArray(WRITE_STRIPES);
+    private final AtomicLongArray mWritesInFlight = new AtomicLongArray(WRITE_STRIPES);
+
+    private final AtomicLong mMemoryHitCount = new AtomicLong();
+    private final AtomicLong mDiskHitCount = new AtomicLong();
+    private final AtomicLong mMissCount = new AtomicLong();
+
+    public TieredCache(Cache diskCache) {
+        this(diskCache, DEFAULT_MEMORY_BYTES);
+    }
+
+    /** @param memoryBytes L1的容量(字节). */
+    public TieredCache(Cache diskCache, int memoryBytes) {
+        mDiskCache = diskCache;
+        mMaxMemoryEntryBytes = memoryBytes / 8;
+        mMemoryCache = new LruCache<String, Entry>(memoryBytes) {
+            @Override
+            protected int sizeOf(String key, Entry value) {
+                return weight(value);
+            }
+        };
+    }
+
+    private static int weight(Entry entry) {
+        return (entry.data == null ? 0 : entry.data.length) + ENTRY_OVERHEAD_BYTES;
+    }
+
+    @Override
+    public Entry get(String key) {
+        Entry entry = mMemoryCache.get(key);
+        if (entry != null) {
+            mMemoryHitCount.incrementAndGet();
+            return copyOf(entry, true);
+        }
+
+        int stripe = stripeOf(key);
+        long version = mWriteVersions.get(stripe);
+        entry = mDiskCache.get(key);
+        if (entry == null) {
+            mMissCount.incrementAndGet();
+            return null;
+        }
+        mDiskHitCount.incrementAndGet();
+        // 提升到L1.读取期间同一个key可能被put,旧的条目不能覆盖L1中新写入的条目.
+        synchronized (mMemoryCache) {
+            if (mWritesInFlight.get(stripe) == 0 && mWriteVersions.get(stripe) == version) {
+                putMemory(key, entry);
+            }
+        }
+        return copyOf(entry, true);
+    }
+
+    /** L1命中时包装内存中的条目;L2命中时直接返回L2的流,不提升到L1. */
+    @Override
+    public StreamEntry getStream(String key) {
+        Entry entry = mMemoryCache.get(key);
+        if (entry != null) {
+            mMemoryHitCount.incrementAndGet();
+            return StreamEntry.of(copyOf(entry, true));
+        }
+
+        StreamEntry stream = mDiskCache.getStream(key);
+        if (stream == null) {
+            mMissCount.incrementAndGet();
+        } else {
+            mDiskHitCount.incrementAndGet();
+        }
+        return stream;
+    }
+
+    @Override
+    public Entry peek(String key) {
+        Entry entry = mMemoryCache.get(key);
+        if (entry != null) {
+            return copyOf(entry, false);
+        }
+        return mDiskCache.peek(key);
+    }
+
+    @Override
+    public void put(String key, Entry entry) {
+        Entry stored = copyOf(entry, true);
+        int stripe = beginWrite(key);
+        try {
+            synchronized (mMemoryCache) {
+                putMemory(key, stored);
+            }
+            mDiskCache.put(key, stored);
+        } finally {
+            mWritesInFlight.decrementAndGet(stripe);
+        }
+    }
+
+    /** 流式写入的大响应体只写入L2,L1中的旧条目直接删除. */
+    @Override
+    public void putStream(String key, Entry entry, InputStream body, long bodyLength) {
+        int stripe = beginWrite(key);
+        try {
+            mMemoryCache.remove(key);
+            mDiskCache.putStream(key, entry, body, bodyLength);
+        } finally {
+            mWritesInFlight.decrementAndGet(stripe);
+        }
+    }
+
+    @Override
+    public void updateMetadata(String key, Entry entry) {
+        int stripe = beginWrite(key);
+        try {
+            synchronized (mMemoryCache) {
+                Entry cached = mMemoryCache.get(key);
+                if (cached != null) {
+                    Entry updated = copyOf(entry, false);
+                    updated.data = cached.data;
+                    mMemoryCache.put(key, updated);
+                }
+            }
+            mDiskCache.updateMetadata(key, entry);
+        } finally {
+            mWritesInFlight.decrementAndGet(stripe);
+        }
+    }
+
+    @Override
+    public void initialize() {
+        mDiskCache.initialize();
+    }
+
+    @Override
+    public void invalidate(String key, boolean fullExpire) {
+        int stripe = beginWrite(key);
+        try {
+            synchronized (mMemoryCache) {
+                Entry cached = mMemoryCache.get(key);
+                if (cached != null) {
+                    Entry updated = copyOf(cached, true);
+                    updated.softTtl = 0;
+                    if (fullExpire) {
+                        updated.ttl = 0;
+                    }
+                    mMemoryCache.put(key, updated);
+                }
+            }
+            mDiskCache.invalidate(key, fullExpire);
+        } finally {
+            mWritesInFlight.decrementAndGet(stripe);
+        }
+    }
+
+    @Override
+    public void remove(String key) {
+        int stripe = beginWrite(key);
+        try {
+            mMemoryCache.remove(key);
+            mDiskCache.remove(key);
+        } finally {
+            mWritesInFlight.decrementAndGet(stripe);
+        }
+    }
+
+    @Override
+    public void clear() {
+        synchronized (mMemoryCache) {
+            for (int i = 0; i < WRITE_STRIPES; i ++) {
+                mWriteVersions.incrementAndGet(i);
+                mWritesInFlight.incrementAndGet(i);
+            }
+        }
+        try {
+            mMemoryCache.evictAll();
+            mDiskCache.clear();
+        } finally {
+            for (int i = 0; i < WRITE_STRIPES; i ++) {
+                mWritesInFlight.decrementAndGet(i);
+            }
+        }
+    }
+
+    /** 返回L1命中次数. */
+    public long getMemoryHitCount() {
+        return mMemoryHitCount.get();
+    }
+
+    /** 返回L1未命中,L2命中的次数. */
+    public long getDiskHitCount() {
+        return mDiskHitCount.get();
+    }
+
+    /** 返回两级都未命中的次数. */
+    public long getMissCount() {
+        return mMissCount.get();
+    }
+
+    /** L1命中率:L1命中次数/全部get次数. */
+    public float getMemoryHitRatio() {
+        long total = mMemoryHitCount.get() + mDiskHitCount.get() + mMissCount.get();
+        return total == 0 ? 0f : (float) mMemoryHitCount.get() / total;
+    }
+
+    /** L2命中率:L2命中次数/到达L2的get次数. */
+    public float getDiskHitRatio() {
+        long total = mDiskHitCount.get() + mMissCount.get();
+        return total == 0 ? 0f : (float) mDiskHitCount.get() / total;
+    }
+
+    private static int stripeOf(String key) {
+        int h = key.hashCode();
+        return (h ^ (h >>> 16)) & (WRITE_STRIPES - 1);
+    }
+
+    /** 登记一个写操作,返回所在的分段.写操作结束时调用方负责减少mWritesInFlight. */
+    private int beginWrite(String key) {
+        int stripe = stripeOf(key);
+        synchronized (mMemoryCache) {
+            mWriteVersions.incrementAndGet(stripe);
+            mWritesInFlight.incrementAndGet(stripe);
+        }
+        return stripe;
+    }
+
+    private void putMemory(String key, Entry entry) {
+        if (entry.data != null && weight(entry) <= mMaxMemoryEntryBytes) {
+            mMemoryCache.put(key, entry);
+        } else {
+            mMemoryCache.remove(key);
+        }
+    }
+
+    /**
+     * 复制条目.BasicNetwork在304时会修改请求持有的Entry及其头部,
+     * 返回副本可以避免调用方直接修改L1中的条目.响应体数组不会被修改,直接共享.
+     */
+    static Entry copyOf(Entry entry, boolean withData) {
+        Entry copy = new Entry();
+        copy.data = withData ? entry.data : null;
+        copy.etag = entry.etag;
+        copy.serverDate = entry.serverDate;
+        copy.lastModified = entry.lastModified;
+        copy.ttl = entry.ttl;
+        copy.softTtl = entry.softTtl;
+        copy.responseHeaders = entry.responseHeaders == null
+                ? new Headers() : new Headers(entry.responseHeaders);
+        return copy;
+    }
+}
@@ -26,7 +26,9 @@ public class Volley {
 
         Network network = new BasicNetwork(stack);
 
-        RequestQueue queue = new RequestQueue(new DiskBasedCache(cacheDir), network);
+        DiskBasedCache cache = new DiskBasedCache(cacheDir);
+        RequestQueue queue = new RequestQueue(cache, network);
+        cache.setStats(queue.getCacheStats());
         queue.start();
 
         return queue;
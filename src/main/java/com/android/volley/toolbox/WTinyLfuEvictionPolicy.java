@@ -0,0 +1,199 @@
+package com.android.volley.toolbox;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+
+/**
+ * 按字节计算容量的W-TinyLFU淘汰策略.
+ * 新条目先进入占容量1%的窗口LRU;窗口超出时,窗口中最旧的条目(候选者)和主区中最旧的条目(牺牲者)比较
+ * {@link FrequencySketch}估计的访问频率,频率低的被淘汰.主区是分段LRU:试用区中再次被访问的条目进入
+ * 占主区80%的保护区,保护区超出时最旧的条目退回试用区.
+ * 只访问一次的url(例如无限滚动的列表)在窗口之外无法挤掉访问频繁的条目.
+ * 候选者胜出之后仍然留在窗口头部,主区空间不够时要继续和下一个牺牲者比较,大条目需要连续胜出多次才能进入主区.
+ */
+public class WTinyLfuEvictionPolicy implements EvictionPolicy {
+    /** 窗口占总容量的比例. */
+    private static final float WINDOW_RATIO = 0.01f;
+
+    /** 保护区占主区的比例. */
+    private static final float PROTECTED_RATIO = 0.8f;
+
+    private static final int WINDOW = 0;
+    private static final int PROBATION = 1;
+    private static final int PROTECTED = 2;
+
+    private final long mWindowMaxBytes;
+    private final long mMainMaxBytes;
+    private final long mProtectedMaxBytes;
+
+    private final FrequencySketch mSketch = new FrequencySketch();
+
+    private final HashMap<String, Node> mNodes = new HashMap<String, Node>();
+
+    /** 三个按访问顺序排列的LRU队列,最旧的在前. */
+    private final LinkedHashMap<String, Node> mWindow = newQueue();
+    private final LinkedHashMap<String, Node> mProbation = newQueue();
+    private final LinkedHashMap<String, Node> mProtected = newQueue();
+
+    private long mWindowBytes;
+    private long mProbationBytes;
+    private long mProtectedBytes;
+
+    /** @param maximumBytes 缓存的容量,与传给缓存的容量相同. */
+    public WTinyLfuEvictionPolicy(long maximumBytes) {
+        mWindowMaxBytes = Math.max(1, (long) (maximumBytes * WINDOW_RATIO));
+        mMainMaxBytes = Math.max(1, maximumBytes - mWindowMaxBytes);
+        mProtectedMaxBytes = (long) (mMainMaxBytes * PROTECTED_RATIO);
+    }
+
+    private static LinkedHashMap<String, Node> newQueue() {
+        return new LinkedHashMap<String, Node>(16, 0.75f, true);
+    }
+
+    private static class Node {
+        final String key;
+        long size;
+        int queue;
+
+        Node(String key, long size) {
+            this.key = key;
+            this.size = size;
+        }
+    }
+
+    @Override
+    public void onAdd(String key, long size) {
+        mSketch.increment(key);
+        Node node = mNodes.get(key);
+        if (node != null) {
+            addBytes(node.queue, size - node.size);
+            node.size = size;
+            touch(node);
+            return;
+        }
+        node = new Node(key, size);
+        node.queue = WINDOW;
+        mNodes.put(key, node);
+        mWindow.put(key, node);
+        mWindowBytes += size;
+        mSketch.ensureCapacity(mNodes.size());
+        drainWindow();
+    }
+
+    @Override
+    public void onAccess(String key) {
+        mSketch.increment(key);
+        Node node = mNodes.get(key);
+        if (node != null) {
+            touch(node);
+        }
+    }
+
+    @Override
+    public void onRemove(String key) {
+        Node node = mNodes.get(key);
+        if (node != null) {
+            evict(node);
+        }
+    }
+
+    @Override
+    public String nextVictim() {
+        while (true) {
+            Node candidate = mWindowBytes > mWindowMaxBytes ? head(mWindow) : null;
+            Node victim = head(mProbation);
+            if (victim == null) {
+                victim = head(mProtected);
+            }
+            if (candidate == null) {
+                Node node = victim != null ? victim : head(mWindow);
+                return node == null ? null : evict(node);
+            }
+            if (candidate.size > mMainMaxBytes) {
+                return evict(candidate);
+            }
+            if (victim == null || mainBytes() + candidate.size <= mMainMaxBytes) {
+                move(candidate, PROBATION);
+                continue;
+            }
+            if (mSketch.frequency(candidate.key) > mSketch.frequency(victim.key)) {
+                return evict(victim);
+            }
+            return evict(candidate);
+        }
+    }
+
+    @Override
+    public void clear() {
+        mNodes.clear();
+        mWindow.clear();
+        mProbation.clear();
+        mProtected.clear();
+        mWindowBytes = 0;
+        mProbationBytes = 0;
+        mProtectedBytes = 0;
+    }
+
+    /** 主区还有空间时,把窗口中超出的条目直接移到试用区,不需要比较频率. */
+    private void drainWindow() {
+        while (mWindowBytes > mWindowMaxBytes && mWindow.size() > 1) {
+            Node node = head(mWindow);
+            if (mainBytes() + node.size > mMainMaxBytes) {
+                return;
+            }
+            move(node, PROBATION);
+        }
+    }
+
+    /** 访问已有条目:试用区的条目进入保护区,其他条目移到所在队列的末尾. */
+    private void touch(Node node) {
+        if (node.queue == PROBATION) {
+            move(node, PROTECTED);
+            while (mProtectedBytes > mProtectedMaxBytes && mProtected.size() > 1) {
+                move(head(mProtected), PROBATION);
+            }
+        } else {
+            queueOf(node.queue).get(node.key);
+        }
+    }
+
+    private void move(Node node, int queue) {
+        queueOf(node.queue).remove(node.key);
+        addBytes(node.queue, -node.size);
+        node.queue = queue;
+        queueOf(queue).put(node.key, node);
+        addBytes(queue, node.size);
+    }
+
+    private String evict(Node node) {
+        mNodes.remove(node.key);
+        queueOf(node.queue).remove(node.key);
+        addBytes(node.queue, -node.size);
+        return node.key;
+    }
+
+    private LinkedHashMap<String, Node> queueOf(int queue) {
+        if (queue == WINDOW) {
+            return mWindow;
+        }
+        return queue == PROBATION ? mProbation : mProtected;
+    }
+
+    private void addBytes(int queue, long delta) {
+        if (queue == WINDOW) {
+            mWindowBytes += delta;
+        } else if (queue == PROBATION) {
+            mProbationBytes += delta;
+        } else {
+            mProtectedBytes += delta;
+        }
+    }
+
+    private long mainBytes() {
+        return mProbationBytes + mProtectedBytes;
+    }
+
+    private static Node head(LinkedHashMap<String, Node> queue) {
+        return queue.isEmpty() ? null : queue.values().iterator().next();
+    }
+}
@@ -0,0 +1,339 @@
+package com.android.volley.toolbox;
+
+import com.android.volley.Cache;
+
+import java.io.InputStream;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 异步写入的Cache装饰器.
+ * put/updateMetadata/invalidate/remove只记录到等待队列就返回,由单独的写线程按顺序写入被装饰的缓存,
+ * NetworkDispatcher不再等待磁盘写入就可以分发响应,例如
+ * new RequestQueue(new WriteBehindCache(new DiskBasedCache(dir)), network).
+ *
+ * 同一个key还没有写入的操作会合并成一个,队列只保存每个key的最终状态.
+ * 等待写入的条目数或者字节数达到上限时put会阻塞,直到写线程赶上(反压).
+ * get/peek先查询等待队列,写入完成之前也能读到自己的写入.
+ */
+@SuppressWarnings("unused")
+public class WriteBehindCache implements Cache {
+    /** 默认最多等待写入的条目数. */
+    private static final int DEFAULT_MAX_PENDING_WRITES = 64;
+
+    /** 默认最多等待写入的响应体字节数. */
+    private static final int DEFAULT_MAX_PENDING_BYTES = 2 * 1024 * 1024;
+
+    private static final int OP_PUT = 1;
+    private static final int OP_UPDATE_METADATA = 2;
+    private static final int OP_INVALIDATE = 3;
+    private static final int OP_REMOVE = 4;
+
+    private final Cache mDelegate;
+
+    private final int mMaxPendingWrites;
+
+    private final long mMaxPendingBytes;
+
+    /** 每个key等待写入的操作,按第一次提交的顺序排列.写线程写入完成之后才移除,保证读到自己的写入. */
+    private final LinkedHashMap<String, PendingOp> mPending = new LinkedHashMap<String, PendingOp>();
+
+    /** 等待写入的响应体字节数. */
+    private long mPendingBytes = 0;
+
+    /** 写线程写入一个操作时持有,clear()持有它保证没有正在写入的旧操作. */
+    private final Object mWriteLock = new Object();
+
+    private Thread mWriter;
+
+    public WriteBehindCache(Cache delegate) {
+        this(delegate, DEFAULT_MAX_PENDING_WRITES, DEFAULT_MAX_PENDING_BYTES);
+    }
+
+    /**
+     * @param maxPendingWrites 最多等待写入的key数.
+     * @param maxPendingBytes 最多等待写入的响应体字节数,单个更大的响应体在队列为空时仍然可以写入.
+     */
+    public WriteBehindCache(Cache delegate, int maxPendingWrites, long maxPendingBytes) {
+        mDelegate = delegate;
+        mMaxPendingWrites = Math.max(1, maxPendingWrites);
+        mMaxPendingBytes = maxPendingBytes;
+    }
+
+    /** 一个等待写入的操作.创建之后不再修改,合并时创建新的对象. */
+    private static class PendingOp {
+        final int type;
+        /** OP_PUT时是完整的条目,OP_UPDATE_METADATA时只有元数据. */
+        final Entry entry;
+        final boolean fullExpire;
+
+        PendingOp(int type, Entry entry, boolean fullExpire) {
+            this.type = type;
+            this.entry = entry;
+            this.fullExpire = fullExpire;
+        }
+
+        long bytes() {
+            return type == OP_PUT ? entry.data.length : 0;
+        }
+    }
+
+    @Override
+    public Entry get(String key) {
+        PendingOp op;
+        synchronized (this) {
+            op = mPending.get(key);
+        }
+        if (op == null) {
+            return mDelegate.get(key);
+        }
+        switch (op.type) {
+            case OP_PUT:
+                return TieredCache.copyOf(op.entry, true);
+            case OP_REMOVE:
+                return null;
+            default:
+                return overlay(op, mDelegate.get(key));
+        }
+    }
+
+    @Override
+    public StreamEntry getStream(String key) {
+        PendingOp op;
+        synchronized (this) {
+            op = mPending.get(key);
+        }
+        if (op == null) {
+            return mDelegate.getStream(key);
+        }
+        switch (op.type) {
+            case OP_PUT:
+                return StreamEntry.of(TieredCache.copyOf(op.entry, true));
+            case OP_REMOVE:
+                return null;
+            default:
+                return overlay(op, mDelegate.getStream(key));
+        }
+    }
+
+    @Override
+    public Entry peek(String key) {
+        PendingOp op;
+        synchronized (this) {
+            op = mPending.get(key);
+        }
+        if (op == null) {
+            return mDelegate.peek(key);
+        }
+        switch (op.type) {
+            case OP_PUT:
+                return TieredCache.copyOf(op.entry, false);
+            case OP_REMOVE:
+                return null;
+            default:
+                return overlay(op, mDelegate.peek(key));
+        }
+    }
+
+    /** 把还没有写入的元数据修改直接应用到从被装饰的缓存中读到的条目上,响应体保持不变. */
+    private static <T extends Entry> T overlay(PendingOp op, T base) {
+        if (base == null) {
+            return null;
+        }
+        if (op.type == OP_UPDATE_METADATA) {
+            Entry metadata = TieredCache.copyOf(op.entry, false);
+            base.etag = metadata.etag;
+            base.serverDate = metadata.serverDate;
+            base.lastModified = metadata.lastModified;
+            base.ttl = metadata.ttl;
+            base.softTtl = metadata.softTtl;
+            base.responseHeaders = metadata.responseHeaders;
+            return base;
+        }
+        base.softTtl = 0;
+        if (op.fullExpire) {
+            base.ttl = 0;
+        }
+        return base;
+    }
+
+    /** 等待队列已满时阻塞,直到写线程写完一部分. */
+    @Override
+    public synchronized void put(String key, Entry entry) {
+        Entry copy = TieredCache.copyOf(entry, true);
+        while (!mPending.isEmpty() && !mPending.containsKey(key)
+                && (mPending.size() >= mMaxPendingWrites
+                || mPendingBytes + copy.data.length > mMaxPendingBytes)) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                // 调度线程被要求退出,不再等待,本次写入超出上限.
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        enqueue(key, new PendingOp(OP_PUT, copy, false));
+    }
+
+    /**
+     * body只在调用期间有效,不能排队,直接同步写入被装饰的缓存.
+     * 同一个key还没有写入的操作比本次写入旧,先丢弃;持有mWriteLock保证写线程不会在之后写入旧的操作.
+     */
+    @Override
+    public void putStream(String key, Entry entry, InputStream body, long bodyLength) {
+        synchronized (mWriteLock) {
+            synchronized (this) {
+                PendingOp old = mPending.remove(key);
+                if (old != null) {
+                    mPendingBytes -= old.bytes();
+                    notifyAll();
+                }
+            }
+            mDelegate.putStream(key, entry, body, bodyLength);
+        }
+    }
+
+    @Override
+    public synchronized void updateMetadata(String key, Entry entry) {
+        PendingOp old = mPending.get(key);
+        Entry metadata = TieredCache.copyOf(entry, false);
+        if (old == null || old.type == OP_UPDATE_METADATA || old.type == OP_INVALIDATE) {
+            enqueue(key, new PendingOp(OP_UPDATE_METADATA, metadata, false));
+        } else if (old.type == OP_PUT) {
+            metadata.data = old.entry.data;
+            enqueue(key, new PendingOp(OP_PUT, metadata, false));
+        }
+        // 等待删除的key不存在,什么也不做.
+    }
+
+    @Override
+    public void initialize() {
+        mDelegate.initialize();
+    }
+
+    @Override
+    public synchronized void invalidate(String key, boolean fullExpire) {
+        PendingOp old = mPending.get(key);
+        if (old == null) {
+            enqueue(key, new PendingOp(OP_INVALIDATE, null, fullExpire));
+        } else if (old.type == OP_INVALIDATE) {
+            enqueue(key, new PendingOp(OP_INVALIDATE, null, fullExpire || old.fullExpire));
+        } else if (old.type != OP_REMOVE) {
+            Entry expired = TieredCache.copyOf(old.entry, old.type == OP_PUT);
+            expired.softTtl = 0;
+            if (fullExpire) {
+                expired.ttl = 0;
+            }
+            enqueue(key, new PendingOp(old.type, expired, false));
+        }
+    }
+
+    @Override
+    public synchronized void remove(String key) {
+        enqueue(key, new PendingOp(OP_REMOVE, null, false));
+    }
+
+    /** 丢弃全部等待写入的操作,等正在进行的写入结束后同步清空被装饰的缓存. */
+    @Override
+    public void clear() {
+        synchronized (mWriteLock) {
+            synchronized (this) {
+                mPending.clear();
+                mPendingBytes = 0;
+                notifyAll();
+            }
+            mDelegate.clear();
+        }
+    }
+
+    /** 阻塞直到当前等待写入的操作全部写入,例如在进程退出之前调用. */
+    public synchronized void flush() throws InterruptedException {
+        while (!mPending.isEmpty()) {
+            wait();
+        }
+    }
+
+    /** 返回等待写入的key数. */
+    public synchronized int getPendingCount() {
+        return mPending.size();
+    }
+
+    /** 替换key等待写入的操作.已经在队列中的key保持原来的位置. */
+    private void enqueue(String key, PendingOp op) {
+        PendingOp old = mPending.put(key, op);
+        if (old != null) {
+            mPendingBytes -= old.bytes();
+        }
+        mPendingBytes += op.bytes();
+        if (mWriter == null) {
+            mWriter = new Thread("VolleyCacheWriter") {
+                @Override
+                public void run() {
+                    writeLoop();
+                }
+            };
+            mWriter.setDaemon(true);
+            mWriter.start();
+        }
+        notifyAll();
+    }
+
+    private void writeLoop() {
+        while (true) {
+            // 在mWriteLock之外等待,队列为空时clear()不会被阻塞.
+            synchronized (this) {
+                while (mPending.isEmpty()) {
+                    try {
+                        wait();
+                    } catch (InterruptedException ignored) {
+                    }
+                }
+            }
+            synchronized (mWriteLock) {
+                String key;
+                PendingOp op;
+                synchronized (this) {
+                    if (mPending.isEmpty()) {
+                        continue;
+                    }
+                    Iterator<Map.Entry<String, PendingOp>> iterator =
+                            mPending.entrySet().iterator();
+                    Map.Entry<String, PendingOp> first = iterator.next();
+                    key = first.getKey();
+                    op = first.getValue();
+                }
+                try {
+                    apply(key, op);
+                } catch (RuntimeException e) {
+                    e.printStackTrace();
+                }
+                synchronized (this) {
+                    // 写入期间被新的操作替换时保留新的操作,下一轮再写.
+                    if (mPending.get(key) == op) {
+                        mPending.remove(key);
+                        mPendingBytes -= op.bytes();
+                    }
+                    notifyAll();
+                }
+            }
+        }
+    }
+
+    private void apply(String key, PendingOp op) {
+        switch (op.type) {
+            case OP_PUT:
+                mDelegate.put(key, op.entry);
+                break;
+            case OP_UPDATE_METADATA:
+                mDelegate.updateMetadata(key, op.entry);
+                break;
+            case OP_INVALIDATE:
+                mDelegate.invalidate(key, op.fullExpire);
+                break;
+            case OP_REMOVE:
+                mDelegate.remove(key);
+                break;
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package com.android.volley.toolbox;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.security.KeyStore;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLServerSocket;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.TrustManagerFactory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 用本地的SSLServerSocket验证会话复用的统计和预热.
+ * 服务器证书是localhost.p12中的自签名证书,客户端只信任这个证书.
+ */
+public class ResumableSslSocketFactoryTest {
+    private static final String HOST = "localhost";
+    private static final char[] PASSWORD = "volley-test".toCharArray();
+    private static final int TIMEOUT_MS = 5000;
+
+    private SSLServerSocket mServerSocket;
+    private Thread mServerThread;
+    private ResumableSslSocketFactory mFactory;
+
+    @Before
+    public void setUp() throws Exception {
+        KeyStore keyStore = KeyStore.getInstance("PKCS12");
+        InputStream in = getClass().getClassLoader().getResourceAsStream("localhost.p12");
+        try {
+            keyStore.load(in, PASSWORD);
+        } finally {
+            in.close();
+        }
+
+        KeyManagerFactory kmf =
+                KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        kmf.init(keyStore, PASSWORD);
+        SSLContext serverContext = SSLContext.getInstance("TLS");
+        serverContext.init(kmf.getKeyManagers(), null, null);
+        mServerSocket = (SSLServerSocket) serverContext.getServerSocketFactory()
+                .createServerSocket(0, 50, InetAddress.getByName(HOST));
+        mServerThread = new Thread(new Acceptor(mServerSocket));
+        mServerThread.start();
+
+        TrustManagerFactory tmf =
+                TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+        tmf.init(keyStore);
+        SSLContext clientContext = SSLContext.getInstance("TLS");
+        clientContext.init(null, tmf.getTrustManagers(), null);
+        mFactory = new ResumableSslSocketFactory(clientContext,
+                ResumableSslSocketFactory.DEFAULT_SESSION_CACHE_SIZE,
+                ResumableSslSocketFactory.DEFAULT_SESSION_TIMEOUT_SECONDS);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mServerSocket.close();
+        mServerThread.join(TIMEOUT_MS);
+    }
+
+    @Test
+    public void secondConnectionResumesSession() throws Exception {
+        connect();
+        awaitHandshakes(1);
+        connect();
+        awaitHandshakes(2);
+
+        assertEquals(1, mFactory.getFullHandshakeCount());
+        assertEquals(1, mFactory.getResumedHandshakeCount());
+    }
+
+    @Test
+    public void warmUpMakesFirstRequestResume() throws Exception {
+        assertTrue(mFactory.warmUp(HOST, mServerSocket.getLocalPort(), TIMEOUT_MS));
+        awaitHandshakes(1);
+        assertEquals(1, mFactory.getFullHandshakeCount());
+        assertEquals(0, mFactory.getResumedHandshakeCount());
+
+        connect();
+        awaitHandshakes(2);
+        assertEquals(1, mFactory.getFullHandshakeCount());
+        assertEquals(1, mFactory.getResumedHandshakeCount());
+    }
+
+    @Test
+    public void warmUpFailsWithoutServer() throws Exception {
+        ServerSocket unused = new ServerSocket(0);
+        int port = unused.getLocalPort();
+        unused.close();
+
+        assertFalse(mFactory.warmUp(HOST, port, TIMEOUT_MS));
+        assertEquals(0, mFactory.getFullHandshakeCount());
+        assertEquals(0, mFactory.getResumedHandshakeCount());
+    }
+
+    /** 与HttpsURLConnection一样在已连接的Socket上握手,然后读一次让TLS 1.3的session ticket进入缓存. */
+    private void connect() throws IOException {
+        Socket raw = new Socket();
+        raw.connect(new InetSocketAddress(HOST, mServerSocket.getLocalPort()), TIMEOUT_MS);
+        SSLSocket socket = (SSLSocket) mFactory.createSocket(
+                raw, HOST, mServerSocket.getLocalPort(), true);
+        try {
+            socket.startHandshake();
+            socket.setSoTimeout(100);
+            try {
+                socket.getInputStream().read();
+            } catch (IOException ignored) {
+            }
+        } finally {
+            socket.close();
+        }
+    }
+
+    /** HandshakeCompletedListener可能在其他线程回调,等待计数到达count. */
+    private void awaitHandshakes(long count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        while (mFactory.getFullHandshakeCount() + mFactory.getResumedHandshakeCount() < count
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(count,
+                mFactory.getFullHandshakeCount() + mFactory.getResumedHandshakeCount());
+    }
+
+    /** 逐个接受连接,完成握手后等待客户端关闭. */
+    private static class Acceptor implements Runnable {
+        private final ServerSocket mServerSocket;
+
+        Acceptor(ServerSocket serverSocket) {
+            mServerSocket = serverSocket;
+        }
+
+        @Override
+        public void run() {
+            while (!mServerSocket.isClosed()) {
+                Socket socket = null;
+                try {
+                    socket = mServerSocket.accept();
+                    socket.setSoTimeout(TIMEOUT_MS);
+                    ((SSLSocket) socket).startHandshake();
+                    while (socket.getInputStream().read() != -1) {
+                        // 丢弃客户端数据.
+                    }
+                } catch (IOException ignored) {
+                } finally {
+                    if (socket != null) {
+                        try {
+                            socket.close();
+                        } catch (IOException ignored) {
+                        }
+                    }
+                }
+            }
+        }
+    }
+}